@@ -22,6 +22,7 @@ import static net.alliknow.podcatcher.view.fragments.AuthorizationFragment.USERN
 import android.app.ActionBar;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.view.View;
@@ -31,13 +32,16 @@ import net.alliknow.podcatcher.listeners.OnLoadDownloadsListener;
 import net.alliknow.podcatcher.listeners.OnLoadPlaylistListener;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastListener;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastLogoListener;
+import net.alliknow.podcatcher.listeners.OnMergeEpisodesListener;
 import net.alliknow.podcatcher.listeners.OnReorderEpisodeListener;
 import net.alliknow.podcatcher.listeners.OnReverseSortingListener;
 import net.alliknow.podcatcher.listeners.OnSelectPodcastListener;
 import net.alliknow.podcatcher.listeners.OnToggleFilterListener;
+import net.alliknow.podcatcher.model.EpisodeSetMerger;
 import net.alliknow.podcatcher.model.tasks.LoadDownloadsTask;
 import net.alliknow.podcatcher.model.tasks.LoadPlaylistTask;
 import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.EpisodeDiff;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
 import net.alliknow.podcatcher.view.ContentSpinner;
@@ -61,7 +65,8 @@ import java.util.TreeSet;
 public abstract class EpisodeListActivity extends EpisodeActivity implements
         OnLoadPodcastListener, OnEnterAuthorizationListener, OnLoadPodcastLogoListener,
         OnSelectPodcastListener, OnLoadDownloadsListener, OnLoadPlaylistListener,
-        OnReorderEpisodeListener, OnToggleFilterListener, OnReverseSortingListener {
+        OnReorderEpisodeListener, OnToggleFilterListener, OnReverseSortingListener,
+        OnMergeEpisodesListener {
 
     /** Key used to save the current content mode in bundle */
     public static final String MODE_KEY = "MODE_KEY";
@@ -75,8 +80,23 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
 
     /** The current episode set (ordered) */
     protected SortedSet<Episode> currentEpisodeSet;
+    /**
+     * Flag to indicate that the current episode set holds all episodes of the
+     * selected podcast, i.e. reloads can simply apply their changes to it
+     */
+    private boolean currentEpisodeSetIsComplete = false;
     /** The filtered episode list */
     protected List<Episode> filteredEpisodeList;
+    /**
+     * The merger collecting the episodes of all podcasts in select all mode,
+     * <code>null</code> in all other modes
+     */
+    private EpisodeSetMerger episodeSetMerger;
+    /**
+     * Flag to indicate that we are starting the loads for all podcasts, fresh
+     * podcasts report back right away while this is set
+     */
+    private boolean isStartingAllLoads = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -135,6 +155,8 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
 
         podcastManager.removeLoadPodcastListener(this);
         podcastManager.removeLoadPodcastLogoListener(this);
+
+        cancelEpisodeSetMerger();
     }
 
     @Override
@@ -167,6 +189,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         selection.setMode(ContentMode.SINGLE_PODCAST);
 
         this.currentEpisodeSet = null;
+        cancelEpisodeSetMerger();
 
         switch (view) {
             case SMALL_LANDSCAPE:
@@ -186,6 +209,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
 
                 // Load podcast
                 podcastManager.load(podcast);
+                showEpisodesWhileLoading(podcast);
 
                 break;
             case SMALL_PORTRAIT:
@@ -199,8 +223,11 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         selection.resetPodcast();
         selection.setMode(ContentMode.ALL_PODCASTS);
 
-        // We need to use a set here to avoid duplicates
+        // We need to use a set here to avoid duplicates, it is replaced by
+        // the merger as the podcasts come in
         this.currentEpisodeSet = new TreeSet<Episode>();
+        cancelEpisodeSetMerger();
+        this.episodeSetMerger = new EpisodeSetMerger(this);
 
         switch (view) {
             case SMALL_LANDSCAPE:
@@ -223,8 +250,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
                 updateDivider();
 
                 // Go load all podcasts
-                for (Podcast podcast : podcastManager.getPodcastList())
-                    podcastManager.load(podcast);
+                loadAllPodcasts();
 
                 // Action bar needs update after loading has started
                 updateActionBar();
@@ -239,6 +265,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
     public void onDownloadsSelected() {
         selection.resetPodcast();
         selection.setMode(ContentMode.DOWNLOADS);
+        cancelEpisodeSetMerger();
 
         switch (view) {
             case SMALL_LANDSCAPE:
@@ -253,7 +280,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
                 episodeListFragment.resetAndSpin();
                 episodeListFragment.setShowPodcastNames(true);
 
-                new LoadDownloadsTask(this).execute((Void) null);
+                episodeManager.executeWhenEpisodeMetadataIsLoaded(new LoadDownloadsTask(this));
 
                 break;
             case SMALL_PORTRAIT:
@@ -275,6 +302,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
     public void onPlaylistSelected() {
         selection.resetPodcast();
         selection.setMode(ContentMode.PLAYLIST);
+        cancelEpisodeSetMerger();
 
         switch (view) {
             case SMALL_LANDSCAPE:
@@ -290,7 +318,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
                 episodeListFragment.setShowPodcastNames(true);
                 episodeListFragment.setEnableSwipeReorder(true);
 
-                new LoadPlaylistTask(this).execute((Void) null);
+                episodeManager.executeWhenEpisodeMetadataIsLoaded(new LoadPlaylistTask(this));
 
                 break;
             case SMALL_PORTRAIT:
@@ -314,6 +342,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         selection.setMode(ContentMode.SINGLE_PODCAST);
 
         this.currentEpisodeSet = null;
+        cancelEpisodeSetMerger();
 
         if (!view.isSmallPortrait()) {
             // If there is an episode list visible, reset it
@@ -379,14 +408,31 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
     public void onPodcastLoaded(Podcast podcast) {
         // Update list fragment to show episode list
         // Select all podcasts
-        if (selection.isAll()) {
-            if (currentEpisodeSet.addAll(podcast.getEpisodes()))
-                setSortedAndFilteredEpisodeList(currentEpisodeSet);
+        if (selection.isAll() && episodeSetMerger != null) {
+            // The merger will call back with the episode set, it does not
+            // rebuild the list for every podcast coming in
+            episodeSetMerger.merge(podcast);
+
+            // This was the last one, show the final list right away
+            if (!isStartingAllLoads && podcastManager.getLoadCount() == 0)
+                episodeSetMerger.flush();
         } // Select single podcast
         else if (selection.isSingle() && podcast.equals(selection.getPodcast())) {
-            currentEpisodeSet = new TreeSet<Episode>(podcast.getEpisodes());
-            addSpecialEpisodes(podcast);
-            setSortedAndFilteredEpisodeList(currentEpisodeSet);
+            final EpisodeDiff changes = podcast.getLastChanges();
+
+            // We are already showing the podcast and can apply the changes
+            if (currentEpisodeSet != null && currentEpisodeSetIsComplete && changes != null
+                    && changes.getChanged().isEmpty()) {
+                // Only update the UI if there is anything to update
+                if (!changes.isEmpty()) {
+                    currentEpisodeSet.removeAll(changes.getRemoved());
+                    currentEpisodeSet.addAll(changes.getAdded());
+                    addSpecialEpisodes(podcast);
+                    setSortedAndFilteredEpisodeList(currentEpisodeSet);
+                }
+            } // Build the episode set from scratch
+            else
+                setEpisodeSet(podcast);
         }
 
         // Additionally, if on large device, process clever selection update
@@ -407,6 +453,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         // The podcast we are waiting for failed to load
         if (selection.isSingle() && failedPodcast.equals(selection.getPodcast())) {
             this.currentEpisodeSet = new TreeSet<Episode>();
+            this.currentEpisodeSetIsComplete = false;
             addSpecialEpisodes(failedPodcast);
             // We might at least be able to show the downloaded episodes
             if (currentEpisodeSet != null && currentEpisodeSet.size() > 0) {
@@ -422,18 +469,40 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         // The last podcast failed to load and none of the others had any
         // episodes to show in the list
         else if (selection.isAll() && podcastManager.getLoadCount() == 0
-                && (currentEpisodeSet == null || currentEpisodeSet.isEmpty()))
+                && (currentEpisodeSet == null || currentEpisodeSet.isEmpty())
+                && (episodeSetMerger == null || !episodeSetMerger.isPending()))
             episodeListFragment.showLoadFailed();
         // One of many podcasts failed to load
-        else if (selection.isAll())
+        else if (selection.isAll()) {
             showToast(getString(R.string.podcast_load_multiple_error, failedPodcast.getName()));
 
+            // This was the last one, show the final list right away
+            if (episodeSetMerger != null && !isStartingAllLoads
+                    && podcastManager.getLoadCount() == 0)
+                episodeSetMerger.flush();
+        }
+
         // Update UI
         updateActionBar();
     }
 
     @Override
-    public void onPodcastLogoLoaded(Podcast podcast) {
+    public void onEpisodesMerged(SortedSet<Episode> episodes) {
+        // Only called while in select all mode, the merger is cancelled
+        // otherwise
+        this.currentEpisodeSet = episodes;
+        setSortedAndFilteredEpisodeList(currentEpisodeSet);
+
+        if (!view.isSmall()) {
+            updateEpisodeListSelection();
+            updateDivider();
+        }
+
+        updateActionBar();
+    }
+
+    @Override
+    public void onPodcastLogoLoaded(Podcast podcast, Bitmap logo) {
         // pass
     }
 
@@ -487,16 +556,10 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         // Only accept movements if in playlist mode
         if (ContentMode.PLAYLIST.equals(selection.getMode())) {
             final int currentPosition = episodeManager.getPlaylistPosition(episode);
-            final int playlistLength = episodeManager.getPlaylistSize();
-            // Only move episode if it is actually in the playlist
-            if (currentPosition >= 0) {
-                episodeManager.removeFromPlaylist(episode);
-                // If the episode is at the end of the playlist, send it back up
-                episodeManager.insertAtPlaylistPosition(episode,
-                        currentPosition == playlistLength - 1 ? 0 : currentPosition + 1);
-            }
+            // If the episode is at the end of the playlist, it goes back up
+            episodeManager.moveDownInPlaylist(episode);
 
-            onPlaylistLoaded(episodeManager.getPlaylist());
+            onPlaylistEntryMoved(episode, currentPosition);
         }
     }
 
@@ -505,17 +568,10 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         // Only accept movements if in playlist mode
         if (ContentMode.PLAYLIST.equals(selection.getMode())) {
             final int currentPosition = episodeManager.getPlaylistPosition(episode);
-            // Only move episode if it is actually in the playlist
-            if (currentPosition > 0) {
-                episodeManager.removeFromPlaylist(episode);
-                episodeManager.insertAtPlaylistPosition(episode, currentPosition - 1);
-            } // When at top, move to the bottom end
-            else if (currentPosition == 0) {
-                episodeManager.removeFromPlaylist(episode);
-                episodeManager.appendToPlaylist(episode);
-            }
+            // When at top, the episode goes to the bottom end
+            episodeManager.moveUpInPlaylist(episode);
 
-            onPlaylistLoaded(episodeManager.getPlaylist());
+            onPlaylistEntryMoved(episode, currentPosition);
         }
     }
 
@@ -555,6 +611,48 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
             episodeListFragment.selectNone();
     }
 
+    /**
+     * Start loading all podcasts for the select all mode. Podcasts that do
+     * not need to go to the network report back while this runs, their
+     * episodes are published as one when all loads are started.
+     */
+    protected void loadAllPodcasts() {
+        isStartingAllLoads = true;
+        try {
+            for (Podcast podcast : podcastManager.getPodcastList()) {
+                podcastManager.load(podcast);
+
+                // The podcast manager does not report content we have seen
+                // before, so show what the podcast has while it loads
+                if (episodeSetMerger != null && podcastManager.isLoading(podcast)
+                        && podcast.getEpisodeNumber() > 0)
+                    episodeSetMerger.merge(podcast);
+            }
+        } finally {
+            isStartingAllLoads = false;
+        }
+
+        if (episodeSetMerger != null)
+            episodeSetMerger.flush();
+    }
+
+    /**
+     * Show the episodes the selected podcast already has (e.g. restored from
+     * its snapshot) while it loads. The podcast manager does not report
+     * content we have seen before, so we need to look ourselves.
+     * 
+     * @param podcast The podcast just selected and started to load.
+     */
+    protected void showEpisodesWhileLoading(Podcast podcast) {
+        if (currentEpisodeSet == null && podcastManager.isLoading(podcast)
+                && podcast.getEpisodeNumber() > 0
+                && selection.isSingle() && podcast.equals(selection.getPodcast())) {
+            setEpisodeSet(podcast);
+
+            updateActionBar();
+        }
+    }
+
     /**
      * Update the sorting menu icon visibility.
      */
@@ -664,6 +762,31 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         updateFilter();
     }
 
+    private void onPlaylistEntryMoved(Episode episode, int oldPosition) {
+        final int newPosition = episodeManager.getPlaylistPosition(episode);
+
+        // The list shown is the playlist, so we only need to move the
+        // episode there and let the adapter redraw
+        if (filteredEpisodeList != null && oldPosition >= 0 && newPosition >= 0
+                && oldPosition < filteredEpisodeList.size()
+                && episode.equals(filteredEpisodeList.get(oldPosition))) {
+            filteredEpisodeList.add(newPosition, filteredEpisodeList.remove(oldPosition));
+
+            episodeListFragment.setEpisodeList(filteredEpisodeList);
+            updateEpisodeListSelection();
+        }
+        // The list shown is out of sync, reload it
+        else
+            onPlaylistLoaded(episodeManager.getPlaylist());
+    }
+
+    private void cancelEpisodeSetMerger() {
+        if (episodeSetMerger != null) {
+            episodeSetMerger.cancel();
+            episodeSetMerger = null;
+        }
+    }
+
     private void colorDivider(int dividerViewId, boolean applyColor) {
         if (getWindow() != null && getWindow().findViewById(dividerViewId) != null) {
             View divider = getWindow().findViewById(dividerViewId);
@@ -698,6 +821,13 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
                     (podcastCount - loadingPodcastCount), podcastCount));
     }
 
+    private void setEpisodeSet(Podcast podcast) {
+        currentEpisodeSet = new TreeSet<Episode>(podcast.getEpisodes());
+        currentEpisodeSetIsComplete = true;
+        addSpecialEpisodes(podcast);
+        setSortedAndFilteredEpisodeList(currentEpisodeSet);
+    }
+
     private void addSpecialEpisodes(Podcast podcast) {
         if (currentEpisodeSet != null && podcast != null) {
             // Downloads
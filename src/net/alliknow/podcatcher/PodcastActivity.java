@@ -22,6 +22,7 @@ import android.app.FragmentManager.OnBackStackChangedListener;
 import android.content.ActivityNotFoundException;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.os.StrictMode;
 import android.view.View;
@@ -531,8 +532,8 @@ public class PodcastActivity extends EpisodeListActivity implements OnBackStackC
     }
 
     @Override
-    public void onPodcastLogoLoaded(Podcast podcast) {
-        super.onPodcastLogoLoaded(podcast);
+    public void onPodcastLogoLoaded(Podcast podcast, Bitmap logo) {
+        super.onPodcastLogoLoaded(podcast, logo);
 
         updateLogoViewMode();
     }
@@ -118,6 +118,7 @@ public class ShowEpisodeListActivity extends EpisodeListActivity {
         episodeListFragment.resetAndSpin();
         // ...and start loading
         podcastManager.load(podcast);
+        showEpisodesWhileLoading(podcast);
     }
 
     @Override
@@ -131,8 +132,7 @@ public class ShowEpisodeListActivity extends EpisodeListActivity {
             episodeListFragment.resetUi();
         episodeListFragment.setShowPodcastNames(true);
         // ...and go get the data
-        for (Podcast podcast : podcastManager.getPodcastList())
-            podcastManager.load(podcast);
+        loadAllPodcasts();
 
         updateActionBar();
     }
@@ -144,7 +144,7 @@ public class ShowEpisodeListActivity extends EpisodeListActivity {
         episodeListFragment.resetAndSpin();
         episodeListFragment.setShowPodcastNames(true);
 
-        new LoadDownloadsTask(this).execute((Void) null);
+        episodeManager.executeWhenEpisodeMetadataIsLoaded(new LoadDownloadsTask(this));
     }
 
     @Override
@@ -155,7 +155,7 @@ public class ShowEpisodeListActivity extends EpisodeListActivity {
         episodeListFragment.setShowPodcastNames(true);
         episodeListFragment.setEnableSwipeReorder(true);
 
-        new LoadPlaylistTask(this).execute((Void) null);
+        episodeManager.executeWhenEpisodeMetadataIsLoaded(new LoadPlaylistTask(this));
     }
 
     @Override
@@ -18,8 +18,8 @@
 package net.alliknow.podcatcher.listeners;
 
 import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+import net.alliknow.podcatcher.model.types.UrlKey;
 
-import java.net.URL;
 import java.util.Map;
 
 /**
@@ -33,6 +33,6 @@ public interface OnLoadEpisodeMetadataListener {
      * 
      * @param metadata Episode metadata loaded.
      */
-    public void onEpisodeMetadataLoaded(Map<URL, EpisodeMetadata> metadata);
+    public void onEpisodeMetadataLoaded(Map<UrlKey, EpisodeMetadata> metadata);
 
 }
@@ -48,7 +48,10 @@ public interface OnLoadPodcastListener {
     public void onPodcastLoadProgress(Podcast podcast, Progress progress);
 
     /**
-     * Called on completion.
+     * Called on completion. Use {@link Podcast#getLastChanges()} to find out
+     * which episodes have been added, removed or changed by the load in case
+     * you would like to apply these changes only instead of processing all of
+     * the podcast's episodes again.
      * 
      * @param podcast Podcast loaded.
      */
@@ -17,6 +17,8 @@
 
 package net.alliknow.podcatcher.listeners;
 
+import android.graphics.Bitmap;
+
 import net.alliknow.podcatcher.model.types.Podcast;
 
 /**
@@ -29,8 +31,9 @@ public interface OnLoadPodcastLogoListener {
      * Called on completion.
      * 
      * @param podcast The podcast we are loading the logo for.
+     * @param logo The logo loaded.
      */
-    public void onPodcastLogoLoaded(Podcast podcast);
+    public void onPodcastLogoLoaded(Podcast podcast, Bitmap logo);
 
     /**
      * Called when loading the podcast logo failed.
@@ -0,0 +1,38 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.listeners;
+
+import net.alliknow.podcatcher.model.types.Episode;
+
+import java.util.SortedSet;
+
+/**
+ * Interface definition for a callback to be invoked when the episodes of
+ * several podcasts have been merged into one set.
+ */
+public interface OnMergeEpisodesListener {
+
+    /**
+     * Called on listener (on the main thread) when a new version of the merged
+     * episode set is available.
+     * 
+     * @param episodes The merged episodes. This is a copy owned by the
+     *            listener, the merger will not touch it again.
+     */
+    public void onEpisodesMerged(SortedSet<Episode> episodes);
+}
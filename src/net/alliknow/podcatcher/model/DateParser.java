@@ -0,0 +1,322 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Parser for the dates found in podcast feeds. Handles RFC 822 dates as used
+ * in <code>&lt;pubDate&gt;</code> elements (including the common variants
+ * with numeric time zone offsets, missing seconds, missing day names and two
+ * digit years) as well as ISO 8601 dates as used in
+ * <code>&lt;dc:date&gt;</code> elements. This is hand-rolled and only creates
+ * a tiny cursor object besides the resulting date (unlike
+ * {@link java.text.SimpleDateFormat}, which is also not thread-safe), because
+ * it runs for each and every episode in each and every feed we parse. The
+ * class is thread-safe.
+ */
+public class DateParser {
+
+    /** Month name prefixes as used in RFC 822 dates */
+    private static final String[] MONTHS = {
+            "jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct", "nov", "dec"
+    };
+
+    /** The number of days in each month (February in leap years) */
+    private static final int[] DAYS_IN_MONTH = {
+            31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31
+    };
+
+    /** Time zone names we know without asking the system */
+    private static final String[] ZONE_NAMES = {
+            "GMT", "UTC", "UT", "Z", "EST", "EDT", "CST", "CDT", "MST", "MDT", "PST", "PDT",
+            "CET", "CEST", "MET", "MEST", "BST", "EET", "EEST", "WET", "WEST"
+    };
+    /** The offsets for the time zone names above in minutes */
+    private static final int[] ZONE_OFFSETS = {
+            0, 0, 0, 0, -5 * 60, -4 * 60, -6 * 60, -5 * 60, -7 * 60, -6 * 60, -8 * 60, -7 * 60,
+            60, 2 * 60, 60, 2 * 60, 60, 2 * 60, 3 * 60, 0, 60
+    };
+
+    /** The date string to parse */
+    private final String value;
+    /** The current parse position */
+    private int position;
+
+    private DateParser(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Parse the given date string.
+     *
+     * @param value The date string from the feed. Leading and trailing white
+     *            space is ignored. If the string has no time zone information,
+     *            UTC is assumed.
+     * @return The date represented.
+     * @throws ParseException If the string is <code>null</code> or is not a
+     *             date we understand (this includes unknown time zones).
+     */
+    public static Date parse(String value) throws ParseException {
+        if (value == null)
+            throw new ParseException("No date given", 0);
+
+        final DateParser parser = new DateParser(value);
+        parser.skipWhitespace();
+
+        return new Date(parser.isIso8601() ? parser.parseIso8601() : parser.parseRfc822());
+    }
+
+    private boolean isIso8601() {
+        // ISO dates start with a four digit year followed by a dash
+        return value.length() > position + 4 && value.charAt(position + 4) == '-'
+                && isDigit(position) && isDigit(position + 1)
+                && isDigit(position + 2) && isDigit(position + 3);
+    }
+
+    private long parseRfc822() throws ParseException {
+        // 1. The day name is optional and we do not need it
+        if (isLetter(position)) {
+            skipLetters();
+            if (position < value.length() && value.charAt(position) == ',')
+                position++;
+            skipWhitespace();
+        }
+
+        // 2. Date, separated by blanks or dashes
+        final int day = readNumber(1, 2);
+        skipSeparators();
+        final int month = readMonth();
+        skipSeparators();
+        final int yearStart = position;
+        int year = readNumber(2, 4);
+        // Two digit years, see RFC 2822 section 4.3
+        if (position - yearStart == 2)
+            year += year < 50 ? 2000 : 1900;
+        skipWhitespace();
+
+        // 3. Time, seconds are optional
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        if (isDigit(position)) {
+            hour = readNumber(1, 2);
+            expect(':');
+            minute = readNumber(2, 2);
+            if (position < value.length() && value.charAt(position) == ':') {
+                position++;
+                second = readNumber(2, 2);
+            }
+            skipWhitespace();
+        }
+
+        // 4. Time zone
+        final int offset = readZone();
+
+        return toMillis(year, month, day, hour, minute, second, 0, offset);
+    }
+
+    private long parseIso8601() throws ParseException {
+        // 1. Date
+        final int year = readNumber(4, 4);
+        expect('-');
+        final int month = readNumber(2, 2);
+        expect('-');
+        final int day = readNumber(2, 2);
+
+        // 2. Time, optional altogether and seconds are optional as well
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        int millis = 0;
+        if (position < value.length()) {
+            final char separator = value.charAt(position);
+            if (separator == 'T' || separator == 't' || separator == ' ') {
+                position++;
+                hour = readNumber(2, 2);
+                expect(':');
+                minute = readNumber(2, 2);
+
+                if (position < value.length() && value.charAt(position) == ':') {
+                    position++;
+                    second = readNumber(2, 2);
+
+                    // Fractions of seconds, we keep milliseconds only
+                    if (position < value.length()
+                            && (value.charAt(position) == '.' || value.charAt(position) == ',')) {
+                        position++;
+                        int factor = 100;
+                        if (!isDigit(position))
+                            throw new ParseException("Fraction expected: " + value, position);
+                        while (isDigit(position)) {
+                            millis += factor * (value.charAt(position++) - '0');
+                            factor /= 10;
+                        }
+                    }
+                }
+            }
+        }
+        skipWhitespace();
+
+        // 3. Time zone
+        final int offset = readZone();
+
+        return toMillis(year, month, day, hour, minute, second, millis, offset);
+    }
+
+    /**
+     * @return The time zone offset in minutes, zero if no zone is given.
+     */
+    private int readZone() throws ParseException {
+        int offset = 0;
+
+        if (position < value.length()) {
+            // Zone given by its name, this might still have a numeric offset
+            // following (like in "GMT+01:00")
+            if (isLetter(position)) {
+                final int start = position;
+                skipLetters();
+                offset = lookupZone(start, position - start);
+            }
+
+            // Numeric offset
+            if (position < value.length()
+                    && (value.charAt(position) == '+' || value.charAt(position) == '-')) {
+                final boolean negative = value.charAt(position++) == '-';
+                final int hours = readNumber(2, 2);
+                int minutes = 0;
+                if (position < value.length() && value.charAt(position) == ':')
+                    position++;
+                if (isDigit(position))
+                    minutes = readNumber(2, 2);
+
+                offset += (negative ? -1 : 1) * (hours * 60 + minutes);
+            }
+        }
+
+        // Anything after the zone is ignored
+        return offset;
+    }
+
+    private int lookupZone(int start, int length) throws ParseException {
+        for (int index = 0; index < ZONE_NAMES.length; index++)
+            if (ZONE_NAMES[index].length() == length
+                    && value.regionMatches(true, start, ZONE_NAMES[index], 0, length))
+                return ZONE_OFFSETS[index];
+
+        // Not one we know, ask the system. It falls back to GMT for zones it
+        // does not know either, a date hours off is worse than no date.
+        final String name = value.substring(start, start + length);
+        final TimeZone zone = TimeZone.getTimeZone(name);
+        if (!zone.getID().equalsIgnoreCase(name))
+            throw new ParseException("Unknown time zone: " + value, start);
+
+        return zone.getRawOffset() / (60 * 1000);
+    }
+
+    private int readMonth() throws ParseException {
+        final int start = position;
+        skipLetters();
+
+        // We accept full month names as well, since we only look at the
+        // first three letters
+        if (position - start >= 3)
+            for (int index = 0; index < MONTHS.length; index++)
+                if (value.regionMatches(true, start, MONTHS[index], 0, 3))
+                    return index + 1;
+
+        throw new ParseException("Month expected: " + value, start);
+    }
+
+    private int readNumber(int minDigits, int maxDigits) throws ParseException {
+        final int start = position;
+        int result = 0;
+
+        while (position - start < maxDigits && isDigit(position))
+            result = result * 10 + value.charAt(position++) - '0';
+
+        if (position - start < minDigits)
+            throw new ParseException("Number expected: " + value, start);
+
+        return result;
+    }
+
+    private void expect(char expected) throws ParseException {
+        if (position < value.length() && value.charAt(position) == expected)
+            position++;
+        else
+            throw new ParseException("'" + expected + "' expected: " + value, position);
+    }
+
+    private void skipWhitespace() {
+        while (position < value.length() && Character.isWhitespace(value.charAt(position)))
+            position++;
+    }
+
+    private void skipSeparators() {
+        while (position < value.length()
+                && (Character.isWhitespace(value.charAt(position)) || value.charAt(position) == '-'))
+            position++;
+    }
+
+    private void skipLetters() {
+        while (isLetter(position))
+            position++;
+    }
+
+    private boolean isDigit(int index) {
+        if (index >= value.length())
+            return false;
+
+        final char c = value.charAt(index);
+        return c >= '0' && c <= '9';
+    }
+
+    private boolean isLetter(int index) {
+        if (index >= value.length())
+            return false;
+
+        final char c = value.charAt(index);
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private long toMillis(int year, int month, int day, int hour, int minute, int second,
+            int millis, int offset) throws ParseException {
+        if (month < 1 || month > 12 || day < 1 || day > getDaysInMonth(year, month)
+                || hour > 24 || minute > 59 || second > 60)
+            throw new ParseException("Date out of range: " + value, 0);
+
+        // Days since the epoch for the proleptic Gregorian calendar
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = (y >= 0 ? y : y - 399) / 400;
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        final long days = era * 146097L + dayOfEra - 719468;
+
+        return (((days * 24 + hour) * 60 + minute - offset) * 60 + second) * 1000 + millis;
+    }
+
+    private static int getDaysInMonth(int year, int month) {
+        final boolean leapYear = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+
+        return month == 2 && !leapYear ? 28 : DAYS_IN_MONTH[month - 1];
+    }
+}
@@ -17,21 +17,27 @@
 
 package net.alliknow.podcatcher.model;
 
+import android.os.AsyncTask;
 import android.os.Handler;
 import android.util.Log;
 
 import net.alliknow.podcatcher.Podcatcher;
 import net.alliknow.podcatcher.listeners.OnLoadEpisodeMetadataListener;
 import net.alliknow.podcatcher.listeners.OnStoreEpisodeMetadataListener;
+import net.alliknow.podcatcher.model.tasks.AppendEpisodeMetadataTask;
 import net.alliknow.podcatcher.model.tasks.StoreEpisodeMetadataTask;
 import net.alliknow.podcatcher.model.types.Episode;
 import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+import net.alliknow.podcatcher.model.types.UrlKey;
 
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
 
 /**
  * Base for the episode manager's class hierarchy. This sets things up by
@@ -43,20 +49,43 @@ public abstract class EpisodeBaseManager implements OnLoadEpisodeMetadataListene
         OnStoreEpisodeMetadataListener {
 
     /** The file name to store local episode metadata information under */
-    public static final String METADATA_FILENAME = "episodes.xml";
+    public static final String METADATA_FILENAME = "episodes.bin";
+    /**
+     * The file name episode metadata was stored under as XML by earlier
+     * versions, it is migrated to the binary format on first load
+     */
+    public static final String LEGACY_METADATA_FILENAME = "episodes.xml";
+    /** The file name of the journal for changes to the episode metadata */
+    public static final String METADATA_JOURNAL_FILENAME = "episodes.journal";
+    /** The journal size (in bytes) that triggers writing a new snapshot */
+    private static final long MAX_METADATA_JOURNAL_SIZE = 256 * 1024;
 
     /** The application itself (used e.g. as context in tasks) */
     protected Podcatcher podcatcher;
 
     /** The metadata information held for episodes */
-    protected Map<URL, EpisodeMetadata> metadata;
-    /** Flag to indicate whether metadata is dirty */
-    protected boolean metadataChanged;
+    protected Map<UrlKey, EpisodeMetadata> metadata;
+    /** The secondary indexes on the metadata */
+    protected final EpisodeMetadataIndex metadataIndex = new EpisodeMetadataIndex();
+    /**
+     * The keys of the metadata records changed since they were last persisted
+     * (this needs to be thread-safe since clean-up work runs off the main
+     * thread)
+     */
+    private final Set<UrlKey> changedMetadata =
+            Collections.newSetFromMap(new ConcurrentHashMap<UrlKey, Boolean>());
+    /** The keys of the metadata records currently being persisted */
+    private Set<UrlKey> persistingMetadata = new HashSet<UrlKey>();
 
     /** Amount of milliseconds between {@link #saveState()} calls */
     private long PERSIST_METADATA_INTERVAL = 60 * 1000;
     /** Flag to indicate whether the store meta data task is active */
     private boolean isStoreTaskRunning = false;
+    /**
+     * Flag to indicate that the next store needs to write a complete snapshot,
+     * set after a failed store since the journal might not be usable
+     */
+    private boolean isSnapshotNeeded = false;
     /** Handler for periodic meta data dirty checks */
     private Handler persistMetaDataHandler = new Handler();
     /** The runnable that calls {@link #saveState()} */
@@ -70,8 +99,8 @@ public abstract class EpisodeBaseManager implements OnLoadEpisodeMetadataListene
         }
     };
 
-    /** Latch we use to block all threads until we have our data */
-    private CountDownLatch latch = new CountDownLatch(1);
+    /** The actions waiting for the episode metadata to become available */
+    private List<Runnable> metadataContinuations = new ArrayList<Runnable>();
 
     /**
      * Init the base episode manager.
@@ -91,59 +120,153 @@ public abstract class EpisodeBaseManager implements OnLoadEpisodeMetadataListene
     }
 
     @Override
-    public void onEpisodeMetadataLoaded(Map<URL, EpisodeMetadata> metadata) {
+    public void onEpisodeMetadataLoaded(Map<UrlKey, EpisodeMetadata> metadata) {
         // We want our metadata to be thread safe, since we might load some
         // clean-up work off to other threads.
-        this.metadata = new ConcurrentHashMap<URL, EpisodeMetadata>(metadata);
-        this.metadataChanged = false;
+        this.metadata = new ConcurrentHashMap<UrlKey, EpisodeMetadata>(metadata);
+        this.changedMetadata.clear();
+        this.metadataIndex.rebuild(this.metadata);
+
+        // Here we need to run all actions that have been waiting for the
+        // episode metadata to become available
+        final List<Runnable> continuations = metadataContinuations;
+        metadataContinuations = null;
+
+        if (continuations != null)
+            for (Runnable action : continuations)
+                action.run();
+    }
+
+    /**
+     * Run the given action once the episode metadata has become available
+     * during the application's start-up. If the metadata is already loaded,
+     * the action is run right away. Use this instead of waiting for the
+     * metadata on some thread. Call this from the main thread only, this is
+     * also where the action will run.
+     * 
+     * @param action The action to run.
+     */
+    public void runWhenEpisodeMetadataIsLoaded(Runnable action) {
+        if (metadataContinuations == null)
+            action.run();
+        else
+            metadataContinuations.add(action);
+    }
 
-        // Here we need to release all threads (AsyncTasks) that might be
-        // waiting for the episode metadata to become available
-        latch.countDown();
+    /**
+     * Execute the given task once the episode metadata has become available.
+     * This is a shortcut for {@link #runWhenEpisodeMetadataIsLoaded(Runnable)}
+     * to be used with tasks that need to read the metadata.
+     * 
+     * @param task The task to execute (not yet started).
+     */
+    public void executeWhenEpisodeMetadataIsLoaded(final AsyncTask<Void, ?, ?> task) {
+        runWhenEpisodeMetadataIsLoaded(new Runnable() {
+
+            @Override
+            public void run() {
+                task.execute((Void) null);
+            }
+        });
+    }
+
+    /**
+     * Update the metadata records of a podcast that has moved to a new
+     * location, so they still belong to the podcast once it is re-created from
+     * the new URL. The changes are persisted with the next call of
+     * {@link #saveState()}. Call this from the main thread only.
+     * 
+     * @param oldUrl The podcast's previous URL.
+     * @param newUrl The podcast's new URL.
+     */
+    public void onPodcastMoved(final String oldUrl, final String newUrl) {
+        runWhenEpisodeMetadataIsLoaded(new Runnable() {
+
+            @Override
+            public void run() {
+                // The index gives us a copy, so we can change the records
+                for (UrlKey key : metadataIndex.getEntriesForPodcast(oldUrl)) {
+                    final EpisodeMetadata meta = metadata.get(key);
+
+                    if (meta != null) {
+                        meta.podcastUrl = newUrl;
+                        markMetadataChanged(key);
+                    }
+                }
+            }
+        });
     }
 
     /**
-     * This blocks the calling thread until the episode metadata has become
-     * available during the application's start-up. Once the metadata is read,
-     * this method returns immediately.
+     * Mark the metadata record for the given episode as changed, so it will be
+     * persisted with the next call of {@link #saveState()}. This also works for
+     * records removed from the metadata. This also updates the metadata
+     * index, so make sure to call it after each change.
      * 
-     * @throws InterruptedException When the thread is interrupted while
-     *             waiting.
+     * @param episodeUrl The key of the metadata record changed.
      */
-    public void blockUntilEpisodeMetadataIsLoaded() throws InterruptedException {
-        latch.await();
+    protected void markMetadataChanged(UrlKey episodeUrl) {
+        if (episodeUrl != null && metadata != null) {
+            changedMetadata.add(episodeUrl);
+            metadataIndex.update(episodeUrl, metadata.get(episodeUrl));
+        }
     }
 
     /**
      * Persist the manager's data to disk. It is save to call this at any time,
      * if there is no change in the episode meta data, no action is taken.
+     * Changes are appended to the metadata journal, so this is cheap. Only if
+     * the journal grows too long, the complete metadata is written.
      */
     @SuppressWarnings("unchecked")
     public void saveState() {
         // Run store task if it is not running and meta data is dirty
-        if (metadataChanged && metadata != null && !isStoreTaskRunning) {
+        if (!changedMetadata.isEmpty() && metadata != null && !isStoreTaskRunning) {
             // Make sure task does not run twice
             isStoreTaskRunning = true;
 
-            // Store a copy of the actual map, since there might come in changes
-            // to the meta data while the task is running and that would lead to
-            // a concurrent modification exception
-            new StoreEpisodeMetadataTask(podcatcher, this)
-                    .execute(new HashMap<URL, EpisodeMetadata>(metadata));
+            // Take the changed keys, further changes will go to the next run
+            persistingMetadata = new HashSet<UrlKey>(changedMetadata);
+            changedMetadata.removeAll(persistingMetadata);
+
+            // The journal is too long or the last store failed, write a
+            // complete snapshot (this will also delete the journal). Store a
+            // copy of the actual map, since there might come in changes to
+            // the meta data while the task is running and that would lead to
+            // a concurrent modification exception.
+            if (isSnapshotNeeded || podcatcher.getFileStreamPath(METADATA_JOURNAL_FILENAME)
+                    .length() > MAX_METADATA_JOURNAL_SIZE) {
+                isSnapshotNeeded = false;
+
+                new StoreEpisodeMetadataTask(podcatcher, this)
+                        .execute(new HashMap<UrlKey, EpisodeMetadata>(metadata));
+            }
+            // Only append the records changed to the journal
+            else {
+                final Map<UrlKey, EpisodeMetadata> changes = new HashMap<UrlKey, EpisodeMetadata>();
+                for (UrlKey key : persistingMetadata)
+                    changes.put(key, metadata.get(key));
 
-            // Reset the flag, so the list will only be saved if changed again.
-            metadataChanged = false;
+                new AppendEpisodeMetadataTask(podcatcher, this).execute(changes);
+            }
         }
     }
 
     @Override
     public void onEpisodeMetadataStored() {
         isStoreTaskRunning = false;
+        persistingMetadata.clear();
     }
 
     @Override
     public void onEpisodeMetadataStoreFailed(Exception exception) {
         isStoreTaskRunning = false;
+        // Make sure the changes are not lost and persist them next time, a
+        // failed append might have left a partial record in the journal, so
+        // we do not append after it but write everything
+        changedMetadata.addAll(persistingMetadata);
+        persistingMetadata.clear();
+        isSnapshotNeeded = true;
 
         Log.w(getClass().getSimpleName(), "Episode meta data could not be stored: ", exception);
     }
@@ -39,15 +39,13 @@ import net.alliknow.podcatcher.model.tasks.remote.DownloadEpisodeTask;
 import net.alliknow.podcatcher.model.tasks.remote.DownloadEpisodeTask.DownloadTaskListener;
 import net.alliknow.podcatcher.model.types.Episode;
 import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+import net.alliknow.podcatcher.model.types.UrlKey;
 
 import java.io.File;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
 import java.util.Set;
 
 /**
@@ -92,10 +90,10 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
     public void download(Episode episode) {
         if (episode != null && metadata != null && !isDownloadingOrDownloaded(episode)) {
             // Find or create the metadata information holder
-            EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            EpisodeMetadata meta = metadata.get(episode.getMediaUrlKey());
             if (meta == null) {
                 meta = new EpisodeMetadata();
-                metadata.put(episode.getMediaUrl(), meta);
+                metadata.put(episode.getMediaUrlKey(), meta);
             }
 
             // We need to put a download id. If the episode is already
@@ -107,7 +105,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
             putAdditionalEpisodeInformation(episode, meta);
 
             // Mark metadata record as dirty
-            metadataChanged = true;
+            markMetadataChanged(episode.getMediaUrlKey());
 
             // Start the actual download
             new DownloadEpisodeTask(podcatcher, this)
@@ -118,19 +116,19 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
     @Override
     public void onEpisodeEnqueued(Episode episode, long id) {
         // Find the metadata record for the episode
-        final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+        final EpisodeMetadata meta = metadata.get(episode.getMediaUrlKey());
         if (meta != null) {
             meta.downloadId = id;
 
             // Mark metadata record as dirty
-            metadataChanged = true;
+            markMetadataChanged(episode.getMediaUrlKey());
         }
     }
 
     @Override
     public void onEpisodeDownloadProgressed(Episode episode, int percent) {
         // Find the metadata record for the episode
-        final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+        final EpisodeMetadata meta = metadata.get(episode.getMediaUrlKey());
         if (meta != null) {
             meta.downloadProgress = percent;
         }
@@ -142,35 +140,35 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
     @Override
     public void onEpisodeDownloaded(Episode episode, File episodeFile) {
         // Find the metadata record for the episode
-        final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+        final EpisodeMetadata meta = metadata.get(episode.getMediaUrlKey());
         if (meta != null) {
             meta.filePath = episodeFile.getAbsolutePath();
 
-            for (OnDownloadEpisodeListener listener : downloadListeners)
-                listener.onDownloadSuccess(episode);
-
             // Update counter
             if (downloadsSize != -1)
                 downloadsSize++;
 
             // Mark metadata record as dirty
-            metadataChanged = true;
+            markMetadataChanged(episode.getMediaUrlKey());
+
+            for (OnDownloadEpisodeListener listener : downloadListeners)
+                listener.onDownloadSuccess(episode);
         }
     }
 
     @Override
     public void onEpisodeDownloadFailed(Episode episode) {
         // Find the metadata record for the episode
-        final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+        final EpisodeMetadata meta = metadata.get(episode.getMediaUrlKey());
         if (meta != null) {
             meta.downloadId = null;
             meta.filePath = null;
 
+            // Mark metadata record as dirty
+            markMetadataChanged(episode.getMediaUrlKey());
+
             for (OnDownloadEpisodeListener listener : downloadListeners)
                 listener.onDownloadFailed(episode);
-
-            // Mark metadata record as dirty
-            metadataChanged = true;
         }
     }
 
@@ -182,7 +180,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
     public void deleteDownload(Episode episode) {
         if (episode != null && metadata != null && isDownloadingOrDownloaded(episode)) {
             // Find the metadata information holder
-            final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            final EpisodeMetadata meta = metadata.get(episode.getMediaUrlKey());
             if (meta != null) {
                 // Keep info for the thread to run on
                 final long downloadId = meta.downloadId;
@@ -211,15 +209,15 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
                 meta.downloadId = null;
                 meta.filePath = null;
 
-                // Alert listeners
-                for (OnDownloadEpisodeListener listener : downloadListeners)
-                    listener.onDownloadDeleted(episode);
-
                 // Mark metadata record as dirty
-                metadataChanged = true;
+                markMetadataChanged(episode.getMediaUrlKey());
                 // Decrement counter
                 if (downloadsSize != -1)
                     downloadsSize--;
+
+                // Alert listeners
+                for (OnDownloadEpisodeListener listener : downloadListeners)
+                    listener.onDownloadDeleted(episode);
             }
         }
     }
@@ -233,7 +231,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
      */
     public boolean isDownloaded(Episode episode) {
         if (episode != null && metadata != null)
-            return isDownloaded(metadata.get(episode.getMediaUrl()));
+            return isDownloaded(metadata.get(episode.getMediaUrlKey()));
         else
             return false;
     }
@@ -247,7 +245,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
      */
     public boolean isDownloading(Episode episode) {
         if (episode != null && metadata != null) {
-            final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            final EpisodeMetadata meta = metadata.get(episode.getMediaUrlKey());
 
             return meta != null
                     && meta.downloadId != null
@@ -280,7 +278,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
      */
     public int getDownloadProgress(Episode episode) {
         if (isDownloading(episode)) {
-            final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            final EpisodeMetadata meta = metadata.get(episode.getMediaUrlKey());
 
             if (meta != null) {
                 return meta.downloadProgress;
@@ -307,15 +305,14 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
 
         // This is only possible if the metadata is available
         if (metadata != null) {
-            // Find downloads from metadata
-            Iterator<Entry<URL, EpisodeMetadata>> iterator = metadata.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Entry<URL, EpisodeMetadata> entry = iterator.next();
+            // Only look at the records the index knows to have a download
+            for (UrlKey key : metadataIndex.getDownloads()) {
+                final EpisodeMetadata meta = metadata.get(key);
 
-                // Find records for downloaded episodes
-                if (isDownloaded(entry.getValue())) {
+                // Make sure the file is actually there
+                if (isDownloaded(meta)) {
                     // Create and add the downloaded episode
-                    Episode download = entry.getValue().marshalEpisode(entry.getKey());
+                    Episode download = meta.marshalEpisode(key);
 
                     if (download != null)
                         result.add(download);
@@ -352,7 +349,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
      */
     public String getLocalPath(Episode episode) {
         if (episode != null && metadata != null) {
-            final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            final EpisodeMetadata meta = metadata.get(episode.getMediaUrlKey());
 
             return meta == null ? null : meta.filePath;
         }
@@ -383,8 +380,8 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
     private void initDownloadsCounter() {
         this.downloadsSize = 0;
 
-        for (EpisodeMetadata meta : metadata.values())
-            if (isDownloaded(meta))
+        for (UrlKey key : metadataIndex.getDownloads())
+            if (isDownloaded(metadata.get(key)))
                 downloadsSize++;
     }
 
@@ -421,31 +418,28 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager implemen
         // Nothing we can do if the meta data is not available
         if (metadata != null) {
             // Find download from metadata
-            Iterator<Entry<URL, EpisodeMetadata>> iterator = metadata.entrySet().iterator();
-            while (iterator.hasNext()) {
-                final Entry<URL, EpisodeMetadata> entry = iterator.next();
-                final EpisodeMetadata data = entry.getValue();
-
-                // Only act if we care for this download
-                if (data.downloadId != null && data.downloadId == downloadId) {
-                    // Create the downloading episode
-                    Episode download = entry.getValue().marshalEpisode(entry.getKey());
-                    if (download != null) {
-                        Intent intent = new Intent(podcatcher.getApplicationContext(),
-                                PodcastActivity.class)
-                                .putExtra(EpisodeListActivity.MODE_KEY, ContentMode.SINGLE_PODCAST)
-                                .putExtra(EpisodeListActivity.PODCAST_URL_KEY,
-                                        download.getPodcast().getUrl().toString())
-                                .putExtra(EpisodeActivity.EPISODE_URL_KEY,
-                                        download.getMediaUrl().toString())
-                                .addFlags(
-                                        Intent.FLAG_ACTIVITY_CLEAR_TOP |
-                                                Intent.FLAG_ACTIVITY_NEW_TASK
-                                                | Intent.FLAG_ACTIVITY_SINGLE_TOP);
-
-                        // Make the app switch to it.
-                        podcatcher.startActivity(intent);
-                    }
+            final UrlKey key = metadataIndex.findByDownloadId(downloadId);
+            final EpisodeMetadata data = key == null ? null : metadata.get(key);
+
+            // Only act if we care for this download
+            if (data != null) {
+                // Create the downloading episode
+                Episode download = data.marshalEpisode(key);
+                if (download != null) {
+                    Intent intent = new Intent(podcatcher.getApplicationContext(),
+                            PodcastActivity.class)
+                            .putExtra(EpisodeListActivity.MODE_KEY, ContentMode.SINGLE_PODCAST)
+                            .putExtra(EpisodeListActivity.PODCAST_URL_KEY,
+                                    download.getPodcast().getUrl().toString())
+                            .putExtra(EpisodeActivity.EPISODE_URL_KEY,
+                                    download.getMediaUrl().toString())
+                            .addFlags(
+                                    Intent.FLAG_ACTIVITY_CLEAR_TOP |
+                                            Intent.FLAG_ACTIVITY_NEW_TASK
+                                            | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+
+                    // Make the app switch to it.
+                    podcatcher.startActivity(intent);
                 }
             }
         }
@@ -0,0 +1,358 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+import net.alliknow.podcatcher.model.types.UrlKey;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Secondary indexes on the episode metadata: the playlist in order (the
+ * playlist position stored in the metadata is used as a rank only, there
+ * might be gaps), the
+ * episodes with a download, the episode for each download id and the episodes
+ * for each podcast. This way the episode manager does not need to look at all
+ * the metadata to answer these questions.
+ * <p>
+ * The index needs to be told about every change to a metadata record via
+ * {@link #update(UrlKey, EpisodeMetadata)}. It remembers the values it indexed
+ * for each record, so outdated index entries can be removed.
+ * </p>
+ * <p>
+ * <b>Threading:</b> This is thread-safe, all results returned are copies.
+ * </p>
+ */
+public class EpisodeMetadataIndex {
+
+    /** The distance between two playlist ranks when spread out */
+    public static final int PLAYLIST_RANK_SPACING = 1024;
+
+    /** The values of a metadata record as put into the index */
+    private static class Indexed implements Comparable<Indexed> {
+
+        /** The episode URL */
+        private final UrlKey key;
+        /** The podcast URL */
+        private final String podcastUrl;
+        /** The download id */
+        private final Long downloadId;
+        /** Whether there is a local file */
+        private final boolean hasFile;
+        /** The playlist position */
+        private final Integer playlistPosition;
+
+        private Indexed(UrlKey key, EpisodeMetadata meta) {
+            this.key = key;
+            this.podcastUrl = meta.podcastUrl;
+            this.downloadId = meta.downloadId;
+            this.hasFile = meta.downloadId != null && meta.filePath != null;
+            this.playlistPosition = meta.playlistPosition;
+        }
+
+        @Override
+        public int compareTo(Indexed another) {
+            // Only used for the playlist, where the position is set
+            final int result = playlistPosition.compareTo(another.playlistPosition);
+
+            return result != 0 ? result : key.compareTo(another.key);
+        }
+    }
+
+    /** The values indexed for each record */
+    private final Map<UrlKey, Indexed> records = new HashMap<UrlKey, Indexed>();
+    /** The playlist entries ordered by position */
+    private final TreeSet<Indexed> playlist = new TreeSet<Indexed>();
+    /** The playlist in order, built on demand, <code>null</code> if outdated */
+    private List<UrlKey> playlistOrder;
+    /** The index in the playlist for each entry, built with the order */
+    private Map<UrlKey, Integer> playlistIndexes;
+    /** The episodes that have a download id and a local file */
+    private final Set<UrlKey> downloads = new HashSet<UrlKey>();
+    /** The episode for each download id */
+    private final Map<Long, UrlKey> downloadIds = new HashMap<Long, UrlKey>();
+    /** The episodes for each podcast */
+    private final Map<String, Set<UrlKey>> podcastEntries = new HashMap<String, Set<UrlKey>>();
+
+    /**
+     * Throw away the index and build it again from the metadata given.
+     * 
+     * @param metadata The complete metadata to index.
+     */
+    public synchronized void rebuild(Map<UrlKey, EpisodeMetadata> metadata) {
+        records.clear();
+        playlist.clear();
+        playlistOrder = null;
+        downloads.clear();
+        downloadIds.clear();
+        podcastEntries.clear();
+
+        for (Entry<UrlKey, EpisodeMetadata> entry : metadata.entrySet())
+            update(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Update the index for the metadata record given. Call this after the
+     * record has been changed, added or removed.
+     * 
+     * @param key The episode URL the record belongs to.
+     * @param meta The record as it is now, give <code>null</code> if the
+     *            record has been removed.
+     */
+    public synchronized void update(UrlKey key, EpisodeMetadata meta) {
+        // 1. Remove the values indexed before
+        final Indexed old = records.remove(key);
+        if (old != null) {
+            if (old.playlistPosition != null)
+                playlist.remove(old);
+            if (old.hasFile)
+                downloads.remove(key);
+            if (old.downloadId != null && key.equals(downloadIds.get(old.downloadId)))
+                downloadIds.remove(old.downloadId);
+            if (old.podcastUrl != null) {
+                final Set<UrlKey> entries = podcastEntries.get(old.podcastUrl);
+
+                if (entries != null && entries.remove(key) && entries.isEmpty())
+                    podcastEntries.remove(old.podcastUrl);
+            }
+        }
+
+        // 2. Index the current values
+        if (meta != null) {
+            final Indexed current = new Indexed(key, meta);
+            records.put(key, current);
+
+            if (current.playlistPosition != null)
+                playlist.add(current);
+            if (current.hasFile)
+                downloads.add(key);
+            if (current.downloadId != null)
+                downloadIds.put(current.downloadId, key);
+            if (current.podcastUrl != null) {
+                Set<UrlKey> entries = podcastEntries.get(current.podcastUrl);
+                if (entries == null) {
+                    entries = new HashSet<UrlKey>();
+                    podcastEntries.put(current.podcastUrl, entries);
+                }
+
+                entries.add(key);
+            }
+
+            updatePlaylistOrder(old, current);
+        } else
+            updatePlaylistOrder(old, null);
+    }
+
+    /**
+     * @return The episode URLs in the playlist, in playlist order.
+     */
+    public synchronized List<UrlKey> getPlaylist() {
+        return new ArrayList<UrlKey>(getPlaylistOrder());
+    }
+
+    /**
+     * @param key The episode URL to look for.
+     * @return The index (starting at 0) of the episode in the playlist, or -1
+     *         if it is not in the playlist.
+     */
+    public synchronized int getPlaylistIndex(UrlKey key) {
+        getPlaylistOrder();
+        final Integer index = playlistIndexes.get(key);
+
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return The number of episodes in the playlist.
+     */
+    public synchronized int getPlaylistSize() {
+        return playlist.size();
+    }
+
+    /**
+     * @param index The index (starting at 0) to look at.
+     * @return The episode URL at the playlist index given, or
+     *         <code>null</code> if the index is out of range.
+     */
+    public synchronized UrlKey getPlaylistEntry(int index) {
+        return index >= 0 && index < playlist.size() ? getPlaylistOrder().get(index) : null;
+    }
+
+    /**
+     * @return The first episode URL in the playlist, or <code>null</code> if
+     *         the playlist is empty.
+     */
+    public synchronized UrlKey getFirstInPlaylist() {
+        return playlist.isEmpty() ? null : playlist.first().key;
+    }
+
+    /**
+     * @return The last episode URL in the playlist, or <code>null</code> if
+     *         the playlist is empty.
+     */
+    public synchronized UrlKey getLastInPlaylist() {
+        return playlist.isEmpty() ? null : playlist.last().key;
+    }
+
+    /**
+     * @param key The episode URL to look for.
+     * @return The episode URL right before the one given in the playlist, or
+     *         <code>null</code> if there is none or the episode given is not
+     *         in the playlist.
+     */
+    public synchronized UrlKey getPreviousInPlaylist(UrlKey key) {
+        final Indexed entry = records.get(key);
+        final Indexed previous = entry == null || entry.playlistPosition == null ?
+                null : playlist.lower(entry);
+
+        return previous == null ? null : previous.key;
+    }
+
+    /**
+     * @param key The episode URL to look for.
+     * @return The episode URL right after the one given in the playlist, or
+     *         <code>null</code> if there is none or the episode given is not
+     *         in the playlist.
+     */
+    public synchronized UrlKey getNextInPlaylist(UrlKey key) {
+        final Indexed entry = records.get(key);
+        final Indexed next = entry == null || entry.playlistPosition == null ?
+                null : playlist.higher(entry);
+
+        return next == null ? null : next.key;
+    }
+
+    /**
+     * Find a rank for a playlist entry to go between the two ranks given.
+     * 
+     * @param before The rank of the entry before, give <code>null</code> if
+     *            the new entry goes to the top.
+     * @param after The rank of the entry after, give <code>null</code> if the
+     *            new entry goes to the end.
+     * @return The rank for the new entry, or <code>null</code> if there is no
+     *         room between the two ranks and the playlist needs to be spread
+     *         out again.
+     */
+    public static Integer createPlaylistRank(Integer before, Integer after) {
+        // Use long here to detect running out of the integer range
+        long rank;
+        if (before == null && after == null)
+            rank = 0;
+        else if (before == null)
+            rank = (long) after - PLAYLIST_RANK_SPACING;
+        else if (after == null)
+            rank = (long) before + PLAYLIST_RANK_SPACING;
+        else
+            rank = before + ((long) after - before) / 2;
+
+        if (rank > Integer.MIN_VALUE && rank < Integer.MAX_VALUE
+                && (before == null || rank > before) && (after == null || rank < after))
+            return (int) rank;
+        else
+            return null;
+    }
+
+    /**
+     * @return The episode URLs that have a download id and a local file path
+     *         set. Note that this does not check whether the file actually
+     *         exists.
+     */
+    public synchronized Set<UrlKey> getDownloads() {
+        return new HashSet<UrlKey>(downloads);
+    }
+
+    /**
+     * @param downloadId Download id to look for.
+     * @return The episode URL that has the download id given, or
+     *         <code>null</code> if there is none.
+     */
+    public synchronized UrlKey findByDownloadId(long downloadId) {
+        return downloadIds.get(downloadId);
+    }
+
+    /**
+     * @param podcastUrl The podcast URL to look for.
+     * @return The episode URLs with metadata that belong to the podcast given.
+     *         Might be empty, but not <code>null</code>.
+     */
+    public synchronized Set<UrlKey> getEntriesForPodcast(String podcastUrl) {
+        final Set<UrlKey> entries = podcastEntries.get(podcastUrl);
+
+        return entries == null ? Collections.<UrlKey> emptySet() : new HashSet<UrlKey>(entries);
+    }
+
+    private void updatePlaylistOrder(Indexed old, Indexed current) {
+        final boolean wasInPlaylist = old != null && old.playlistPosition != null;
+        final boolean isInPlaylist = current != null && current.playlistPosition != null;
+
+        // Nothing to do if the playlist is not affected or the order is
+        // outdated anyway
+        if ((!wasInPlaylist && !isInPlaylist) || playlistOrder == null)
+            return;
+        // Only moves by one step (as done by the move up and down buttons)
+        // are applied to the order, anything else rebuilds it on demand
+        else if (!wasInPlaylist || !isInPlaylist) {
+            playlistOrder = null;
+            return;
+        }
+
+        // Find the new index from the entry before, its index in the order
+        // without the moved entry is one less if it came after the old index
+        final int oldIndex = playlistIndexes.get(old.key);
+        final Indexed previous = playlist.lower(current);
+        int newIndex = 0;
+        if (previous != null) {
+            final int previousIndex = playlistIndexes.get(previous.key);
+            newIndex = previousIndex > oldIndex ? previousIndex : previousIndex + 1;
+        }
+
+        if (Math.abs(newIndex - oldIndex) == 1) {
+            final UrlKey other = playlistOrder.get(newIndex);
+
+            playlistOrder.set(newIndex, old.key);
+            playlistOrder.set(oldIndex, other);
+            playlistIndexes.put(old.key, newIndex);
+            playlistIndexes.put(other, oldIndex);
+        } else if (newIndex != oldIndex)
+            playlistOrder = null;
+    }
+
+    private List<UrlKey> getPlaylistOrder() {
+        // The playlist is read much more often than changed, so we keep the
+        // order until the next change
+        if (playlistOrder == null) {
+            playlistOrder = new ArrayList<UrlKey>(playlist.size());
+            playlistIndexes = new HashMap<UrlKey, Integer>();
+
+            for (Indexed entry : playlist) {
+                playlistIndexes.put(entry.key, playlistOrder.size());
+                playlistOrder.add(entry.key);
+            }
+        }
+
+        return playlistOrder;
+    }
+}
@@ -23,27 +23,26 @@ import net.alliknow.podcatcher.listeners.OnLoadPlaylistListener;
 import net.alliknow.podcatcher.model.tasks.LoadPlaylistTask;
 import net.alliknow.podcatcher.model.types.Episode;
 import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+import net.alliknow.podcatcher.model.types.UrlKey;
 
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
 /**
  * Episode manager in the episode manager stack that cares for the playlist.
+ * The playlist position stored in the episode metadata is a rank only: ranks
+ * are spaced out, so an episode can be inserted or moved by giving it a rank
+ * between its new neighbours without touching any other entry. Only if there
+ * is no room left, all ranks are spread out again.
  * 
  * @see EpisodeManager
  */
 public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
 
-    /** Helper to make playlist methods more efficient */
-    private int playlistSize = -1;
-
     /** The call-back set for the playlist listeners */
     private Set<OnChangePlaylistListener> playlistListeners = new HashSet<OnChangePlaylistListener>();
 
@@ -65,29 +64,20 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
      */
     public List<Episode> getPlaylist() {
         // The resulting playlist
-        TreeMap<Integer, Episode> playlist = new TreeMap<Integer, Episode>();
+        final List<Episode> playlist = new ArrayList<Episode>();
 
         // This is only possible if the metadata is available
-        if (metadata != null) {
-            // Find playlist entries from metadata
-            Iterator<Entry<URL, EpisodeMetadata>> iterator = metadata.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Entry<URL, EpisodeMetadata> entry = iterator.next();
-
-                // Find records for playlist entries
-                if (entry.getValue().playlistPosition != null) {
-                    // Create and add the downloaded episode
-                    Episode playlistEntry = entry.getValue().marshalEpisode(entry.getKey());
-                    playlist.put(entry.getValue().playlistPosition, playlistEntry);
-                }
+        if (metadata != null)
+            // The index has the playlist entries in order
+            for (UrlKey key : metadataIndex.getPlaylist()) {
+                final EpisodeMetadata meta = metadata.get(key);
+
+                // Create and add the playlist entry
+                if (meta != null)
+                    playlist.add(meta.marshalEpisode(key));
             }
 
-            // Since we have the playlist here, we could just as well set this
-            // and make the other methods return faster
-            this.playlistSize = playlist.size();
-        }
-
-        return new ArrayList<Episode>(playlist.values());
+        return playlist;
     }
 
     /**
@@ -115,10 +105,7 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
      * @return The number of episodes in the playlist.
      */
     public int getPlaylistSize() {
-        if (playlistSize == -1 && metadata != null)
-            initPlaylistCounter();
-
-        return playlistSize == -1 ? 0 : playlistSize;
+        return metadata == null ? 0 : metadataIndex.getPlaylistSize();
     }
 
     /**
@@ -157,16 +144,10 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
      * @return The position of the episode (staring at 0) or -1 if not present.
      */
     public int getPlaylistPosition(Episode episode) {
-        int result = -1;
-
-        if (episode != null && metadata != null) {
-            // Find metadata information holder
-            EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
-            if (meta != null && meta.playlistPosition != null)
-                result = meta.playlistPosition;
-        }
-
-        return result;
+        if (episode != null && metadata != null)
+            return metadataIndex.getPlaylistIndex(episode.getMediaUrlKey());
+        else
+            return -1;
     }
 
     /**
@@ -190,36 +171,29 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
     public void insertAtPlaylistPosition(Episode episode, int position) {
         if (episode != null && position >= 0) {
             // Only insert the episode if it is not already part of the playlist
-            final List<Episode> playlist = getPlaylist();
-            if (!playlist.contains(episode)) {
+            if (metadata != null && !isInPlaylist(episode)) {
                 // Find or create the metadata information holder
-                EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+                EpisodeMetadata meta = metadata.get(episode.getMediaUrlKey());
                 if (meta == null) {
                     meta = new EpisodeMetadata();
-                    metadata.put(episode.getMediaUrl(), meta);
+                    metadata.put(episode.getMediaUrlKey(), meta);
                 }
 
-                // Increment all other positions if needed
-                if (position < getPlaylistSize())
-                    for (EpisodeMetadata otherMeta : metadata.values())
-                        if (otherMeta.playlistPosition != null
-                                && otherMeta.playlistPosition >= position)
-                            otherMeta.playlistPosition++;
-
-                // Put metadata information
-                meta.playlistPosition = position < getPlaylistSize() ? position : getPlaylistSize();
+                // Put metadata information, the episode is not in the
+                // playlist yet, so the neighbours are at the position given
+                position = Math.min(position, getPlaylistSize());
+                meta.playlistPosition = createPlaylistRank(episode.getMediaUrlKey(),
+                        metadataIndex.getPlaylistEntry(position - 1),
+                        metadataIndex.getPlaylistEntry(position));
                 putAdditionalEpisodeInformation(episode, meta);
 
-                // Increment counter
-                if (playlistSize != -1)
-                    playlistSize++;
+                // Mark metadata record as dirty (this also updates the index
+                // the listeners will see)
+                markMetadataChanged(episode.getMediaUrlKey());
 
                 // Alert listeners
                 for (OnChangePlaylistListener listener : playlistListeners)
                     listener.onPlaylistChanged();
-
-                // Mark metadata record as dirty
-                metadataChanged = true;
             }
         }
     }
@@ -232,37 +206,88 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
     public void removeFromPlaylist(Episode episode) {
         if (episode != null && metadata != null) {
             // Find the metadata information holder
-            EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            EpisodeMetadata meta = metadata.get(episode.getMediaUrlKey());
             if (meta != null && meta.playlistPosition != null) {
-                // Update the playlist positions for all entries beyond the one
-                // we are removing
-                Iterator<Entry<URL, EpisodeMetadata>> iterator = metadata.entrySet().iterator();
-                while (iterator.hasNext()) {
-                    EpisodeMetadata other = iterator.next().getValue();
-
-                    // Find records for playlist entries
-                    if (other.playlistPosition != null
-                            && other.playlistPosition > meta.playlistPosition)
-                        other.playlistPosition--;
-                }
-
-                // Reset the playlist position for given episode
+                // Reset the playlist position for given episode, there is no
+                // need to update any other entry
                 meta.playlistPosition = null;
 
-                // Decrement counter
-                if (playlistSize != -1)
-                    playlistSize--;
+                // Mark metadata record as dirty (this also updates the index
+                // the listeners will see)
+                markMetadataChanged(episode.getMediaUrlKey());
 
                 // Alert listeners
                 for (OnChangePlaylistListener listener : playlistListeners)
                     listener.onPlaylistChanged();
-
-                // Mark metadata record as dirty
-                metadataChanged = true;
             }
         }
     }
 
+    /**
+     * Move an episode in the playlist to the given position. This only changes
+     * the episode's own metadata record. Does nothing if the episode is not in
+     * the playlist.
+     * 
+     * @param episode Episode to move.
+     * @param position Index to move the episode to (starting at 0). The
+     *            episode will go to the end of the playlist if the position
+     *            is greater than the index of the last entry.
+     */
+    public void moveInPlaylist(Episode episode, int position) {
+        final int currentPosition = getPlaylistPosition(episode);
+
+        if (currentPosition >= 0 && position >= 0) {
+            position = Math.min(position, getPlaylistSize() - 1);
+
+            // Find the new neighbours, their index is one more if they come
+            // after the episode itself
+            final UrlKey before = metadataIndex.getPlaylistEntry(
+                    position > currentPosition ? position : position - 1);
+            final UrlKey after = metadataIndex.getPlaylistEntry(
+                    position >= currentPosition ? position + 1 : position);
+
+            moveInPlaylist(episode.getMediaUrlKey(), before, after);
+        }
+    }
+
+    /**
+     * Move an episode up by one in the playlist. The first entry goes to the
+     * end of the playlist. This only changes the episode's own metadata
+     * record. Does nothing if the episode is not in the playlist.
+     * 
+     * @param episode Episode to move.
+     */
+    public void moveUpInPlaylist(Episode episode) {
+        if (isInPlaylist(episode)) {
+            final UrlKey key = episode.getMediaUrlKey();
+            final UrlKey previous = metadataIndex.getPreviousInPlaylist(key);
+
+            if (previous == null)
+                moveInPlaylist(key, metadataIndex.getLastInPlaylist(), null);
+            else
+                moveInPlaylist(key, metadataIndex.getPreviousInPlaylist(previous), previous);
+        }
+    }
+
+    /**
+     * Move an episode down by one in the playlist. The last entry goes to the
+     * top of the playlist. This only changes the episode's own metadata
+     * record. Does nothing if the episode is not in the playlist.
+     * 
+     * @param episode Episode to move.
+     */
+    public void moveDownInPlaylist(Episode episode) {
+        if (isInPlaylist(episode)) {
+            final UrlKey key = episode.getMediaUrlKey();
+            final UrlKey next = metadataIndex.getNextInPlaylist(key);
+
+            if (next == null)
+                moveInPlaylist(key, null, metadataIndex.getFirstInPlaylist());
+            else
+                moveInPlaylist(key, next, metadataIndex.getNextInPlaylist(next));
+        }
+    }
+
     /**
      * Add a playlist listener.
      * 
@@ -283,11 +308,58 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
         playlistListeners.remove(listener);
     }
 
-    private void initPlaylistCounter() {
-        this.playlistSize = 0;
+    private void moveInPlaylist(UrlKey key, UrlKey before, UrlKey after) {
+        // Nothing to do if the entry is its own neighbour, i.e. it is the
+        // only entry in the playlist
+        if (key.equals(before) || key.equals(after))
+            return;
+
+        metadata.get(key).playlistPosition = createPlaylistRank(key, before, after);
+
+        // Mark metadata record as dirty (this also updates the index
+        // the listeners will see)
+        markMetadataChanged(key);
 
-        for (EpisodeMetadata meta : metadata.values())
-            if (meta.playlistPosition != null)
-                playlistSize++;
+        // Alert listeners
+        for (OnChangePlaylistListener listener : playlistListeners)
+            listener.onPlaylistChanged();
+    }
+
+    /**
+     * Find a rank for an entry to be put into the playlist between the two
+     * neighbours given.
+     * 
+     * @param key The entry to rank, it is ignored if already in the playlist.
+     * @param before The entry that should come before, <code>null</code> if
+     *            the entry goes to the top.
+     * @param after The entry that should come after, <code>null</code> if the
+     *            entry goes to the end.
+     * @return The rank to give the entry.
+     */
+    private int createPlaylistRank(UrlKey key, UrlKey before, UrlKey after) {
+        final Integer rank = EpisodeMetadataIndex.createPlaylistRank(
+                before == null ? null : metadata.get(before).playlistPosition,
+                after == null ? null : metadata.get(after).playlistPosition);
+
+        // There is room for the new rank, done
+        if (rank != null)
+            return rank;
+        // No room, spread out all entries and leave a gap before the entry
+        // that should come after
+        else {
+            final List<UrlKey> playlist = metadataIndex.getPlaylist();
+            playlist.remove(key);
+            final int position = after == null ? playlist.size() : playlist.indexOf(after);
+
+            for (int index = 0; index < playlist.size(); index++) {
+                final EpisodeMetadata meta = metadata.get(playlist.get(index));
+
+                meta.playlistPosition = (index < position ? index : index + 1)
+                        * EpisodeMetadataIndex.PLAYLIST_RANK_SPACING;
+                markMetadataChanged(playlist.get(index));
+            }
+
+            return position * EpisodeMetadataIndex.PLAYLIST_RANK_SPACING;
+        }
     }
 }
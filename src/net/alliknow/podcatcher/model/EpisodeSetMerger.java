@@ -0,0 +1,216 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import net.alliknow.podcatcher.listeners.OnMergeEpisodesListener;
+import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.EpisodeDiff;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Merges the episodes of many podcasts into one sorted set, as needed for the
+ * "all podcasts" episode list. The merging happens off the main thread and the
+ * listener is only given a new copy of the merged set every
+ * {@link #PUBLISH_INTERVAL} milliseconds (or every {@link #PUBLISH_BATCH_SIZE}
+ * podcasts), so loading a long podcast list does not rebuild the episode list
+ * UI for each podcast. Call {@link #flush()} once all podcasts are in to get
+ * the final set right away.
+ * <p>
+ * <b>Threading:</b> All methods need to be called from the main thread, which
+ * is also where the listener is called.
+ * </p>
+ */
+public class EpisodeSetMerger {
+
+    /** The minimum time between two publications of the merged set */
+    public static final long PUBLISH_INTERVAL = 250;
+    /**
+     * The number of podcasts merged that will trigger a publication, even if
+     * the interval has not passed yet
+     */
+    public static final int PUBLISH_BATCH_SIZE = 25;
+
+    /**
+     * The thread all merges run on, shared by all mergers. Using one thread
+     * only keeps the merges (and the copies made from their result) in order.
+     */
+    private static final Executor MERGE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /** The call-back */
+    private final OnMergeEpisodesListener listener;
+    /** The handler to publish the result on the main thread with */
+    private final Handler handler = new Handler();
+
+    /** The merged episodes, only touched by the merge thread */
+    private final SortedSet<Episode> merged = new TreeSet<Episode>();
+
+    /** The number of podcasts merged since the last publication */
+    private int unpublishedCount;
+    /** The number of publications (copies) on their way to the listener */
+    private int publishingCount;
+    /** The time of the last publication */
+    private long lastPublished;
+    /** Flag to indicate that the publication is already scheduled */
+    private boolean publishScheduled;
+    /** Flag to indicate that the merger should not call the listener again */
+    private boolean cancelled;
+
+    /** The delayed publication */
+    private final Runnable publishRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            publish();
+        }
+    };
+
+    /**
+     * Create a new merger, starting with an empty set.
+     * 
+     * @param listener The call-back to give the merged episode set to.
+     */
+    public EpisodeSetMerger(OnMergeEpisodesListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Merge the podcast's episodes into the set. Episodes the podcast's last
+     * reload removed or changed are taken out (or replaced) as well.
+     * 
+     * @param podcast The podcast to merge.
+     */
+    public void merge(Podcast podcast) {
+        if (cancelled || podcast == null)
+            return;
+
+        // The episode list and the diff are never changed once the podcast
+        // has them, so it is safe to hand them over
+        final List<Episode> episodes = podcast.getEpisodes();
+        final EpisodeDiff changes = podcast.getLastChanges();
+
+        MERGE_EXECUTOR.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                if (changes != null) {
+                    merged.removeAll(changes.getRemoved());
+
+                    // Changed episodes are equal to the ones they replace, so
+                    // these need to go first for the new ones to get in. The
+                    // sort position might have changed as well, so look for
+                    // them by equality.
+                    if (!changes.getChanged().isEmpty()) {
+                        final Set<Episode> changed = new HashSet<Episode>(changes.getChanged());
+                        final Iterator<Episode> iterator = merged.iterator();
+
+                        while (iterator.hasNext())
+                            if (changed.contains(iterator.next()))
+                                iterator.remove();
+                    }
+                }
+
+                merged.addAll(episodes);
+            }
+        });
+
+        unpublishedCount++;
+        schedulePublish();
+    }
+
+    /**
+     * Publish the merged set to the listener as soon as all merges requested
+     * so far are done. Use this when the last podcast is in.
+     */
+    public void flush() {
+        if (!cancelled && unpublishedCount > 0) {
+            handler.removeCallbacks(publishRunnable);
+            publish();
+        }
+    }
+
+    /**
+     * Stop the merger, the listener will not be called again. Merges already
+     * requested will still run, but their result is dropped.
+     */
+    public void cancel() {
+        cancelled = true;
+        handler.removeCallbacks(publishRunnable);
+    }
+
+    /**
+     * @return <code>true</code> iff there are merges that have not yet been
+     *         given to the listener (or are on their way).
+     */
+    public boolean isPending() {
+        return !cancelled && (unpublishedCount > 0 || publishingCount > 0);
+    }
+
+    private void schedulePublish() {
+        final long sinceLast = SystemClock.uptimeMillis() - lastPublished;
+
+        // Publish right away if the user has waited long enough or there is
+        // a lot to show, otherwise collect more podcasts first
+        if (unpublishedCount >= PUBLISH_BATCH_SIZE || sinceLast >= PUBLISH_INTERVAL) {
+            handler.removeCallbacks(publishRunnable);
+            publish();
+        } else if (!publishScheduled) {
+            publishScheduled = true;
+            handler.postDelayed(publishRunnable, PUBLISH_INTERVAL - sinceLast);
+        }
+    }
+
+    private void publish() {
+        publishScheduled = false;
+        unpublishedCount = 0;
+        lastPublished = SystemClock.uptimeMillis();
+        publishingCount++;
+
+        // The copy is made on the merge thread after all merges requested so
+        // far, this is cheap since the set is already sorted
+        MERGE_EXECUTOR.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                final SortedSet<Episode> copy = new TreeSet<Episode>(merged);
+
+                handler.post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        publishingCount--;
+
+                        if (!cancelled)
+                            listener.onEpisodesMerged(copy);
+                    }
+                });
+            }
+        });
+    }
+}
@@ -22,15 +22,15 @@ import net.alliknow.podcatcher.listeners.OnChangeEpisodeStateListener;
 import net.alliknow.podcatcher.listeners.OnChangePodcastListListener;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastListener;
 import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.EpisodeDiff;
 import net.alliknow.podcatcher.model.types.EpisodeMetadata;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
+import net.alliknow.podcatcher.model.types.UrlKey;
 
-import java.net.URL;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 /**
@@ -42,6 +42,17 @@ import java.util.Set;
 public abstract class EpisodeStateManager extends EpisodePlaylistManager implements
         OnLoadPodcastListener, OnChangePodcastListListener {
 
+    /** The number of new episodes in a podcast as counted before */
+    private static class NewEpisodeCount {
+
+        /** The podcast's changes at the time of counting */
+        private EpisodeDiff countedFor;
+        /** The episodes counted */
+        private Set<UrlKey> episodes;
+        /** The number of new episodes */
+        private int count;
+    }
+
     /** The call-back set for the episode state changed listeners */
     private Set<OnChangeEpisodeStateListener> stateListeners = new HashSet<OnChangeEpisodeStateListener>();
 
@@ -50,6 +61,13 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
     /** Helper to prevent clean-up to run twice for the same podcast */
     private Set<String> podcastsCleanUpRanFor = new HashSet<String>();
 
+    /**
+     * The new episode counts per podcast, these are updated when the state
+     * changes and recounted when the podcast is loaded with new content
+     */
+    private Map<Podcast, NewEpisodeCount> newEpisodeCounts =
+            new HashMap<Podcast, NewEpisodeCount>();
+
     /**
      * Init the episode state manager.
      * 
@@ -60,8 +78,9 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
     }
 
     @Override
-    public void onEpisodeMetadataLoaded(Map<URL, EpisodeMetadata> metadata) {
+    public void onEpisodeMetadataLoaded(Map<UrlKey, EpisodeMetadata> metadata) {
         super.onEpisodeMetadataLoaded(metadata);
+        newEpisodeCounts.clear();
 
         // We register to be alerted on podcast loads and podcast list changes
         // so we can perform some clean-ups
@@ -78,14 +97,15 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
      */
     public void setState(Episode episode, Boolean isOld) {
         if (episode != null && episode.getMediaUrl() != null && metadata != null) {
-            EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            final boolean wasOld = getState(episode);
+            EpisodeMetadata meta = metadata.get(episode.getMediaUrlKey());
 
             // Metadata not yet created
             if (meta == null && isOld != null && isOld) {
                 meta = new EpisodeMetadata();
                 meta.isOld = isOld;
 
-                metadata.put(episode.getMediaUrl(), meta);
+                metadata.put(episode.getMediaUrlKey(), meta);
             } // Metadata available
             else if (meta != null)
                 // We do not need to set this if false, simply remove the record
@@ -99,7 +119,10 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
                 meta.podcastUrl = episode.getPodcast().getUrl().toString();
 
             // Mark metadata record as dirty
-            metadataChanged = true;
+            markMetadataChanged(episode.getMediaUrlKey());
+
+            // Update the new episode count for the podcast
+            updateNewEpisodeCount(episode, wasOld);
 
             // Alert listeners
             for (OnChangeEpisodeStateListener listener : stateListeners)
@@ -116,7 +139,7 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
      */
     public boolean getState(Episode episode) {
         if (episode != null && episode.getMediaUrl() != null && metadata != null) {
-            EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            EpisodeMetadata meta = metadata.get(episode.getMediaUrlKey());
 
             if (meta != null && meta.isOld != null)
                 return meta.isOld;
@@ -126,20 +149,20 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
     }
 
     /**
-     * Count the number of episodes not marked old for given podcast.
+     * Get the number of episodes not marked old for given podcast. The count
+     * is made when the podcast is loaded and updated on state changes, so
+     * this is a simple look-up. Only a podcast not counted yet is counted
+     * here.
      * 
      * @param podcast Podcast to count for.
      * @return The number of new episode in the podcast.
      */
     public int getNewEpisodeCount(Podcast podcast) {
-        int count = 0;
+        if (podcast == null)
+            return 0;
 
-        if (podcast != null)
-            for (Episode episode : podcast.getEpisodes())
-                if (!getState(episode))
-                    count++;
-
-        return count;
+        final NewEpisodeCount counted = newEpisodeCounts.get(podcast);
+        return counted != null ? counted.count : countNewEpisodes(podcast).count;
     }
 
     /**
@@ -171,14 +194,14 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
      */
     public void setResumeAt(Episode episode, Integer at) {
         if (episode != null && episode.getMediaUrl() != null && metadata != null) {
-            EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            EpisodeMetadata meta = metadata.get(episode.getMediaUrlKey());
 
             // Metadata not yet created
             if (meta == null && at != null) {
                 meta = new EpisodeMetadata();
                 meta.resumeAt = at;
 
-                metadata.put(episode.getMediaUrl(), meta);
+                metadata.put(episode.getMediaUrlKey(), meta);
             } // Metadata available
             else if (meta != null)
                 meta.resumeAt = at;
@@ -191,7 +214,7 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
                 meta.podcastUrl = episode.getPodcast().getUrl().toString();
 
             // Mark metadata record as dirty
-            metadataChanged = true;
+            markMetadataChanged(episode.getMediaUrlKey());
         }
     }
 
@@ -203,7 +226,7 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
      */
     public int getResumeAt(Episode episode) {
         if (episode != null && episode.getMediaUrl() != null && metadata != null) {
-            EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            EpisodeMetadata meta = metadata.get(episode.getMediaUrlKey());
 
             if (meta != null && meta.resumeAt != null)
                 return meta.resumeAt;
@@ -219,6 +242,8 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
     @Override
     public void onPodcastRemoved(final Podcast podcast) {
         if (podcast != null) {
+            newEpisodeCounts.remove(podcast);
+
             // Go off the main thread, we rely on getting an iterator from the
             // metadata being thread safe here!
             new Thread() {
@@ -230,17 +255,16 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
 
                     // Clean all state meta data information for episodes of the
                     // deleted feed
-                    Iterator<Entry<URL, EpisodeMetadata>> iterator = metadata.entrySet().iterator();
-                    while (iterator.hasNext()) {
-                        final Entry<URL, EpisodeMetadata> entry = iterator.next();
+                    final String podcastUrl = podcast.getUrl().toString();
+                    for (UrlKey key : metadataIndex.getEntriesForPodcast(podcastUrl)) {
+                        final EpisodeMetadata meta = metadata.get(key);
 
-                        // Find metadata records with matching podcast
-                        if (podcast.getUrl().toString().equals(entry.getValue().podcastUrl)
-                                && entry.getValue().hasOnlyStateData()) {
+                        if (meta != null && meta.hasOnlyStateData()) {
                             // This is actually enough since the task storing
                             // the metadata will clean empty records
-                            entry.getValue().isOld = null;
-                            entry.getValue().resumeAt = null;
+                            meta.isOld = null;
+                            meta.resumeAt = null;
+                            markMetadataChanged(key);
                         }
                     }
                 }
@@ -250,9 +274,37 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
 
     @Override
     public void onPodcastLoaded(final Podcast podcast) {
+        // Recount the new episodes if the content changed, the podcast list
+        // only redraws after all listeners are done, so it will see the new
+        // count
+        if (podcast != null) {
+            final NewEpisodeCount counted = newEpisodeCounts.get(podcast);
+
+            if (counted == null || counted.countedFor != podcast.getLastChanges())
+                countNewEpisodes(podcast);
+        }
+
+        // If the load removed episodes from the podcast, we can clean their
+        // state right away
+        final EpisodeDiff changes = podcast == null ? null : podcast.getLastChanges();
+        if (changes != null)
+            for (Episode episode : changes.getRemoved()) {
+                final EpisodeMetadata meta = metadata.get(episode.getMediaUrlKey());
+
+                if (meta != null && meta.hasOnlyStateData()) {
+                    // This is actually enough since the task storing the
+                    // metadata will clean empty records
+                    meta.isOld = null;
+                    meta.resumeAt = null;
+                    markMetadataChanged(episode.getMediaUrlKey());
+                }
+            }
+
         // We do not want to run this too frequently and for all podcasts at
         // once. In addition it should run only once per podcast during the
-        // lifetime of this EpisodeManager
+        // lifetime of this EpisodeManager (to catch all the episodes that
+        // went away while the app was not running, later changes are covered
+        // above)
         if (podcast != null && !podcastsCleanUpRanFor.contains(podcast.getUrl().toString())
                 && podcastLoadCounter % 10 == 0) {
             // Update helpers
@@ -268,30 +320,27 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
                     android.os.Process
                             .setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
 
+                    // The episodes currently in the podcast feed
+                    final Set<UrlKey> episodeUrls = new HashSet<UrlKey>();
+                    for (Episode episode : podcast.getEpisodes())
+                        episodeUrls.add(episode.getMediaUrlKey());
+
                     // Clean all state meta data information for episodes no
                     // longer present in the podcast feed
-                    Iterator<Entry<URL, EpisodeMetadata>> iterator = metadata.entrySet().iterator();
-                    while (iterator.hasNext()) {
-                        final Entry<URL, EpisodeMetadata> entry = iterator.next();
-
-                        // Podcast matches
-                        if (podcast.getUrl().toString().equals(entry.getValue().podcastUrl)) {
-                            boolean stillInPodcast = false;
-
-                            // Check whether the episode is still there
-                            for (Episode episode : podcast.getEpisodes())
-                                if (episode.getMediaUrl().equals(entry.getKey()))
-                                    stillInPodcast = true;
-
-                            // If it is not there and the episode metadata does
-                            // not have any other information, delete the
-                            // metadata
-                            if (!stillInPodcast && entry.getValue().hasOnlyStateData()) {
-                                // This is actually enough since the task
-                                // storing the metadata will clean empty records
-                                entry.getValue().isOld = null;
-                                entry.getValue().resumeAt = null;
-                            }
+                    final String podcastUrl = podcast.getUrl().toString();
+                    for (UrlKey key : metadataIndex.getEntriesForPodcast(podcastUrl)) {
+                        final EpisodeMetadata meta = metadata.get(key);
+
+                        // If it is not there and the episode metadata does
+                        // not have any other information, delete the
+                        // metadata
+                        if (meta != null && !episodeUrls.contains(key)
+                                && meta.hasOnlyStateData()) {
+                            // This is actually enough since the task
+                            // storing the metadata will clean empty records
+                            meta.isOld = null;
+                            meta.resumeAt = null;
+                            markMetadataChanged(key);
                         }
                     }
                 }
@@ -304,6 +353,34 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
             podcastLoadCounter++;
     }
 
+    private NewEpisodeCount countNewEpisodes(Podcast podcast) {
+        final NewEpisodeCount counted = new NewEpisodeCount();
+        counted.countedFor = podcast.getLastChanges();
+        counted.episodes = new HashSet<UrlKey>();
+        for (Episode episode : podcast.getEpisodes()) {
+            counted.episodes.add(episode.getMediaUrlKey());
+
+            if (!getState(episode))
+                counted.count++;
+        }
+
+        // Only keep the count if the states are actually known
+        if (metadata != null)
+            newEpisodeCounts.put(podcast, counted);
+
+        return counted;
+    }
+
+    private void updateNewEpisodeCount(Episode episode, boolean wasOld) {
+        final NewEpisodeCount counted = newEpisodeCounts.get(episode.getPodcast());
+        final boolean isOld = getState(episode);
+
+        // Only update if we have a count and it covers the episode
+        if (counted != null && wasOld != isOld
+                && counted.episodes.contains(episode.getMediaUrlKey()))
+            counted.count += isOld ? -1 : 1;
+    }
+
     @Override
     public void onAuthorizationRequired(Podcast podcast) {
         // pass
@@ -0,0 +1,289 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import android.os.AsyncTask;
+import android.util.Log;
+
+import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastTask;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Scheduler for podcast feed loads. Limits the number of podcast load tasks
+ * running at the same time (overall and per host) and keeps all other
+ * requests in a queue. Loads requested by the user (interactive) always go
+ * before background updates. Each podcast is only queued or running once.
+ * <p>
+ * <b>Threading:</b> This is not thread-safe, all methods need to be called
+ * from the main thread (which is where the tasks report back to as well).
+ * </p>
+ */
+public class PodcastLoadScheduler {
+
+    /** The lanes (priorities) podcast loads can be scheduled with */
+    public enum Lane {
+        /** Loads the user is waiting for */
+        INTERACTIVE,
+        /** Background updates */
+        BACKGROUND
+    }
+
+    /** A podcast load waiting for its turn */
+    private static class Request {
+
+        /** The podcast to load */
+        private final Podcast podcast;
+        /** The task to load it with */
+        private LoadPodcastTask task;
+        /** The lane the request is in */
+        private Lane lane;
+        /** The time the request was queued */
+        private final long queuedAt = System.currentTimeMillis();
+
+        private Request(Podcast podcast, LoadPodcastTask task, Lane lane) {
+            this.podcast = podcast;
+            this.task = task;
+            this.lane = lane;
+        }
+    }
+
+    /** The maximum number of podcast loads running at the same time */
+    private int maxLoads;
+    /** The maximum number of loads running at the same time per host */
+    private int maxLoadsPerHost;
+
+    /** The interactive lane */
+    private final LinkedList<Request> interactiveQueue = new LinkedList<Request>();
+    /** The background lane */
+    private final LinkedList<Request> backgroundQueue = new LinkedList<Request>();
+    /** The currently running tasks */
+    private final Map<Podcast, LoadPodcastTask> runningTasks = new HashMap<Podcast, LoadPodcastTask>();
+    /** The number of running tasks per host */
+    private final Map<String, Integer> runningPerHost = new HashMap<String, Integer>();
+
+    /** The number of loads started so far */
+    private int startedCount;
+    /** The overall time loads had to wait in the queue */
+    private long totalWaitTime;
+    /** The longest time a load had to wait in the queue */
+    private long maxWaitTime;
+
+    /**
+     * Create a new scheduler.
+     *
+     * @param maxLoads The maximum number of podcast loads to run at the same
+     *            time.
+     * @param maxLoadsPerHost The maximum number of podcast loads to run at the
+     *            same time for any one host.
+     */
+    public PodcastLoadScheduler(int maxLoads, int maxLoadsPerHost) {
+        setMaxLoads(maxLoads, maxLoadsPerHost);
+    }
+
+    /**
+     * Change the concurrency limits. This will not stop any tasks already
+     * running, but will be respected when starting the next.
+     *
+     * @param maxLoads The maximum number of podcast loads to run at the same
+     *            time.
+     * @param maxLoadsPerHost The maximum number of podcast loads to run at the
+     *            same time for any one host.
+     */
+    public void setMaxLoads(int maxLoads, int maxLoadsPerHost) {
+        this.maxLoads = Math.max(1, maxLoads);
+        this.maxLoadsPerHost = Math.max(1, maxLoadsPerHost);
+
+        startLoads();
+    }
+
+    /**
+     * Schedule a podcast load. If the podcast is already running, this does
+     * nothing. If it is queued in the background lane and now requested
+     * interactively, it is moved to the interactive lane and the task given
+     * replaces the one queued earlier.
+     *
+     * @param podcast The podcast to load.
+     * @param task The task to load the podcast with, not yet started.
+     * @param lane The lane to put the request in.
+     * @return <code>true</code> iff the task given is going to be used.
+     */
+    public boolean schedule(Podcast podcast, LoadPodcastTask task, Lane lane) {
+        // Already running or queued for interaction, nothing to do
+        if (runningTasks.containsKey(podcast) || find(interactiveQueue, podcast) != null)
+            return false;
+
+        final Request queued = find(backgroundQueue, podcast);
+        if (queued != null) {
+            // Already queued for background, nothing to do either
+            if (Lane.BACKGROUND.equals(lane))
+                return false;
+
+            // Upgrade to interactive lane, but keep queue time
+            backgroundQueue.remove(queued);
+            queued.task = task;
+            queued.lane = lane;
+            interactiveQueue.add(queued);
+        } else
+            getQueue(lane).add(new Request(podcast, task, lane));
+
+        startLoads();
+        return true;
+    }
+
+    /**
+     * Tell the scheduler that the load for the given podcast has finished (no
+     * matter whether it succeeded or not). This will start the next waiting
+     * load (if any).
+     *
+     * @param podcast Podcast that is no longer loading.
+     */
+    public void onLoadFinished(Podcast podcast) {
+        if (runningTasks.remove(podcast) != null) {
+            final String host = getHost(podcast);
+            final int count = runningPerHost.get(host);
+
+            if (count > 1)
+                runningPerHost.put(host, count - 1);
+            else
+                runningPerHost.remove(host);
+        }
+
+        startLoads();
+    }
+
+    /**
+     * @param podcast Podcast to check for.
+     * @return <code>true</code> iff the podcast is either loading or waiting
+     *         to load.
+     */
+    public boolean isScheduled(Podcast podcast) {
+        return runningTasks.containsKey(podcast) || find(interactiveQueue, podcast) != null
+                || find(backgroundQueue, podcast) != null;
+    }
+
+    /**
+     * @return The number of podcasts loading or waiting to load.
+     */
+    public int getScheduledCount() {
+        return runningTasks.size() + getQueueLength();
+    }
+
+    /**
+     * @return The number of podcasts currently loading.
+     */
+    public int getRunningCount() {
+        return runningTasks.size();
+    }
+
+    /**
+     * @return The number of podcasts waiting to load.
+     */
+    public int getQueueLength() {
+        return interactiveQueue.size() + backgroundQueue.size();
+    }
+
+    /**
+     * @return The average time (in milliseconds) podcasts loads had to wait
+     *         before their task was started.
+     */
+    public long getAverageWaitTime() {
+        return startedCount == 0 ? 0 : totalWaitTime / startedCount;
+    }
+
+    /**
+     * @return The longest time (in milliseconds) a podcast load had to wait
+     *         before its task was started.
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    private void startLoads() {
+        while (runningTasks.size() < maxLoads) {
+            // Interactive loads always go first
+            Request next = pollStartable(interactiveQueue);
+            if (next == null)
+                next = pollStartable(backgroundQueue);
+            // Nothing we can start right now
+            if (next == null)
+                break;
+
+            try {
+                next.task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, next.podcast);
+            } catch (RejectedExecutionException ree) {
+                // The executor is busy, put the request back and try again
+                // once the next load finishes
+                getQueue(next.lane).addFirst(next);
+                Log.d(getClass().getSimpleName(), "Cannot start load for podcast \""
+                        + next.podcast + "\", will retry", ree);
+
+                break;
+            }
+
+            // Keep track of the task and the stats
+            runningTasks.put(next.podcast, next.task);
+            final String host = getHost(next.podcast);
+            final Integer count = runningPerHost.get(host);
+            runningPerHost.put(host, count == null ? 1 : count + 1);
+
+            final long waited = System.currentTimeMillis() - next.queuedAt;
+            startedCount++;
+            totalWaitTime += waited;
+            maxWaitTime = Math.max(maxWaitTime, waited);
+        }
+    }
+
+    private Request pollStartable(LinkedList<Request> queue) {
+        final Iterator<Request> iterator = queue.iterator();
+
+        while (iterator.hasNext()) {
+            final Request request = iterator.next();
+            final Integer count = runningPerHost.get(getHost(request.podcast));
+
+            // Skip requests for hosts that are already busy enough
+            if (count == null || count < maxLoadsPerHost) {
+                iterator.remove();
+                return request;
+            }
+        }
+
+        return null;
+    }
+
+    private LinkedList<Request> getQueue(Lane lane) {
+        return Lane.INTERACTIVE.equals(lane) ? interactiveQueue : backgroundQueue;
+    }
+
+    private static Request find(LinkedList<Request> queue, Podcast podcast) {
+        for (Request request : queue)
+            if (request.podcast.equals(podcast))
+                return request;
+
+        return null;
+    }
+
+    private static String getHost(Podcast podcast) {
+        return podcast.getUrl() == null ? "" : podcast.getUrl().getHost();
+    }
+}
@@ -0,0 +1,75 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import net.alliknow.podcatcher.model.tasks.remote.PodcastLogoDiskCache;
+import net.alliknow.podcatcher.model.tasks.remote.PodcastLogoDiskCache.Variant;
+import net.alliknow.podcatcher.model.types.UrlKey;
+
+/**
+ * In-memory cache for the decoded podcast logos, keyed by the podcast's URL
+ * and the logo variant (see {@link #getKey(UrlKey, Variant)}). The cache is
+ * bounded by the number of bytes the bitmaps take, sized as a fraction of the
+ * app's memory class, and evicts the logos least recently used. Logos evicted
+ * can be restored from the {@link PodcastLogoDiskCache}.
+ * <p>
+ * <b>Threading:</b> This is thread-safe.
+ * </p>
+ */
+class PodcastLogoCache extends LruCache<String, Bitmap> {
+
+    /** The part (1/n) of the app's memory we use for logos */
+    private static final int MEMORY_FRACTION = 8;
+
+    /**
+     * Create a new cache.
+     *
+     * @param context The context to determine the app's memory class from.
+     */
+    PodcastLogoCache(Context context) {
+        super(getCacheSize(context));
+    }
+
+    /**
+     * Get the key to cache a podcast logo variant with.
+     *
+     * @param podcastUrl The podcast's URL.
+     * @param variant The logo variant.
+     * @return The cache key.
+     */
+    static String getKey(UrlKey podcastUrl, Variant variant) {
+        return podcastUrl + " " + variant;
+    }
+
+    @Override
+    protected int sizeOf(String key, Bitmap logo) {
+        return logo.getByteCount();
+    }
+
+    private static int getCacheSize(Context context) {
+        final int memoryClass = ((ActivityManager) context
+                .getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass();
+
+        return memoryClass * 1024 * 1024 / MEMORY_FRACTION;
+    }
+}
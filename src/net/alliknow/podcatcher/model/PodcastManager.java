@@ -17,7 +17,9 @@
 
 package net.alliknow.podcatcher.model;
 
+import android.graphics.Bitmap;
 import android.os.AsyncTask;
+import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.text.Html;
 import android.util.Log;
@@ -28,15 +30,23 @@ import net.alliknow.podcatcher.listeners.OnChangePodcastListListener;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastListListener;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastListener;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastLogoListener;
+import net.alliknow.podcatcher.listeners.OnLoadPodcastSnapshotListener;
+import net.alliknow.podcatcher.model.PodcastLoadScheduler.Lane;
+import net.alliknow.podcatcher.model.tasks.LoadPodcastSnapshotsTask;
 import net.alliknow.podcatcher.model.tasks.StorePodcastListTask;
+import net.alliknow.podcatcher.model.tasks.StorePodcastSnapshotTask;
 import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastLogoTask;
+import net.alliknow.podcatcher.model.tasks.remote.PodcastLogoDiskCache;
+import net.alliknow.podcatcher.model.tasks.remote.PodcastLogoDiskCache.Variant;
 import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastTask;
 import net.alliknow.podcatcher.model.types.Episode;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
+import net.alliknow.podcatcher.model.types.UrlKey;
 
 import org.xmlpull.v1.XmlPullParser;
 
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -44,11 +54,15 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 
 /**
@@ -59,7 +73,7 @@ import java.util.concurrent.RejectedExecutionException;
  * should never have to create this yourself.
  */
 public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastListener,
-        OnLoadPodcastLogoListener {
+        OnLoadPodcastSnapshotListener {
 
     /** The single instance */
     private static PodcastManager manager;
@@ -76,6 +90,30 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
      * milliseconds). If older, we will to reload.
      */
     public static final int TIME_TO_LIFE_MOBILE = 60 * 60 * 1000;
+    /**
+     * The minimum time between two background updates of a podcast on
+     * non-mobile connections (in milliseconds)
+     */
+    private static final long UPDATE_INTERVAL = PodcastRefreshPolicy.MIN_INTERVAL;
+    /**
+     * The minimum time between two background updates of a podcast on mobile
+     * connections (in milliseconds)
+     */
+    private static final long UPDATE_INTERVAL_MOBILE = 2 * UPDATE_INTERVAL;
+    /**
+     * The number of known episodes in a row that will end the parse of a
+     * podcast feed during background updates. Since feeds are sorted newest
+     * first, we can skip the rest of the file.
+     */
+    private static final int STOP_PARSE_AFTER_KNOWN = 5;
+    /** The maximum number of podcast feeds to load at the same time */
+    private static final int MAX_PODCAST_LOADS = 6;
+    /** The maximum number of podcast feeds to load at a time on mobile */
+    private static final int MAX_PODCAST_LOADS_MOBILE = 3;
+    /** The maximum number of podcast feeds to load from one host at a time */
+    private static final int MAX_PODCAST_LOADS_PER_HOST = 2;
+    /** The maximum number of logos to load for the podcast list at a time */
+    private static final int MAX_LIST_LOGO_LOADS = 2;
     /** Maximum byte size for the logo to load when on mobile connection */
     public static final int MAX_LOGO_SIZE_MOBILE = 500000;
 
@@ -91,15 +129,49 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
     /** The OPML file encoding */
     public static final String OPML_FILE_ENCODING = "utf8";
 
-    /** The list of podcasts we know */
-    private List<Podcast> podcastList;
+    /**
+     * The list of podcasts we know. This is an unmodifiable snapshot, all
+     * changes replace the list as a whole, so readers (on any thread) can use
+     * it without copying.
+     */
+    private volatile List<Podcast> podcastList;
     /** Flag to indicate whether podcast list is dirty */
     private boolean podcastListChanged;
-
-    /** The current podcast load tasks */
-    private Map<Podcast, LoadPodcastTask> loadPodcastTasks = new HashMap<Podcast, LoadPodcastTask>();
-    /** The current podcast logo load tasks */
-    private Map<Podcast, LoadPodcastLogoTask> loadPodcastLogoTasks = new HashMap<Podcast, LoadPodcastLogoTask>();
+    /**
+     * The podcasts we know by their feed URL. Updated on the main thread, safe
+     * to read from any thread.
+     */
+    private final Map<UrlKey, Podcast> podcastsByUrl = new ConcurrentHashMap<UrlKey, Podcast>();
+    /** The episodes of all podcasts we know by their media URL */
+    private final Map<UrlKey, Episode> episodesByUrl = new ConcurrentHashMap<UrlKey, Episode>();
+    /** The episode list each podcast had when we last put it in the index */
+    private final Map<Podcast, List<Episode>> indexedEpisodes = new HashMap<Podcast, List<Episode>>();
+    /** The episode list each podcast had when we last told the listeners */
+    private final Map<Podcast, List<Episode>> notifiedEpisodes = new HashMap<Podcast, List<Episode>>();
+
+    /** The scheduler for all podcast load tasks */
+    private final PodcastLoadScheduler loadScheduler =
+            new PodcastLoadScheduler(MAX_PODCAST_LOADS, MAX_PODCAST_LOADS_PER_HOST);
+    /** The handler running the background updates */
+    private final Handler updateHandler = new Handler();
+    /** The policy deciding when podcasts are due for a background update */
+    private final PodcastRefreshPolicy refreshPolicy = new PodcastRefreshPolicy(UPDATE_INTERVAL);
+    /** The podcast logos currently in memory */
+    private final PodcastLogoCache logoCache;
+    /**
+     * The thread to change files on disk with (logos of podcasts removed or
+     * moved and all snapshot reads, writes and deletes). One thread only
+     * keeps the changes in order.
+     */
+    private static final Executor DISK_EXECUTOR = Executors.newSingleThreadExecutor();
+    /** The current podcast logo load tasks (by logo cache key) */
+    private Map<String, LoadPodcastLogoTask> loadPodcastLogoTasks = new HashMap<String, LoadPodcastLogoTask>();
+    /** The podcasts waiting for their logo to load for the podcast list */
+    private final LinkedList<Podcast> listLogoQueue = new LinkedList<Podcast>();
+    /** The podcasts logos are currently loading for the podcast list */
+    private final Set<Podcast> listLogoLoads = new HashSet<Podcast>();
+    /** The podcasts we do not have a logo on disk for */
+    private final Set<Podcast> missingLocalLogos = new HashSet<Podcast>();
 
     /** The call-back set for the podcast list load listeners */
     private Set<OnLoadPodcastListListener> loadPodcastListListeners = new HashSet<OnLoadPodcastListListener>();
@@ -110,46 +182,56 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
     /** The call-back set for the podcast logo load listeners */
     private Set<OnLoadPodcastLogoListener> loadPodcastLogoListeners = new HashSet<OnLoadPodcastLogoListener>();
 
-    /** This is the background update task */
-    private class PodcastUpdateTask extends TimerTask {
+    /**
+     * This is the background update task, it runs on the main thread and
+     * re-posts itself after it has run.
+     */
+    private class PodcastUpdateTask implements Runnable {
+
+        /** The time between two runs */
+        private final int interval;
+
+        private PodcastUpdateTask(int interval) {
+            this.interval = interval;
+        }
 
         @Override
         public void run() {
-            Log.i(getClass().getSimpleName(), "Running podcast background update");
+            Log.i(getClass().getSimpleName(), "Running podcast background update, "
+                    + getRunningLoadCount() + " loads running, " + getLoadQueueLength()
+                    + " waiting, average wait " + getAverageLoadWaitTime() + "ms, max wait "
+                    + getMaxLoadWaitTime() + "ms");
 
             final boolean online = podcatcher.isOnline();
-            // This is the current time minus the time to life for the podcast
-            // minus some extra time to make sure we refresh before it if
-            // actually due
-            final Date triggerIfLoadedBefore = new Date(new Date().getTime() -
-                    (podcatcher.isOnFastConnection() ? TIME_TO_LIFE : TIME_TO_LIFE_MOBILE) -
-                    1000 * 60 * 6); // trigger if six minutes before reload
-
-            // There are some conditions here: We need to be online and there
-            // should not be too many threads open
-            if (online && (loadPodcastTasks.size() + loadPodcastLogoTasks.size() < 50))
+            final boolean fast = podcatcher.isOnFastConnection();
+            // Check less often and run fewer loads on mobile connections
+            refreshPolicy.setMinInterval(fast ? UPDATE_INTERVAL : UPDATE_INTERVAL_MOBILE);
+            updateLoadLimits(fast);
+            // Trigger all podcasts that will be due before the next run
+            final long triggerIfDueBefore = new Date().getTime() + interval;
+
+            // We need to be online, the scheduler takes care of not running
+            // too many loads at the same time
+            if (online)
                 for (Podcast podcast : podcastList) {
                     // There are more conditions here: The podcast is not
-                    // currently loading, and has not been loaded recently
-                    if (!loadPodcastTasks.containsKey(podcast) &&
-                            (podcast.getLastLoaded() == null || podcast.getLastLoaded().before(
-                                    triggerIfLoadedBefore))) {
+                    // currently loading, and is due according to its
+                    // publishing schedule
+                    if (!loadScheduler.isScheduled(podcast) &&
+                            (podcast.getLastLoaded() == null ||
+                            refreshPolicy.isDue(podcast, triggerIfDueBefore))) {
                         // Download podcast RSS feed (async)
                         final LoadPodcastTask task = new LoadPodcastTask(PodcastManager.this);
-                        try {
-                            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, podcast);
-
-                            // Keep task reference, so we can cancel the load
-                            // and determine whether a task for this podcast is
-                            // already running
-                            loadPodcastTasks.put(podcast, task);
-                        } catch (RejectedExecutionException ree) {
-                            // Skip update
-                            Log.d(getClass().getSimpleName(), "Cannot update podcast \"" + podcast
-                                    + "\"", ree);
-                        }
+                        // Background updates only need to pick up the
+                        // latest episodes, loads triggered by the user will
+                        // still read the complete feed
+                        task.setStopAfterKnown(STOP_PARSE_AFTER_KNOWN);
+
+                        loadScheduler.schedule(podcast, task, Lane.BACKGROUND);
                     }
                 }
+
+            updateHandler.postDelayed(this, interval);
         }
     }
 
@@ -162,6 +244,7 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
         // We use some of its method below, so we keep a reference to the
         // application object.
         this.podcatcher = app;
+        this.logoCache = new PodcastLogoCache(app);
     }
 
     /**
@@ -199,12 +282,15 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
     @Override
     public void onPodcastListLoaded(List<Podcast> list) {
         // Set the member
-        this.podcastList = list;
+        this.podcastList = Collections.unmodifiableList(new ArrayList<Podcast>(list));
         this.podcastListChanged = false;
 
         // Put some nice sample podcasts for testing
         if (podcatcher.isInDebugMode())
             putSamplePodcasts();
+        // Make the podcasts available for look-ups by URL
+        for (Podcast podcast : podcastList)
+            addToIndex(podcast);
 
         // Alert call-backs (if any)
         if (loadPodcastListListeners.isEmpty())
@@ -213,98 +299,133 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
             for (OnLoadPodcastListListener listener : loadPodcastListListeners)
                 listener.onPodcastListLoaded(getPodcastList());
 
-        // Go load all podcast logo available offline
-        for (Podcast podcast : podcastList)
-            loadLogo(podcast, true);
+        // Restore the podcasts' content as we had it on disk, this will show
+        // up long before the feeds are loaded from the net
+        new LoadPodcastSnapshotsTask(podcatcher, this).executeOnExecutor(
+                DISK_EXECUTOR, podcastList.toArray(new Podcast[0]));
 
-        // Run podcast update task every five minutes
-        final int fiveMinutes = 1000 * 60 * 60 * 5;
+        // Run podcast update task every five minutes, this is cheap since it
+        // only starts loads for podcasts that are actually due (and the policy
+        // makes sure that no podcast is due more often than every five hours)
+        final int fiveMinutes = 1000 * 60 * 5;
         final boolean isSelectAllOnStart = PreferenceManager.getDefaultSharedPreferences(
                 podcatcher.getApplicationContext()).getBoolean(
                 SettingsActivity.KEY_SELECT_ALL_ON_START, false);
-        new Timer().schedule(new PodcastUpdateTask(),
-                isSelectAllOnStart || podcatcher.isInDebugMode() ?
-                        fiveMinutes : 0, fiveMinutes);
+        updateHandler.postDelayed(new PodcastUpdateTask(fiveMinutes),
+                isSelectAllOnStart || podcatcher.isInDebugMode() ? fiveMinutes : 0);
     }
 
     /**
      * Get the list of podcast currently known. This will come as a sorted,
-     * shallow-copied list. Use the <code>add</code> and <code>remove</code>
-     * methods to alter it. The method will return <code>null</code> if the list
-     * in not available yet (we are still starting up), you should register a
-     * load listener to be notified on load completion.
+     * unmodifiable snapshot that does not change when podcasts are added or
+     * removed later. Use the <code>add</code> and <code>remove</code> methods
+     * to alter it. The method will return <code>null</code> if the list in not
+     * available yet (we are still starting up), you should register a load
+     * listener to be notified on load completion.
      * 
      * @return The podcast list, or <code>null</code> if not available.
      * @see OnLoadPodcastListListener
      */
     public List<Podcast> getPodcastList() {
-        if (podcastList == null)
-            return null;
-        // return copy in order to make sure
-        // nobody changes this list on us.
-        else
-            return new ArrayList<Podcast>(podcastList);
+        return podcastList;
     }
 
     /**
      * Load data for given podcast from its URL. This is an async load, so this
      * method will return immediately. Implement the appropriate call-back to
      * monitor the load process and to get its result. Note that the async task
-     * might be held back until the episode metadata has finished loading.
+     * might be queued if there are too many loads running already (it will be
+     * put before any background updates though). Listeners are only called
+     * once the episode metadata has finished loading. Content the podcast
+     * already has (e.g. restored from its snapshot) is only reported before
+     * the load if the listeners have not been told about it yet.
      * 
      * @param podcast Podcast to load.
      * @see OnLoadPodcastListener
-     * @see EpisodeManager#blockUntilEpisodeMetadataIsLoaded()
+     * @see EpisodeManager#runWhenEpisodeMetadataIsLoaded(Runnable)
      */
     public void load(Podcast podcast) {
         // Only load podcast if not too old
         if (!shouldReload(podcast))
-            onPodcastLoaded(podcast);
-        // Only start the load task if it is not already active
-        else if (!loadPodcastTasks.containsKey(podcast)) {
+            notifyPodcastLoaded(podcast);
+        else {
+            // If we have content for the podcast the listeners have not seen
+            // yet, show it while we go get the latest version
+            if (podcast.getEpisodeNumber() > 0
+                    && notifiedEpisodes.get(podcast) != podcast.getEpisodes())
+                notifyPodcastLoaded(podcast);
+
+            final boolean fast = podcatcher.isOnFastConnection();
             // Download podcast RSS feed (async)
             final LoadPodcastTask task = new LoadPodcastTask(this);
             // We will accept stale versions from the cache in certain
             // situations
             task.setMaxStale(podcatcher.isOnline() ?
-                    podcatcher.isOnFastConnection() ? MAX_STALE : MAX_STALE_MOBILE
-                    : MAX_STALE_OFFLINE);
-
-            try {
-                task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, podcast);
-
-                // Keep task reference, so we can cancel the load and determine
-                // whether a task for this podcast is already running
-                loadPodcastTasks.put(podcast, task);
-            } catch (RejectedExecutionException ree) {
-                // Skip update TODO We might need a better solution here?
-                Log.d(getClass().getSimpleName(), "Cannot update podcast \"" + podcast
-                        + "\"", ree);
-            }
+                    fast ? MAX_STALE : MAX_STALE_MOBILE : MAX_STALE_OFFLINE);
+
+            // This will not do anything if the podcast is already loading
+            updateLoadLimits(fast);
+            loadScheduler.schedule(podcast, task, Lane.INTERACTIVE);
         }
     }
 
+    private void updateLoadLimits(boolean fastConnection) {
+        // Do not run as many loads at the same time on mobile connections
+        loadScheduler.setMaxLoads(fastConnection ? MAX_PODCAST_LOADS : MAX_PODCAST_LOADS_MOBILE,
+                MAX_PODCAST_LOADS_PER_HOST);
+    }
+
     /**
-     * Check whether a podcast is currently loading.
+     * Check whether a podcast is currently loading or waiting to load.
      * 
      * @param podcast Podcast to check for.
      * @return <code>true</code> iff loading.
      */
     public boolean isLoading(Podcast podcast) {
-        return loadPodcastTasks.containsKey(podcast);
+        return loadScheduler.isScheduled(podcast);
     }
 
     /**
-     * @return The number of podcasts currently loading.
+     * @return The number of podcasts currently loading or waiting to load.
      */
     public int getLoadCount() {
-        return loadPodcastTasks.size();
+        return loadScheduler.getScheduledCount();
+    }
+
+    /**
+     * @return The number of podcasts currently loading.
+     */
+    public int getRunningLoadCount() {
+        return loadScheduler.getRunningCount();
+    }
+
+    /**
+     * @return The number of podcasts waiting for their load to start.
+     */
+    public int getLoadQueueLength() {
+        return loadScheduler.getQueueLength();
+    }
+
+    /**
+     * @return The average time (in milliseconds) podcast loads had to wait
+     *         before they started.
+     */
+    public long getAverageLoadWaitTime() {
+        return loadScheduler.getAverageWaitTime();
+    }
+
+    /**
+     * @return The longest time (in milliseconds) a podcast load had to wait
+     *         before it started.
+     */
+    public long getMaxLoadWaitTime() {
+        return loadScheduler.getMaxWaitTime();
     }
 
     @Override
     public void onAuthorizationRequired(Podcast podcast) {
-        // Remove from the map of loading task
-        loadPodcastTasks.remove(podcast);
+        // Tell the scheduler, this will start the next load waiting
+        loadScheduler.onLoadFinished(podcast);
 
         // Notify listeners
         if (loadPodcastListeners.isEmpty())
@@ -323,21 +444,101 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
 
     @Override
     public void onPodcastLoaded(Podcast podcast) {
-        // Remove from the map of loading task
-        loadPodcastTasks.remove(podcast);
+        // Tell the scheduler, this will start the next load waiting
+        loadScheduler.onLoadFinished(podcast);
+        // Learn when to check the podcast next
+        refreshPolicy.onLoaded(podcast);
+        // The feed has moved for good, follow it
+        final URL movedTo = podcast.getMovedTo();
+        podcast.setMovedTo(null);
+        final boolean moved = movedTo != null && movePodcast(podcast, movedTo);
+        // Keep a snapshot of the podcast's content for the next start (the
+        // snapshot file depends on the URL, so write a new one after a move).
+        // This goes to the disk thread, so it cannot overtake the delete
+        // when the podcast is moved or removed.
+        if (podcastList.contains(podcast) && (moved
+                || (podcast.getLastChanges() != null && !podcast.getLastChanges().isEmpty())))
+            new StorePodcastSnapshotTask(podcatcher).executeOnExecutor(DISK_EXECUTOR, podcast);
+        // Make the new episodes available for look-ups by URL
+        addToIndex(podcast);
+
+        notifyPodcastLoaded(podcast);
+    }
 
-        // Notify listeners
-        if (loadPodcastListeners.isEmpty())
-            Log.w(getClass().getSimpleName(), "Podcast loaded, but no listeners attached.");
-        else
-            for (OnLoadPodcastListener listener : loadPodcastListeners)
-                listener.onPodcastLoaded(podcast);
+    private boolean movePodcast(Podcast podcast, URL newUrl) {
+        final URL oldUrl = podcast.getUrl();
+        final UrlKey newKey = new UrlKey(newUrl);
+        final Podcast existing = podcastsByUrl.get(newKey);
+        // Nothing to do if the podcast is not ours (any more), already there
+        // or another podcast in the list has the new URL
+        if (!podcastList.contains(podcast) || newKey.equals(new UrlKey(oldUrl))
+                || (existing != null && existing != podcast))
+            return false;
+
+        Log.i(getClass().getSimpleName(), "Podcast \"" + podcast + "\" moved permanently to "
+                + newUrl);
+
+        // 1. Drop the old snapshot and move the logos on disk, both are
+        // stored by URL (not on the main thread, this is file I/O)
+        final File oldSnapshot = StorePodcastSnapshotTask.getSnapshotFile(podcatcher, podcast);
+        DISK_EXECUTOR.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                oldSnapshot.delete();
+                PodcastLogoDiskCache.getInstance(podcatcher).move(new UrlKey(oldUrl), newKey);
+            }
+        });
+        // 2. Move the podcast, it keeps its identity until the next start,
+        // but can be found by its new URL right away
+        podcast.setUrl(newUrl);
+        podcastsByUrl.put(newKey, podcast);
+        // 3. Make sure the episode metadata still belongs to the podcast
+        EpisodeManager.getInstance().onPodcastMoved(oldUrl.toString(), newUrl.toString());
+        // 4. Store the new location, so we do not need to follow the redirect
+        // on every load
+        podcastListChanged = true;
+        saveState();
+
+        return true;
+    }
+
+    @Override
+    public void onPodcastSnapshotLoaded(Podcast podcast) {
+        addToIndex(podcast);
+        // To the listeners, this looks like a regular (but maybe stale) load
+        notifyPodcastLoaded(podcast);
+    }
+
+    private void notifyPodcastLoaded(final Podcast podcast) {
+        // Remember what the listeners are told about, so load() does not
+        // tell them about the same content again
+        notifiedEpisodes.put(podcast, podcast.getEpisodes());
+
+        // The listeners will need the episode metadata to show the podcast,
+        // so hold the notification back until it is available (the load
+        // itself does not need to wait for it)
+        EpisodeManager.getInstance().runWhenEpisodeMetadataIsLoaded(new Runnable() {
+
+            @Override
+            public void run() {
+                // Notify listeners
+                if (loadPodcastListeners.isEmpty())
+                    Log.w(PodcastManager.this.getClass().getSimpleName(),
+                            "Podcast loaded, but no listeners attached.");
+                else
+                    for (OnLoadPodcastListener listener : loadPodcastListeners)
+                        listener.onPodcastLoaded(podcast);
+            }
+        });
     }
 
     @Override
     public void onPodcastLoadFailed(Podcast podcast) {
-        // Remove from the map of loading task
-        loadPodcastTasks.remove(podcast);
+        // Tell the scheduler, this will start the next load waiting
+        loadScheduler.onLoadFinished(podcast);
+        // Back off from podcasts that fail
+        refreshPolicy.onLoadFailed(podcast);
 
         // Notify listeners
         if (loadPodcastListeners.isEmpty())
@@ -359,50 +560,204 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
         loadLogo(podcast, false);
     }
 
-    private void loadLogo(Podcast podcast, boolean localOnly) {
+    /**
+     * Get the podcast's large logo if it is available in memory, see
+     * {@link #getLogo(Podcast, Variant)}.
+     * 
+     * @param podcast Podcast to get the logo for.
+     * @return The logo or <code>null</code> if not in memory.
+     */
+    public Bitmap getLogo(Podcast podcast) {
+        return getLogo(podcast, Variant.LARGE);
+    }
+
+    /**
+     * Get the podcast's logo if it is available in memory. Logos are dropped
+     * from memory when not used for a while, use
+     * {@link #loadLogo(Podcast, Variant, boolean)} to bring them back.
+     * 
+     * @param podcast Podcast to get the logo for.
+     * @param variant The logo variant (size) needed.
+     * @return The logo or <code>null</code> if not in memory.
+     */
+    public Bitmap getLogo(Podcast podcast, Variant variant) {
+        return podcast == null || podcast.getUrlKey() == null ?
+                null : logoCache.get(PodcastLogoCache.getKey(podcast.getUrlKey(), variant));
+    }
+
+    /**
+     * Load the large logo for given podcast, see {@link #loadLogo(Podcast)}.
+     * 
+     * @param podcast Podcast to load logo for.
+     * @param localOnly Whether to only use the logo cached on disk (if any).
+     *            This is cheap and will not go to the network.
+     */
+    public void loadLogo(Podcast podcast, boolean localOnly) {
+        loadLogo(podcast, Variant.LARGE, localOnly);
+    }
+
+    /**
+     * Load logo for given podcast, see {@link #loadLogo(Podcast)}. Once loaded,
+     * use {@link #getLogo(Podcast, Variant)} to get the variant.
+     * 
+     * @param podcast Podcast to load logo for.
+     * @param variant The logo variant (size) needed.
+     * @param localOnly Whether to only use the logo cached on disk (if any).
+     *            This is cheap and will not go to the network.
+     */
+    public void loadLogo(Podcast podcast, Variant variant, boolean localOnly) {
+        final Bitmap logo = getLogo(podcast, variant);
+
         // Only load podcast logo if it is not there yet
-        if (podcast.getLogo() != null)
-            onPodcastLogoLoaded(podcast);
+        if (logo != null)
+            onLogoLoaded(podcast, variant, logo);
         // Only start the load task if it is not already active
-        else if (!loadPodcastLogoTasks.containsKey(podcast)) {
-            // Start logo download
-            LoadPodcastLogoTask task = new LoadPodcastLogoTask(podcatcher, this);
-
-            // Limit logo size download unless we are on a fast network.
-            if (!podcatcher.isOnFastConnection())
-                task.setLoadLimit(MAX_LOGO_SIZE_MOBILE);
-            // Only use cached file if offline (even if stale)
-            task.setLocalOnly(!podcatcher.isOnline() || localOnly);
-
-            try {
-                // Go for it!
-                task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, podcast);
-
-                // Keep task reference, so we can cancel the load and determine
-                // whether a task for this podcast logo is already running
-                loadPodcastLogoTasks.put(podcast, task);
-            } catch (RejectedExecutionException ree) {
-                // Skip logo loading
-                Log.d(getClass().getSimpleName(), "Cannot load logo for podcast \"" + podcast
-                        + "\"", ree);
+        else if (!loadPodcastLogoTasks.containsKey(getLogoKey(podcast, variant)))
+            startLogoLoad(podcast, variant, localOnly);
+    }
+
+    /**
+     * Load the logos for the podcasts shown in a list from disk. Call this
+     * whenever the rows showing change (e.g. when the list is scrolled). Logos
+     * for the rows visible load first, followed by the ones to prefetch. Loads
+     * for podcasts not in any of the lists given (any more) are cancelled and
+     * only a few logos load at the same time, so this will not keep the
+     * executor busy. Logos already in memory are skipped. This loads the
+     * {@link Variant#ROW} logos only.
+     * 
+     * @param visible The podcasts currently visible.
+     * @param prefetch The podcasts likely to become visible next.
+     * @see OnLoadPodcastLogoListener
+     */
+    public void loadLogos(List<Podcast> visible, List<Podcast> prefetch) {
+        // 1. Find the logos we need, in the order we need them
+        final Set<Podcast> wanted = new LinkedHashSet<Podcast>();
+        for (Podcast podcast : visible)
+            if (getLogo(podcast, Variant.ROW) == null && !missingLocalLogos.contains(podcast))
+                wanted.add(podcast);
+        for (Podcast podcast : prefetch)
+            if (getLogo(podcast, Variant.ROW) == null && !missingLocalLogos.contains(podcast))
+                wanted.add(podcast);
+
+        // 2. Cancel the loads for podcasts no longer close to the screen
+        final Iterator<Podcast> running = listLogoLoads.iterator();
+        while (running.hasNext()) {
+            final Podcast podcast = running.next();
+
+            if (!wanted.contains(podcast)) {
+                final LoadPodcastLogoTask task =
+                        loadPodcastLogoTasks.get(getLogoKey(podcast, Variant.ROW));
+                if (task != null)
+                    task.cancel(true);
+
+                running.remove();
             }
         }
+
+        // 3. Replace the queue and start as many loads as we may
+        listLogoQueue.clear();
+        listLogoQueue.addAll(wanted);
+        startListLogoLoads();
     }
 
-    @Override
-    public void onPodcastLogoLoaded(Podcast podcast) {
-        loadPodcastLogoTasks.remove(podcast);
+    private void startListLogoLoads() {
+        final Iterator<Podcast> iterator = listLogoQueue.iterator();
+
+        while (listLogoLoads.size() < MAX_LIST_LOGO_LOADS && iterator.hasNext()) {
+            final Podcast podcast = iterator.next();
+
+            // There is a task for this podcast already (maybe cancelled, but
+            // not finished yet), try again once it is done
+            if (loadPodcastLogoTasks.containsKey(getLogoKey(podcast, Variant.ROW)))
+                continue;
+
+            iterator.remove();
+            if (getLogo(podcast, Variant.ROW) == null
+                    && startLogoLoad(podcast, Variant.ROW, true))
+                listLogoLoads.add(podcast);
+        }
+    }
+
+    private boolean startLogoLoad(Podcast podcast, Variant variant, boolean localOnly) {
+        // Start logo download
+        LoadPodcastLogoTask task = new LoadPodcastLogoTask(podcatcher,
+                new LogoLoadListener(variant));
+        task.setVariant(variant);
+
+        // Limit logo size download unless we are on a fast network.
+        if (!podcatcher.isOnFastConnection())
+            task.setLoadLimit(MAX_LOGO_SIZE_MOBILE);
+        // Only use cached file if offline (even if stale)
+        task.setLocalOnly(!podcatcher.isOnline() || localOnly);
+
+        try {
+            // Go for it!
+            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, podcast);
+
+            // Keep task reference, so we can cancel the load and determine
+            // whether a task for this podcast logo is already running
+            loadPodcastLogoTasks.put(getLogoKey(podcast, variant), task);
+
+            return true;
+        } catch (RejectedExecutionException ree) {
+            // Skip logo loading
+            Log.d(getClass().getSimpleName(), "Cannot load logo for podcast \"" + podcast
+                    + "\"", ree);
+
+            return false;
+        }
+    }
+
+    /** The call-back for the logo load tasks, knows the variant loaded */
+    private class LogoLoadListener implements OnLoadPodcastLogoListener {
+
+        /** The logo variant loading */
+        private final Variant variant;
+
+        private LogoLoadListener(Variant variant) {
+            this.variant = variant;
+        }
+
+        @Override
+        public void onPodcastLogoLoaded(Podcast podcast, Bitmap logo) {
+            onLogoLoaded(podcast, variant, logo);
+        }
+
+        @Override
+        public void onPodcastLogoLoadFailed(Podcast podcast) {
+            onLogoLoadFailed(podcast, variant);
+        }
+    }
+
+    private void onLogoLoaded(Podcast podcast, Variant variant, Bitmap logo) {
+        final String key = getLogoKey(podcast, variant);
+
+        loadPodcastLogoTasks.remove(key);
+        // All variants are on disk now
+        missingLocalLogos.remove(podcast);
+        if (Variant.ROW.equals(variant))
+            listLogoLoads.remove(podcast);
+        // Keep the logo in memory, this might drop others not used lately
+        if (logo != null && key != null)
+            logoCache.put(key, logo);
+        // Go on with the logos for the podcast list
+        startListLogoLoads();
 
         if (loadPodcastLogoListeners.isEmpty())
             Log.w(getClass().getSimpleName(), "Podcast logo loaded, but no listener set.");
         else
             for (OnLoadPodcastLogoListener listener : loadPodcastLogoListeners)
-                listener.onPodcastLogoLoaded(podcast);
+                listener.onPodcastLogoLoaded(podcast, logo);
     }
 
-    @Override
-    public void onPodcastLogoLoadFailed(Podcast podcast) {
-        loadPodcastLogoTasks.remove(podcast);
+    private void onLogoLoadFailed(Podcast podcast, Variant variant) {
+        loadPodcastLogoTasks.remove(getLogoKey(podcast, variant));
+        // There is no logo on disk, do not try again for the podcast list
+        // (loads cancelled are no longer in the set)
+        if (Variant.ROW.equals(variant) && listLogoLoads.remove(podcast))
+            missingLocalLogos.add(podcast);
+        // Go on with the logos for the podcast list
+        startListLogoLoads();
 
         if (loadPodcastLogoListeners.isEmpty())
             Log.w(getClass().getSimpleName(), "Podcast logo failed to load, but no listener set.");
@@ -411,6 +766,30 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
                 listener.onPodcastLogoLoadFailed(podcast);
     }
 
+    private void removeLogo(Podcast podcast) {
+        final UrlKey key = podcast.getUrlKey();
+
+        if (key != null) {
+            for (Variant variant : Variant.values())
+                logoCache.remove(PodcastLogoCache.getKey(key, variant));
+
+            // The disk cache goes by the podcast's current location
+            final UrlKey diskKey = new UrlKey(podcast.getUrl());
+            DISK_EXECUTOR.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    PodcastLogoDiskCache.getInstance(podcatcher).remove(diskKey);
+                }
+            });
+        }
+    }
+
+    private static String getLogoKey(Podcast podcast, Variant variant) {
+        return podcast.getUrlKey() == null ?
+                null : PodcastLogoCache.getKey(podcast.getUrlKey(), variant);
+    }
+
     /**
      * Add a new podcast to the list of podcasts.
      * {@link OnChangePodcastListListener}s will be notified. If the podcast
@@ -423,9 +802,13 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
     public void addPodcast(Podcast newPodcast) {
         // Check whether the new podcast is already added
         if (!contains(newPodcast)) {
-            // Add the new podcast
-            podcastList.add(newPodcast);
-            Collections.sort(podcastList);
+            // Add the new podcast (to a copy, readers might still use the
+            // old list)
+            final List<Podcast> list = new ArrayList<Podcast>(podcastList);
+            list.add(newPodcast);
+            Collections.sort(list);
+            podcastList = Collections.unmodifiableList(list);
+            addToIndex(newPodcast);
 
             // Alert listeners of new podcast
             for (OnChangePodcastListListener listener : changePodcastListListeners)
@@ -448,8 +831,26 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
      */
     public void remove(int index) {
         if (index >= 0 && index < size()) {
-            // Remove podcast at given position
-            Podcast removedPodcast = podcastList.remove(index);
+            // Remove podcast at given position (from a copy, readers might
+            // still use the old list)
+            final List<Podcast> list = new ArrayList<Podcast>(podcastList);
+            Podcast removedPodcast = list.remove(index);
+            podcastList = Collections.unmodifiableList(list);
+            removeFromIndex(removedPodcast);
+            removeLogo(removedPodcast);
+            listLogoQueue.remove(removedPodcast);
+            missingLocalLogos.remove(removedPodcast);
+            refreshPolicy.remove(removedPodcast);
+            notifiedEpisodes.remove(removedPodcast);
+            final File snapshot = StorePodcastSnapshotTask.getSnapshotFile(podcatcher,
+                    removedPodcast);
+            DISK_EXECUTOR.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    snapshot.delete();
+                }
+            });
 
             // Alert listeners of removed podcast
             for (OnChangePodcastListListener listener : changePodcastListListeners)
@@ -490,7 +891,7 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
         if (podcastListChanged && podcastList != null) {
             final StorePodcastListTask task = new StorePodcastListTask(podcatcher);
             task.setWriteAuthorization(true);
-            task.execute(new ArrayList<Podcast>(podcastList));
+            task.execute(podcastList);
 
             // Reset the flag, so the list will only be saved if changed again
             podcastListChanged = false;
@@ -530,24 +931,38 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
         return indexOf(podcast) != -1;
     }
 
+    /**
+     * Find the podcast object for given URL. This is a hash look-up and safe
+     * to call from any thread.
+     * 
+     * @param url URL of podcast to look up.
+     * @return The podcast object, or <code>null</code> if not found.
+     */
+    public Podcast findPodcastForUrl(UrlKey url) {
+        return url == null ? null : podcastsByUrl.get(url);
+    }
+
     /**
      * Find the podcast object for given URL.
      * 
      * @param url URL of podcast to look up.
      * @return The podcast object, or <code>null</code> if not found.
+     * @see #findPodcastForUrl(UrlKey)
      */
     public Podcast findPodcastForUrl(String url) {
-        // Make sure search only runs once the podcast list is actually
-        // available.
-        if (podcastList != null) {
-
-            // Find the podcast object
-            for (Podcast podcast : podcastList)
-                if (podcast.getUrl().toString().equals(url))
-                    return podcast;
-        }
+        return findPodcastForUrl(createKey(url));
+    }
 
-        return null;
+    /**
+     * Find the episode object for given URL. Note that this will only search
+     * episodes currently loaded. This is a hash look-up and safe to call from
+     * any thread.
+     * 
+     * @param url URL of episode to look for.
+     * @return The episode object, or <code>null</code> if not found.
+     */
+    public Episode findEpisodeForUrl(UrlKey url) {
+        return url == null ? null : episodesByUrl.get(url);
     }
 
     /**
@@ -556,19 +971,10 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
      * 
      * @param url URL of episode to look for.
      * @return The episode object, or <code>null</code> if not found.
+     * @see #findEpisodeForUrl(UrlKey)
      */
     public Episode findEpisodeForUrl(String url) {
-        // Make sure search only runs once the podcast list is actually
-        // available.
-        if (podcastList != null && url != null) {
-            // Go try find the episode
-            for (Podcast podcast : podcastList)
-                for (Episode episode : podcast.getEpisodes())
-                    if (episode.getMediaUrl().toString().equals(url))
-                        return episode;
-        }
-
-        return null;
+        return findEpisodeForUrl(createKey(url));
     }
 
     /**
@@ -680,32 +1086,93 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
      * Sort list.
      */
     private void putSamplePodcasts() {
-        podcastList.clear();
+        final List<Podcast> list = new ArrayList<Podcast>();
 
-        podcastList.add(createPodcast("This American Life",
+        list.add(createPodcast("This American Life",
                 "http://feeds.thisamericanlife.org/talpodcast"));
-        podcastList.add(createPodcast("Radiolab",
+        list.add(createPodcast("Radiolab",
                 "http://feeds.wnyc.org/radiolab"));
-        podcastList.add(createPodcast("Linux' Outlaws",
+        list.add(createPodcast("Linux' Outlaws",
                 "http://feeds.feedburner.com/linuxoutlaws"));
-        podcastList.add(createPodcast("GEO",
+        list.add(createPodcast("GEO",
                 "http://www.geo.de/GEOaudio/index.xml"));
-        podcastList.add(createPodcast("SGU",
+        list.add(createPodcast("SGU",
                 "https://www.theskepticsguide.org/premium"));
-        podcastList.add(createPodcast("Planet Money",
+        list.add(createPodcast("Planet Money",
                 "http://www.npr.org/rss/podcast.php?id=510289"));
-        podcastList.add(createPodcast("Freakonomics",
+        list.add(createPodcast("Freakonomics",
                 "http://feeds.feedburner.com/freakonomicsradio"));
-        podcastList.add(createPodcast("neo",
+        list.add(createPodcast("neo",
                 "http://www.zdf.de/ZDFmediathek/podcast/1446344?view=podcast"));
-        podcastList.add(createPodcast("Little Letter for Gaelic Learners",
+        list.add(createPodcast("Little Letter for Gaelic Learners",
                 "http://downloads.bbc.co.uk/podcasts/scotland/litirbheag/rss.xml"));
 
         // Remove null elements if accidentally create and added above
-        while (podcastList.remove(null))
+        while (list.remove(null))
             ;
 
-        Collections.sort(podcastList);
+        Collections.sort(list);
+        podcastList = Collections.unmodifiableList(list);
+    }
+
+    private void addToIndex(Podcast podcast) {
+        if (podcast == null || podcast.getUrlKey() == null)
+            return;
+
+        podcastsByUrl.put(podcast.getUrlKey(), podcast);
+
+        // The episode list is replaced as a whole on each change, so we only
+        // need to re-index if it is not the one we have seen last time
+        final List<Episode> episodes = podcast.getEpisodes();
+        final List<Episode> indexed = indexedEpisodes.get(podcast);
+        if (episodes == indexed)
+            return;
+
+        // 1. Add the current episodes
+        final Set<UrlKey> urls = new HashSet<UrlKey>(episodes.size());
+        for (Episode episode : episodes)
+            if (episode.getMediaUrlKey() != null) {
+                episodesByUrl.put(episode.getMediaUrlKey(), episode);
+                urls.add(episode.getMediaUrlKey());
+            }
+
+        // 2. Drop the episodes no longer in the feed
+        if (indexed != null)
+            removeFromIndex(podcast, indexed, urls);
+
+        indexedEpisodes.put(podcast, episodes);
+    }
+
+    private void removeFromIndex(Podcast podcast) {
+        if (podcast.getUrlKey() != null) {
+            podcastsByUrl.remove(podcast.getUrlKey());
+            // The podcast might have moved
+            podcastsByUrl.remove(new UrlKey(podcast.getUrl()));
+        }
+
+        final List<Episode> indexed = indexedEpisodes.remove(podcast);
+        if (indexed != null)
+            removeFromIndex(podcast, indexed, Collections.<UrlKey> emptySet());
+    }
+
+    private void removeFromIndex(Podcast podcast, List<Episode> episodes, Set<UrlKey> keep) {
+        for (Episode episode : episodes) {
+            final UrlKey url = episode.getMediaUrlKey();
+            final Episode current = url == null ? null : episodesByUrl.get(url);
+
+            // Only remove if the entry is ours, another podcast might list
+            // the same media file
+            if (current != null && !keep.contains(url) && podcast.equals(current.getPodcast()))
+                episodesByUrl.remove(url);
+        }
+    }
+
+    private static UrlKey createKey(String url) {
+        try {
+            return url == null ? null : UrlKey.parse(url);
+        } catch (MalformedURLException e) {
+            return null;
+        }
     }
 
     private static Podcast createPodcast(String name, String url) {
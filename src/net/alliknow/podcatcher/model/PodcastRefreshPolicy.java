@@ -0,0 +1,251 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides when a podcast is due for its next background update. The interval
+ * is learned per podcast from the publication dates of its episodes (a weekly
+ * show does not need to be checked every five hours), backs off for podcasts
+ * that fail to load or do not change and respects the freshness information
+ * sent by the server. No podcast is checked more often than every
+ * {@link #MIN_INTERVAL} milliseconds, which is how often all podcasts were
+ * checked before the intervals were learned. Podcasts the policy has not seen
+ * a load for are always due.
+ * <p>
+ * <b>Threading:</b> This is not thread-safe, use from the main thread only.
+ * </p>
+ */
+public class PodcastRefreshPolicy {
+
+    /** The lower bound for the time between two checks of a podcast */
+    public static final long MIN_INTERVAL = 5 * 60 * 60 * 1000;
+    /** The maximum time between two checks of a podcast */
+    public static final long MAX_INTERVAL = 3 * 24 * 60 * 60 * 1000;
+    /**
+     * We check this many times per the typical time between two episodes, so
+     * new episodes show up reasonably fast.
+     */
+    private static final int CHECKS_PER_EPISODE = 4;
+    /** The number of latest episodes to learn the publishing cadence from */
+    private static final int CADENCE_EPISODES = 20;
+    /** The maximum exponent for the back-off */
+    private static final int MAX_BACKOFF_EXPONENT = 5;
+
+    /** What we know about a podcast's updates */
+    private static class Schedule {
+
+        /** The time of the last load attempt */
+        private long lastAttempt;
+        /** The median time between two episodes, -1 if not known */
+        private long cadence = -1;
+        /** The number of load failures in a row */
+        private int failures;
+        /** The number of loads in a row that did not bring any changes */
+        private int unchanged;
+        /** The time the server considers the feed fresh until */
+        private long freshUntil = -1;
+    }
+
+    /** The minimum time between two checks of a podcast */
+    private long minInterval;
+    /** The schedule for each podcast */
+    private final Map<Podcast, Schedule> schedules = new HashMap<Podcast, Schedule>();
+
+    /**
+     * Create a new policy.
+     *
+     * @param minInterval The minimum time between two checks of a podcast (in
+     *            milliseconds). Values below {@link #MIN_INTERVAL} are raised
+     *            to it.
+     */
+    public PodcastRefreshPolicy(long minInterval) {
+        setMinInterval(minInterval);
+    }
+
+    /**
+     * @param minInterval The minimum time between two checks of a podcast (in
+     *            milliseconds). Use this e.g. to check less often on mobile
+     *            connections. Values below {@link #MIN_INTERVAL} are raised to
+     *            it.
+     */
+    public void setMinInterval(long minInterval) {
+        this.minInterval = Math.max(MIN_INTERVAL, Math.min(minInterval, MAX_INTERVAL));
+    }
+
+    /**
+     * Update the schedule for a podcast that just loaded successfully.
+     *
+     * @param podcast The podcast loaded.
+     */
+    public void onLoaded(Podcast podcast) {
+        onLoaded(podcast, System.currentTimeMillis());
+    }
+
+    /**
+     * Update the schedule for a podcast that loaded successfully at the given
+     * time.
+     *
+     * @param podcast The podcast loaded.
+     * @param now The time of the load (in milliseconds).
+     */
+    public void onLoaded(Podcast podcast, long now) {
+        final Schedule schedule = getSchedule(podcast);
+
+        schedule.lastAttempt = now;
+        schedule.failures = 0;
+        schedule.cadence = calculateCadence(podcast, now);
+        schedule.freshUntil = podcast.getFreshUntil() == null ?
+                -1 : podcast.getFreshUntil().getTime();
+
+        if (podcast.getLastChanges() == null || podcast.getLastChanges().isEmpty())
+            schedule.unchanged++;
+        else
+            schedule.unchanged = 0;
+    }
+
+    /**
+     * Update the schedule for a podcast that just failed to load.
+     *
+     * @param podcast The podcast that failed.
+     */
+    public void onLoadFailed(Podcast podcast) {
+        onLoadFailed(podcast, System.currentTimeMillis());
+    }
+
+    /**
+     * Update the schedule for a podcast that failed to load at the given time.
+     *
+     * @param podcast The podcast that failed.
+     * @param now The time of the failure (in milliseconds).
+     */
+    public void onLoadFailed(Podcast podcast, long now) {
+        final Schedule schedule = getSchedule(podcast);
+
+        schedule.lastAttempt = now;
+        schedule.failures++;
+    }
+
+    /**
+     * Forget all about the podcast, use this if it is removed.
+     *
+     * @param podcast The podcast to remove.
+     */
+    public void remove(Podcast podcast) {
+        schedules.remove(podcast);
+    }
+
+    /**
+     * Get the next time the podcast should be checked for updates.
+     *
+     * @param podcast The podcast to check for.
+     * @return The time (in milliseconds) of the next check, zero if the podcast
+     *         is due right away.
+     */
+    public long getNextCheck(Podcast podcast) {
+        final Schedule schedule = schedules.get(podcast);
+        // Not loaded yet, go ahead
+        if (schedule == null)
+            return 0;
+
+        long interval;
+        // Podcast fails to load, back off exponentially
+        if (schedule.failures > 0)
+            interval = minInterval << Math.min(schedule.failures, MAX_BACKOFF_EXPONENT);
+        // We know the publishing cadence, this is the best indicator
+        else if (schedule.cadence > 0)
+            interval = schedule.cadence / CHECKS_PER_EPISODE;
+        // We know nothing, but back off if the feed does not change
+        else
+            interval = minInterval << Math.min(schedule.unchanged, MAX_BACKOFF_EXPONENT);
+
+        interval = Math.max(minInterval, Math.min(interval, MAX_INTERVAL));
+        final long nextCheck = schedule.lastAttempt + interval;
+
+        // There is no need to check before the server's copy expires (but
+        // do not let the server keep us away for too long)
+        if (schedule.failures == 0 && schedule.freshUntil > nextCheck)
+            return Math.min(schedule.freshUntil, schedule.lastAttempt + MAX_INTERVAL);
+        else
+            return nextCheck;
+    }
+
+    /**
+     * Check whether the podcast should be checked for updates.
+     *
+     * @param podcast Podcast to check.
+     * @param now The current time (in milliseconds), you might want to add
+     *            some tolerance.
+     * @return <code>true</code> iff the next check is due.
+     */
+    public boolean isDue(Podcast podcast, long now) {
+        return getNextCheck(podcast) <= now;
+    }
+
+    private Schedule getSchedule(Podcast podcast) {
+        Schedule schedule = schedules.get(podcast);
+
+        if (schedule == null) {
+            schedule = new Schedule();
+            schedules.put(podcast, schedule);
+        }
+
+        return schedule;
+    }
+
+    private long calculateCadence(Podcast podcast, long now) {
+        // Collect all publication dates
+        final List<Long> dates = new ArrayList<Long>();
+        for (Episode episode : podcast.getEpisodes()) {
+            final Date pubDate = episode.getPubDate();
+
+            if (pubDate != null)
+                dates.add(pubDate.getTime());
+        }
+
+        // We need at least three dates to get some meaningful result
+        if (dates.size() < 3)
+            return -1;
+
+        // Only look at the latest episodes, the podcast might have changed
+        // its schedule over time
+        Collections.sort(dates, Collections.reverseOrder());
+        final int count = Math.min(dates.size(), CADENCE_EPISODES + 1);
+        final List<Long> gaps = new ArrayList<Long>(count - 1);
+        for (int index = 1; index < count; index++)
+            gaps.add(dates.get(index - 1) - dates.get(index));
+
+        // The median will ignore special episodes and breaks
+        Collections.sort(gaps);
+        final long median = gaps.get(gaps.size() / 2);
+
+        // If the podcast has not published for much longer than usual, it
+        // might be on a break or dead, use that time instead
+        final long silence = now - dates.get(0);
+        return Math.max(median, silence / 2);
+    }
+}
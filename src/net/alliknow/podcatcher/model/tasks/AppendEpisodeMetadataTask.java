@@ -0,0 +1,121 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.tasks;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import net.alliknow.podcatcher.listeners.OnStoreEpisodeMetadataListener;
+import net.alliknow.podcatcher.model.EpisodeManager;
+import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+import net.alliknow.podcatcher.model.types.UrlKey;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Appends changes to the episode metadata to the journal file. Give the
+ * changed records only, <code>null</code> values mark removed records.
+ * 
+ * @see EpisodeMetadataJournal
+ */
+public class AppendEpisodeMetadataTask extends
+        AsyncTask<Map<UrlKey, EpisodeMetadata>, Void, Void> {
+
+    /** Our context */
+    protected Context context;
+    /** The call-back */
+    protected OnStoreEpisodeMetadataListener listener;
+
+    /** The exception that might have been occurred */
+    protected Exception exception;
+
+    /**
+     * Create a new journal task.
+     * 
+     * @param context Context to use for file writing.
+     * @param listener Call-back to alert on completion or failure.
+     */
+    public AppendEpisodeMetadataTask(Context context, OnStoreEpisodeMetadataListener listener) {
+        this.context = context;
+        this.listener = listener;
+    }
+
+    @Override
+    protected Void doInBackground(Map<UrlKey, EpisodeMetadata>... params) {
+        // Remember where the records we write start, so we can cut them off
+        // if writing fails half-way
+        final File journal = context.getFileStreamPath(EpisodeManager.METADATA_JOURNAL_FILENAME);
+        final long validLength = journal.length();
+        OutputStream out = null;
+
+        try {
+            // 1. Open the journal for appending
+            out = new BufferedOutputStream(context.openFileOutput(
+                    EpisodeManager.METADATA_JOURNAL_FILENAME, Context.MODE_APPEND));
+
+            // 2. Write a record per change
+            for (Entry<UrlKey, EpisodeMetadata> entry : params[0].entrySet())
+                out.write(EpisodeMetadataJournal.createRecord(entry.getKey(), entry.getValue()));
+        } catch (Exception ex) {
+            Log.e(getClass().getSimpleName(), "Cannot append to episode metadata journal", ex);
+            this.exception = ex;
+
+            cancel(true);
+        } finally {
+            // Make sure we close the file stream
+            if (out != null)
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    /* Nothing we can do here */
+                    Log.w(getClass().getSimpleName(),
+                            "Failed to close episode metadata journal!", e);
+                }
+
+            // Do not leave a partial record, since later appends would go
+            // after it and could not be replayed
+            if (exception != null && journal.length() > validLength)
+                try {
+                    EpisodeMetadataJournal.truncate(journal, validLength);
+                } catch (IOException e) {
+                    Log.w(getClass().getSimpleName(),
+                            "Failed to truncate episode metadata journal!", e);
+                }
+        }
+
+        return null;
+    }
+
+    @Override
+    protected void onPostExecute(Void nothing) {
+        if (listener != null)
+            listener.onEpisodeMetadataStored();
+    }
+
+    @Override
+    protected void onCancelled(Void nothing) {
+        if (listener != null)
+            listener.onEpisodeMetadataStoreFailed(exception);
+    }
+}
@@ -0,0 +1,335 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.tasks;
+
+import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+import net.alliknow.podcatcher.model.types.UrlKey;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The episode metadata journal. All changes to the metadata are appended to
+ * this file as records holding the complete state of one episode's metadata
+ * (or its removal). Thus, the cost of persisting changes depends on the number
+ * of records changed only. Once the journal gets too long, the complete
+ * metadata is written as a snapshot and the journal is removed. When loading,
+ * the journal is replayed on top of the snapshot.
+ * <p>
+ * Each record is prefixed by its length, so a record only written half-way
+ * (e.g. because the app was killed) can be detected and is cut off.
+ * </p>
+ * <p>
+ * The snapshot uses the same binary record format, preceded by a header with
+ * a magic number, the format version and the number of records. It replaces
+ * the XML file used by earlier versions, which is migrated on first load.
+ * </p>
+ * 
+ * @see StoreEpisodeMetadataTask
+ * @see AppendEpisodeMetadataTask
+ * @see LoadEpisodeMetadataTask
+ */
+public class EpisodeMetadataJournal {
+
+    /** Record type for metadata put */
+    private static final byte PUT = 1;
+    /** Record type for metadata removal */
+    private static final byte REMOVE = 2;
+    /** The encoding used for strings */
+    private static final String ENCODING = "UTF-8";
+    /** The magic number the snapshot file starts with */
+    private static final int SNAPSHOT_MAGIC = 0x50434d44;
+    /** The current version of the snapshot file format */
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /**
+     * Create a journal record for the given metadata.
+     * 
+     * @param key The episode URL the metadata belongs to.
+     * @param value The metadata, give <code>null</code> (or metadata without
+     *            data) to record the removal of the metadata.
+     * @return The complete record as to be appended to the journal file.
+     * @throws IOException If writing fails.
+     */
+    public static byte[] createRecord(UrlKey key, EpisodeMetadata value) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        if (value == null || !value.hasData()) {
+            out.writeByte(REMOVE);
+            out.writeUTF(key.toString());
+        } else {
+            out.writeByte(PUT);
+            out.writeUTF(key.toString());
+
+            writeString(out, value.episodeName);
+            writeLong(out, value.episodePubDate == null ? null : value.episodePubDate.getTime());
+            writeString(out, value.episodeDescription);
+            writeString(out, value.podcastName);
+            writeString(out, value.podcastUrl);
+            writeLong(out, value.downloadId);
+            writeString(out, value.filePath);
+            writeLong(out, value.resumeAt == null ? null : value.resumeAt.longValue());
+            out.writeBoolean(value.isOld != null && value.isOld);
+            writeLong(out, value.playlistPosition == null ?
+                    null : value.playlistPosition.longValue());
+        }
+
+        out.close();
+        final byte[] body = bytes.toByteArray();
+
+        // Prefix the record with its length
+        final ByteArrayOutputStream record = new ByteArrayOutputStream(body.length + 4);
+        final DataOutputStream recordOut = new DataOutputStream(record);
+        recordOut.writeInt(body.length);
+        recordOut.write(body);
+        recordOut.close();
+
+        return record.toByteArray();
+    }
+
+    /**
+     * Replay the journal file given on top of the metadata map. Records
+     * written only partially are cut off the file.
+     * 
+     * @param journal The journal file to read. If it does not exist, nothing
+     *            happens.
+     * @param metadata The metadata to apply the journal to.
+     * @return The number of records replayed.
+     * @throws IOException If reading fails.
+     */
+    public static int replay(File journal, Map<UrlKey, EpisodeMetadata> metadata)
+            throws IOException {
+        if (!journal.exists())
+            return 0;
+
+        int count = 0;
+        long validLength = 0;
+        final long length = journal.length();
+        final DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+        try {
+            while (true) {
+                final byte[] body;
+                try {
+                    final int recordLength = in.readInt();
+                    // Garbage, stop here
+                    if (recordLength <= 0 || validLength + 4 + recordLength > length)
+                        break;
+
+                    body = new byte[recordLength];
+                    in.readFully(body);
+                } catch (EOFException eof) {
+                    // Regular end of file or partial record
+                    break;
+                }
+
+                applyRecord(body, metadata);
+                validLength += 4 + body.length;
+                count++;
+            }
+        } finally {
+            in.close();
+        }
+
+        // Cut off any partial record, so we can append to the file again
+        if (validLength < length)
+            truncate(journal, validLength);
+
+        return count;
+    }
+
+    /**
+     * Cut the journal back to the given length, e.g. to remove a record only
+     * written half-way.
+     * 
+     * @param journal The journal file.
+     * @param length The length (in bytes) to keep.
+     * @throws IOException If the file cannot be changed.
+     */
+    public static void truncate(File journal, long length) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(journal, "rw");
+        try {
+            file.setLength(length);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Write the complete metadata as a snapshot file. The file is written to a
+     * temporary location first and then renamed, so there is always a
+     * complete snapshot on disk. Metadata without data is skipped.
+     * 
+     * @param snapshot The snapshot file to write.
+     * @param metadata The metadata to write.
+     * @return The number of records written.
+     * @throws IOException If writing fails.
+     */
+    public static int writeSnapshot(File snapshot, Map<UrlKey, EpisodeMetadata> metadata)
+            throws IOException {
+        // Only write records with actual data
+        final Map<UrlKey, EpisodeMetadata> records = new HashMap<UrlKey, EpisodeMetadata>();
+        for (Entry<UrlKey, EpisodeMetadata> entry : metadata.entrySet())
+            if (entry.getValue() != null && entry.getValue().hasData())
+                records.put(entry.getKey(), entry.getValue());
+
+        final File temp = new File(snapshot.getPath() + ".tmp");
+        final DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(records.size());
+
+            for (Entry<UrlKey, EpisodeMetadata> entry : records.entrySet())
+                out.write(createRecord(entry.getKey(), entry.getValue()));
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(snapshot))
+            throw new IOException("Cannot rename " + temp + " to " + snapshot);
+
+        return records.size();
+    }
+
+    /**
+     * Read a snapshot file written by {@link #writeSnapshot(File, Map)} into
+     * the metadata map.
+     * 
+     * @param snapshot The snapshot file to read.
+     * @param metadata The metadata map to put the records in.
+     * @return The number of records read.
+     * @throws IOException If reading fails, the file format is unknown or the
+     *             file is corrupt. The records read up to that point are in
+     *             the map.
+     */
+    public static int readSnapshot(File snapshot, Map<UrlKey, EpisodeMetadata> metadata)
+            throws IOException {
+        final DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)));
+        try {
+            if (in.readInt() != SNAPSHOT_MAGIC)
+                throw new IOException("Not an episode metadata snapshot: " + snapshot);
+            final int version = in.readInt();
+            if (version != SNAPSHOT_VERSION)
+                throw new IOException("Unsupported episode metadata snapshot version: "
+                        + version);
+
+            final int count = in.readInt();
+            // Bytes left after the header, no record can be larger
+            long remaining = snapshot.length() - 12;
+            for (int index = 0; index < count; index++) {
+                final int recordLength = in.readInt();
+                remaining -= 4;
+                if (recordLength <= 0 || recordLength > remaining)
+                    throw new IOException("Invalid record length " + recordLength
+                            + " in episode metadata snapshot: " + snapshot);
+
+                final byte[] body = new byte[recordLength];
+                in.readFully(body);
+                remaining -= recordLength;
+
+                applyRecord(body, metadata);
+            }
+
+            return count;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void applyRecord(byte[] body, Map<UrlKey, EpisodeMetadata> metadata)
+            throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        final byte type = in.readByte();
+        final UrlKey key = UrlKey.parse(in.readUTF());
+
+        if (type == REMOVE)
+            metadata.remove(key);
+        else if (type == PUT) {
+            final EpisodeMetadata value = new EpisodeMetadata();
+
+            value.episodeName = readString(in);
+            final Long pubDate = readLong(in);
+            value.episodePubDate = pubDate == null ? null : new Date(pubDate);
+            value.episodeDescription = readString(in);
+            value.podcastName = readString(in);
+            value.podcastUrl = readString(in);
+            value.downloadId = readLong(in);
+            value.filePath = readString(in);
+            final Long resumeAt = readLong(in);
+            value.resumeAt = resumeAt == null ? null : resumeAt.intValue();
+            value.isOld = in.readBoolean() ? true : null;
+            final Long playlistPosition = readLong(in);
+            value.playlistPosition = playlistPosition == null ? null : playlistPosition.intValue();
+
+            metadata.put(key, value);
+        } else
+            throw new IOException("Unknown journal record type: " + type);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        // Do not use writeUTF() here, it is limited to 64k
+        if (value != null) {
+            final byte[] bytes = value.getBytes(ENCODING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeLong(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        if (!in.readBoolean())
+            return null;
+
+        // The record is read from memory, so available() is what is left
+        final int length = in.readInt();
+        if (length < 0 || length > in.available())
+            throw new IOException("Invalid string length in metadata record: " + length);
+
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, ENCODING);
+    }
+
+    private static Long readLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+}
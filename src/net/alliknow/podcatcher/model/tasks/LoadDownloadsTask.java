@@ -28,7 +28,9 @@ import java.lang.ref.WeakReference;
 import java.util.List;
 
 /**
- * Get the list of downloads from the episode manager.
+ * Get the list of downloads from the episode manager. This needs the episode metadata
+ * to be loaded, so start the task using
+ * {@link EpisodeManager#executeWhenEpisodeMetadataIsLoaded(AsyncTask)}.
  */
 public class LoadDownloadsTask extends AsyncTask<Void, Void, List<Episode>> {
 
@@ -49,8 +51,6 @@ public class LoadDownloadsTask extends AsyncTask<Void, Void, List<Episode>> {
     @Override
     protected List<Episode> doInBackground(Void... nothing) {
         try {
-            // Block if episode metadata not yet available
-            EpisodeManager.getInstance().blockUntilEpisodeMetadataIsLoaded();
             // Get the list of downloads
             return EpisodeManager.getInstance().getDownloads();
         } catch (Exception e) {
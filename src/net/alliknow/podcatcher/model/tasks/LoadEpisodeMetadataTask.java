@@ -29,6 +29,7 @@ import net.alliknow.podcatcher.model.EpisodeManager;
 import net.alliknow.podcatcher.model.tags.METADATA;
 import net.alliknow.podcatcher.model.types.EpisodeMetadata;
 import net.alliknow.podcatcher.model.types.Progress;
+import net.alliknow.podcatcher.model.types.UrlKey;
 import net.alliknow.podcatcher.preferences.DownloadFolderPreference;
 
 import org.xmlpull.v1.XmlPullParser;
@@ -38,7 +39,6 @@ import org.xmlpull.v1.XmlPullParserFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.Map;
@@ -46,9 +46,18 @@ import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Load the episode metadata from the file system.
+ * Load the episode metadata from the file system. This reads the snapshot and
+ * then replays the journal on top of it. If there is no snapshot yet, the XML
+ * file written by earlier versions is read and migrated to the binary format.
+ * A snapshot or journal that cannot be read is never overwritten, but moved
+ * aside using the {@link #CORRUPT_SUFFIX}.
+ * 
+ * @see EpisodeMetadataJournal
  */
-public class LoadEpisodeMetadataTask extends AsyncTask<Void, Progress, Map<URL, EpisodeMetadata>> {
+public class LoadEpisodeMetadataTask extends AsyncTask<Void, Progress, Map<UrlKey, EpisodeMetadata>> {
+
+    /** The suffix for metadata files we could not read and moved aside */
+    public static final String CORRUPT_SUFFIX = ".corrupt";
 
     /** Our context */
     private Context context;
@@ -73,12 +82,97 @@ public class LoadEpisodeMetadataTask extends AsyncTask<Void, Progress, Map<URL,
     }
 
     @Override
-    protected Map<URL, EpisodeMetadata> doInBackground(Void... params) {
+    protected Map<UrlKey, EpisodeMetadata> doInBackground(Void... params) {
         // Record start time
         this.startTime = new Date();
 
-        // Create resulting data structure and file stream
-        Map<URL, EpisodeMetadata> result = new ConcurrentHashMap<URL, EpisodeMetadata>();
+        // Create resulting data structure
+        Map<UrlKey, EpisodeMetadata> result = new ConcurrentHashMap<UrlKey, EpisodeMetadata>();
+        final File snapshot = context.getFileStreamPath(EpisodeManager.METADATA_FILENAME);
+        final File legacy = context.getFileStreamPath(EpisodeManager.LEGACY_METADATA_FILENAME);
+        boolean migrate = false;
+
+        // 1. Read the binary snapshot
+        if (snapshot.exists())
+            try {
+                EpisodeMetadataJournal.readSnapshot(snapshot, result);
+            } catch (Exception e) {
+                Log.e(getClass().getSimpleName(), "Load failed for episode metadata!", e);
+
+                // Do not let the next store overwrite the file with what we
+                // got so far, keep it for recovery
+                keepCorruptFile(snapshot);
+
+                // Fall back to the XML from an earlier version if still there
+                // and put the records we could read on top of it
+                if (legacy.exists()) {
+                    final Map<UrlKey, EpisodeMetadata> partial = result;
+
+                    result = new ConcurrentHashMap<UrlKey, EpisodeMetadata>();
+                    readLegacyMetadata(result);
+                    result.putAll(partial);
+                }
+
+                migrate = true;
+            }
+        // 2. There is none, but an XML file from an earlier version
+        else if (legacy.exists())
+            migrate = readLegacyMetadata(result);
+
+        // 3. Apply all changes made after the snapshot was written
+        final File journal = context.getFileStreamPath(EpisodeManager.METADATA_JOURNAL_FILENAME);
+        try {
+            final int count = EpisodeMetadataJournal.replay(journal, result);
+
+            Log.d(getClass().getSimpleName(), "Replayed " + count + " metadata journal records");
+        } catch (Exception e) {
+            Log.e(getClass().getSimpleName(), "Replay failed for episode metadata journal!", e);
+
+            keepCorruptFile(journal);
+        }
+
+        // 4. Do some house keeping since file availability might have
+        // changed
+        cleanMetadata(result);
+
+        // 5. Move the XML data over to the binary format (or replace the
+        // corrupt snapshot), the journal is part of the snapshot then
+        if (migrate)
+            try {
+                EpisodeMetadataJournal.writeSnapshot(snapshot, result);
+
+                context.deleteFile(EpisodeManager.METADATA_JOURNAL_FILENAME);
+                context.deleteFile(EpisodeManager.LEGACY_METADATA_FILENAME);
+            } catch (Exception e) {
+                // Not fatal, we will try again next time
+                Log.w(getClass().getSimpleName(), "Migration failed for episode metadata!", e);
+            }
+
+        return result;
+    }
+
+    @Override
+    protected void onPostExecute(Map<UrlKey, EpisodeMetadata> result) {
+        Log.i(getClass().getSimpleName(), "Read " + result.size() + " metadata records in "
+                + (new Date().getTime() - startTime.getTime()) + "ms.");
+
+        if (listener != null)
+            listener.onEpisodeMetadataLoaded(result);
+        else
+            Log.w(getClass().getSimpleName(), "Episode metadata loaded, but no listener attached");
+    }
+
+    private void keepCorruptFile(File file) {
+        final File corrupt = new File(file.getPath() + CORRUPT_SUFFIX);
+
+        corrupt.delete();
+        if (file.renameTo(corrupt))
+            Log.w(getClass().getSimpleName(), "Moved corrupt file aside to " + corrupt);
+        else
+            Log.w(getClass().getSimpleName(), "Failed to move corrupt file " + file + " aside");
+    }
+
+    private boolean readLegacyMetadata(Map<UrlKey, EpisodeMetadata> result) {
         InputStream fileStream = null;
 
         try {
@@ -87,11 +181,11 @@ public class LoadEpisodeMetadataTask extends AsyncTask<Void, Progress, Map<URL,
             // Create the parser to use
             XmlPullParser parser = factory.newPullParser();
 
-            // 2. Open default podcast file
-            fileStream = context.openFileInput(EpisodeManager.METADATA_FILENAME);
+            // 2. Open the old metadata file
+            fileStream = context.openFileInput(EpisodeManager.LEGACY_METADATA_FILENAME);
             parser.setInput(fileStream, StoreFileTask.FILE_ENCODING);
 
-            // 3. Parse the OPML file
+            // 3. Parse the XML file
             int eventType = parser.next();
 
             // Read complete document
@@ -102,7 +196,7 @@ public class LoadEpisodeMetadataTask extends AsyncTask<Void, Progress, Map<URL,
 
                     // Metadata found
                     if (tagName.equalsIgnoreCase(METADATA.METADATA)) {
-                        URL key = new URL(parser.getAttributeValue(null, METADATA.EPISODE_URL));
+                        UrlKey key = UrlKey.parse(parser.getAttributeValue(null, METADATA.EPISODE_URL));
                         EpisodeMetadata metadata = readMetadata(parser);
 
                         result.put(key, metadata);
@@ -114,11 +208,11 @@ public class LoadEpisodeMetadataTask extends AsyncTask<Void, Progress, Map<URL,
                 eventType = parser.next();
             }
 
-            // 4. Do some house keeping since file availability might have
-            // changed
-            cleanMetadata(result);
+            return true;
         } catch (Exception e) {
             Log.e(getClass().getSimpleName(), "Load failed for episode metadata!", e);
+
+            return false;
         } finally {
             // Make sure we close the file stream
             if (fileStream != null)
@@ -130,19 +224,6 @@ public class LoadEpisodeMetadataTask extends AsyncTask<Void, Progress, Map<URL,
                             "Failed to close episode metadata file stream!", e);
                 }
         }
-
-        return result;
-    }
-
-    @Override
-    protected void onPostExecute(Map<URL, EpisodeMetadata> result) {
-        Log.i(getClass().getSimpleName(), "Read " + result.size() + " metadata records in "
-                + (new Date().getTime() - startTime.getTime()) + "ms.");
-
-        if (listener != null)
-            listener.onEpisodeMetadataLoaded(result);
-        else
-            Log.w(getClass().getSimpleName(), "Episode metadata loaded, but no listener attached");
     }
 
     private EpisodeMetadata readMetadata(XmlPullParser parser)
@@ -192,7 +273,7 @@ public class LoadEpisodeMetadataTask extends AsyncTask<Void, Progress, Map<URL,
         return result;
     }
 
-    private void cleanMetadata(Map<URL, EpisodeMetadata> result) {
+    private void cleanMetadata(Map<UrlKey, EpisodeMetadata> result) {
         // Find download folder
         File podcastDir = new File(PreferenceManager.getDefaultSharedPreferences(context)
                 .getString(SettingsActivity.DOWNLOAD_FOLDER_KEY,
@@ -201,16 +282,16 @@ public class LoadEpisodeMetadataTask extends AsyncTask<Void, Progress, Map<URL,
         // Handle the case where the download finished while the application was
         // not running. In this case, there would be a downloadId but no
         // filePath while the episode media file is actually there.
-        Iterator<Entry<URL, EpisodeMetadata>> iterator = result.entrySet().iterator();
+        Iterator<Entry<UrlKey, EpisodeMetadata>> iterator = result.entrySet().iterator();
 
         while (iterator.hasNext()) {
-            Entry<URL, EpisodeMetadata> entry = iterator.next();
+            Entry<UrlKey, EpisodeMetadata> entry = iterator.next();
             // Skip all entries without a download id
             if (entry.getValue().downloadId == null)
                 continue;
 
             final File downloadPath = new File(podcastDir,
-                    EpisodeDownloadManager.sanitizeAsFilePath(entry.getKey().getPath(),
+                    EpisodeDownloadManager.sanitizeAsFilePath(entry.getKey().getUrl().getPath(),
                             entry.getValue().episodeName, entry.getValue().podcastName));
 
             if (entry.getValue().filePath == null && downloadPath.exists())
@@ -223,7 +304,7 @@ public class LoadEpisodeMetadataTask extends AsyncTask<Void, Progress, Map<URL,
         iterator = result.entrySet().iterator();
 
         while (iterator.hasNext()) {
-            Entry<URL, EpisodeMetadata> entry = iterator.next();
+            Entry<UrlKey, EpisodeMetadata> entry = iterator.next();
             // Skip all entries without a download id
             if (entry.getValue().downloadId == null)
                 continue;
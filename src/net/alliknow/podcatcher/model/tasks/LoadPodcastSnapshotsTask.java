@@ -0,0 +1,127 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.tasks;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import net.alliknow.podcatcher.listeners.OnLoadPodcastSnapshotListener;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Restores podcasts from their snapshots on disk asynchronously. The listener
+ * is alerted for each podcast restored. Podcasts that have already been loaded
+ * (or started to load) are left alone.
+ * 
+ * @see StorePodcastSnapshotTask
+ */
+public class LoadPodcastSnapshotsTask extends AsyncTask<Podcast, Podcast, Void> {
+
+    /** Our context */
+    private Context context;
+    /** The listener callback */
+    private OnLoadPodcastSnapshotListener listener;
+
+    /** Member to measure performance */
+    private Date startTime;
+    /** The number of podcasts restored */
+    private int restoredCount;
+
+    /**
+     * Create new task.
+     * 
+     * @param context Context to read files from (not <code>null</code>).
+     * @param listener Callback to be alerted on each podcast restored.
+     */
+    public LoadPodcastSnapshotsTask(Context context, OnLoadPodcastSnapshotListener listener) {
+        this.context = context;
+        this.listener = listener;
+    }
+
+    @Override
+    protected Void doInBackground(Podcast... podcasts) {
+        this.startTime = new Date();
+
+        for (Podcast podcast : podcasts) {
+            // No need to go on, maybe the app is closing
+            if (isCancelled())
+                return null;
+            // Podcast already loaded, the snapshot cannot help here
+            else if (podcast.getLastLoaded() != null)
+                continue;
+
+            final File snapshot = StorePodcastSnapshotTask.getSnapshotFile(context, podcast);
+            // Take over the snapshot stored by earlier versions (if it
+            // belongs to another podcast, reading it below will tell)
+            if (!snapshot.exists()) {
+                final File legacy = StorePodcastSnapshotTask.getLegacySnapshotFile(context,
+                        podcast);
+
+                if (!legacy.exists() || !legacy.renameTo(snapshot))
+                    continue;
+            }
+
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)));
+
+                if (podcast.readSnapshot(in)) {
+                    restoredCount++;
+                    publishProgress(podcast);
+                }
+            } catch (IOException ioe) {
+                // Bad snapshot, it will be replaced on the next load
+                Log.w(getClass().getSimpleName(), "Cannot restore snapshot for podcast \""
+                        + podcast + "\"", ioe);
+
+                snapshot.delete();
+            } finally {
+                if (in != null)
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // Nothing more we could do here
+                    }
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    protected void onProgressUpdate(Podcast... podcasts) {
+        if (listener != null)
+            listener.onPodcastSnapshotLoaded(podcasts[0]);
+        else
+            Log.w(getClass().getSimpleName(), "Podcast snapshot loaded, but no listener attached");
+    }
+
+    @Override
+    protected void onPostExecute(Void nothing) {
+        Log.i(getClass().getSimpleName(), "Restored " + restoredCount + " podcast snapshots in "
+                + (new Date().getTime() - startTime.getTime()) + "ms");
+    }
+}
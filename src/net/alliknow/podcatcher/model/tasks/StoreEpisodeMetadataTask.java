@@ -17,41 +17,27 @@
 
 package net.alliknow.podcatcher.model.tasks;
 
-import static net.alliknow.podcatcher.model.tags.METADATA.DOWNLOAD_ID;
-import static net.alliknow.podcatcher.model.tags.METADATA.EPISODE_DATE;
-import static net.alliknow.podcatcher.model.tags.METADATA.EPISODE_DESCRIPTION;
-import static net.alliknow.podcatcher.model.tags.METADATA.EPISODE_NAME;
-import static net.alliknow.podcatcher.model.tags.METADATA.EPISODE_RESUME_AT;
-import static net.alliknow.podcatcher.model.tags.METADATA.EPISODE_STATE;
-import static net.alliknow.podcatcher.model.tags.METADATA.EPISODE_URL;
-import static net.alliknow.podcatcher.model.tags.METADATA.LOCAL_FILE_PATH;
-import static net.alliknow.podcatcher.model.tags.METADATA.METADATA;
-import static net.alliknow.podcatcher.model.tags.METADATA.PLAYLIST_POSITION;
-import static net.alliknow.podcatcher.model.tags.METADATA.PODCAST_NAME;
-import static net.alliknow.podcatcher.model.tags.METADATA.PODCAST_URL;
-
 import android.content.Context;
-import android.text.TextUtils;
+import android.os.AsyncTask;
 import android.util.Log;
 
 import net.alliknow.podcatcher.listeners.OnStoreEpisodeMetadataListener;
 import net.alliknow.podcatcher.model.EpisodeManager;
 import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+import net.alliknow.podcatcher.model.types.Progress;
+import net.alliknow.podcatcher.model.types.UrlKey;
 
-import java.io.BufferedWriter;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.net.URL;
-import java.util.Date;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
 
 /**
- * Stores the episode metadata information to the file system.
+ * Stores the episode metadata information to the file system. This writes the
+ * complete metadata as a binary snapshot and removes the metadata journal
+ * afterwards, since all its changes are part of the snapshot now.
+ * 
+ * @see EpisodeMetadataJournal
  */
-public class StoreEpisodeMetadataTask extends StoreFileTask<Map<URL, EpisodeMetadata>> {
+public class StoreEpisodeMetadataTask extends
+        AsyncTask<Map<UrlKey, EpisodeMetadata>, Progress, Void> {
 
     /** Our context */
     protected Context context;
@@ -73,37 +59,20 @@ public class StoreEpisodeMetadataTask extends StoreFileTask<Map<URL, EpisodeMeta
     }
 
     @Override
-    protected Void doInBackground(Map<URL, EpisodeMetadata>... params) {
+    protected Void doInBackground(Map<UrlKey, EpisodeMetadata>... params) {
         try {
-            // 1. Do house keeping and remove all metadata instances without
+            // 1. Write the snapshot, this skips all metadata instances without
             // data
-            cleanMetadata(params[0]);
-
-            // 2. Open the file and get a writer
-            OutputStream fileStream =
-                    context.openFileOutput(EpisodeManager.METADATA_FILENAME, Context.MODE_PRIVATE);
-            writer = new BufferedWriter(new OutputStreamWriter(fileStream, FILE_ENCODING));
+            EpisodeMetadataJournal.writeSnapshot(
+                    context.getFileStreamPath(EpisodeManager.METADATA_FILENAME), params[0]);
 
-            // 3. Write new file content
-            writeHeader();
-            for (Entry<URL, EpisodeMetadata> entry : params[0].entrySet())
-                writeRecord(entry.getKey(), entry.getValue());
-            writeFooter();
+            // 2. The journal is covered by the snapshot now
+            context.deleteFile(EpisodeManager.METADATA_JOURNAL_FILENAME);
         } catch (Exception ex) {
             Log.e(getClass().getSimpleName(), "Cannot store episode metadata file", ex);
             this.exception = ex;
 
             cancel(true);
-        } finally {
-            // Make sure we close the file stream
-            if (writer != null)
-                try {
-                    writer.close();
-                } catch (IOException e) {
-                    /* Nothing we can do here */
-                    Log.w(getClass().getSimpleName(),
-                            "Failed to close episode metadata file writer!", e);
-                }
         }
 
         return null;
@@ -120,61 +89,4 @@ public class StoreEpisodeMetadataTask extends StoreFileTask<Map<URL, EpisodeMeta
         if (listener != null)
             listener.onEpisodeMetadataStoreFailed(exception);
     }
-
-    private void writeRecord(URL key, EpisodeMetadata value) throws IOException {
-        writeLine(1, "<" + METADATA + " " + EPISODE_URL
-                + "=\"" + TextUtils.htmlEncode(key.toString()) + "\">");
-
-        writeData(value.episodeName, EPISODE_NAME);
-        if (value.episodePubDate != null)
-            writeData(value.episodePubDate.getTime(), EPISODE_DATE);
-        writeData(value.episodeDescription, EPISODE_DESCRIPTION);
-        writeData(value.podcastName, PODCAST_NAME);
-        writeData(value.podcastUrl, PODCAST_URL);
-        writeData(value.downloadId, DOWNLOAD_ID);
-        writeData(value.filePath, LOCAL_FILE_PATH);
-        writeData(value.resumeAt, EPISODE_RESUME_AT);
-        if (value.isOld != null && value.isOld)
-            writeData("true", EPISODE_STATE);
-        writeData(value.playlistPosition, PLAYLIST_POSITION);
-
-        writeLine(1, "</" + METADATA + ">");
-    }
-
-    private void writeData(String data, String tag) throws IOException {
-        // For all fields: only write data that is actually there!
-        if (data != null)
-            writeLine(2, "<" + tag + ">" + TextUtils.htmlEncode(data) + "</" + tag + ">");
-    }
-
-    private void writeData(Long data, String tag) throws IOException {
-        // For all fields: only write data that is actually there!
-        if (data != null)
-            writeLine(2, "<" + tag + ">" + data + "</" + tag + ">");
-    }
-
-    private void writeData(Integer data, String tag) throws IOException {
-        if (data != null)
-            writeData(Long.valueOf(data), tag);
-    }
-
-    private void writeHeader() throws IOException {
-        writeLine(0, "<?xml version=\"1.0\" encoding=\"" + FILE_ENCODING + "\"?>");
-        writeLine(0, "<xml dateModified=\"" + new Date().getTime() + "\">");
-    }
-
-    private void writeFooter() throws IOException {
-        writeLine(0, "</xml>");
-    }
-
-    private void cleanMetadata(Map<URL, EpisodeMetadata> metadata) {
-        Iterator<Entry<URL, EpisodeMetadata>> iterator = metadata.entrySet().iterator();
-
-        while (iterator.hasNext()) {
-            Entry<URL, EpisodeMetadata> entry = iterator.next();
-
-            if (!entry.getValue().hasData())
-                iterator.remove();
-        }
-    }
 }
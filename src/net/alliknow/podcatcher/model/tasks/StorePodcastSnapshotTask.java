@@ -0,0 +1,122 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.tasks;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import net.alliknow.podcatcher.model.tasks.remote.PodcastLogoDiskCache;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes snapshots of podcasts to the file system asynchronously. The snapshot
+ * holds the podcast's parsed content, so it can be shown right away on the
+ * next start of the app while we load the feed again. Use
+ * {@link LoadPodcastSnapshotsTask} to restore. Run this on the same
+ * single thread as all other snapshot file changes, so they stay in order.
+ */
+public class StorePodcastSnapshotTask extends AsyncTask<Podcast, Void, Void> {
+
+    /** The name of the directory snapshots are stored in (in the cache dir) */
+    private static final String SNAPSHOT_DIR = "podcasts";
+    /** The suffix used for snapshot files */
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    /** Our context */
+    private Context context;
+
+    /**
+     * Create new task.
+     * 
+     * @param context Context to get file handle from (not <code>null</code>).
+     */
+    public StorePodcastSnapshotTask(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Get the file the snapshot for the given podcast is stored in. The file
+     * name is the SHA-1 of the podcast URL (as for the logos on disk), the
+     * snapshot stores the URL itself as well to detect collisions.
+     * 
+     * @param context Context to get the cache directory from.
+     * @param podcast Podcast to get the file for.
+     * @return The snapshot file (which might not exist).
+     */
+    public static File getSnapshotFile(Context context, Podcast podcast) {
+        return new File(new File(context.getCacheDir(), SNAPSHOT_DIR),
+                PodcastLogoDiskCache.sha1(podcast.getUrl().toString()) + SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * Get the file the snapshot for the given podcast was stored in by
+     * earlier versions, which named it by the URL's 32 bit hash code.
+     * 
+     * @param context Context to get the cache directory from.
+     * @param podcast Podcast to get the file for.
+     * @return The old snapshot file (which might not exist).
+     */
+    static File getLegacySnapshotFile(Context context, Podcast podcast) {
+        return new File(new File(context.getCacheDir(), SNAPSHOT_DIR),
+                String.format("%08x", podcast.getUrl().toString().hashCode()) + SNAPSHOT_SUFFIX);
+    }
+
+    @Override
+    protected Void doInBackground(Podcast... podcasts) {
+        for (Podcast podcast : podcasts) {
+            final File snapshot = getSnapshotFile(context, podcast);
+            // We write to a temp file first, so there is never a half-written
+            // snapshot around
+            final File temp = new File(snapshot.getPath() + ".tmp");
+
+            DataOutputStream out = null;
+            try {
+                snapshot.getParentFile().mkdirs();
+
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+                podcast.writeSnapshot(out);
+                out.close();
+                out = null;
+
+                if (!temp.renameTo(snapshot))
+                    throw new IOException("Cannot rename snapshot file " + temp);
+            } catch (IOException ioe) {
+                Log.w(getClass().getSimpleName(), "Cannot store snapshot for podcast \""
+                        + podcast + "\"", ioe);
+
+                temp.delete();
+            } finally {
+                if (out != null)
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        // Nothing more we could do here
+                    }
+            }
+        }
+
+        return null;
+    }
+}
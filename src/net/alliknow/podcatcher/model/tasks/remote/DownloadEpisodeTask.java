@@ -23,9 +23,6 @@ import static android.app.DownloadManager.COLUMN_STATUS;
 import static android.app.DownloadManager.COLUMN_TOTAL_SIZE_BYTES;
 import static android.app.DownloadManager.STATUS_FAILED;
 import static android.app.DownloadManager.STATUS_SUCCESSFUL;
-import static net.alliknow.podcatcher.Podcatcher.AUTHORIZATION_KEY;
-import static net.alliknow.podcatcher.Podcatcher.USER_AGENT_KEY;
-import static net.alliknow.podcatcher.Podcatcher.USER_AGENT_VALUE;
 
 import android.app.DownloadManager;
 import android.app.DownloadManager.Query;
@@ -48,6 +45,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * Async task that triggers the download of an episode. The task will be alive
@@ -171,15 +169,15 @@ public class DownloadEpisodeTask extends AsyncTask<Episode, Long, Void> {
                     .setDestinationUri(Uri.fromFile(localFile))
                     .setTitle(episode.getName())
                     .setDescription(episode.getPodcast().getName())
-                    // We overwrite the AndroidDownloadManager user agent
-                    // string here because there are servers out there (e.g.
-                    // ORF.at) that apparently block downloads based on this
-                    // information
-                    .addRequestHeader(USER_AGENT_KEY, USER_AGENT_VALUE)
-                    // Set auth if available
-                    .addRequestHeader(AUTHORIZATION_KEY, episode.getPodcast().getAuthorization())
                     // Make sure our download does not end up in the http cache
                     .addRequestHeader("Cache-Control", "no-store");
+            // We overwrite the AndroidDownloadManager user agent string here
+            // because there are servers out there (e.g. ORF.at) that
+            // apparently block downloads based on this information, also set
+            // auth if available
+            for (Map.Entry<String, String> header : HttpConnectionManager.getRequestHeaders(
+                    episode.getPodcast().getAuthorization()).entrySet())
+                download.addRequestHeader(header.getKey(), header.getValue());
 
             // Start the download
             long downloadId;
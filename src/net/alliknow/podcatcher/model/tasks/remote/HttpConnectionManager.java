@@ -0,0 +1,403 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.tasks.remote;
+
+import static net.alliknow.podcatcher.Podcatcher.AUTHORIZATION_KEY;
+import static net.alliknow.podcatcher.Podcatcher.USER_AGENT_KEY;
+import static net.alliknow.podcatcher.Podcatcher.USER_AGENT_VALUE;
+
+import android.util.Log;
+
+import net.alliknow.podcatcher.model.types.UrlKey;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The central place to create the HTTP connections for all remote file loads.
+ * All connections share the same settings (timeouts, user agent, gzip
+ * encoding) and the buffer size to read with. Connections are kept alive and
+ * re-used by the platform's connection pool, as long as the response is read
+ * completely and the connection is closed without calling
+ * {@link HttpURLConnection#disconnect()}. The number of connections open
+ * to any one host at the same time is limited, so refreshing many feeds from
+ * the same CDN re-uses a few connections instead of opening (and handshaking)
+ * many. Redirects found are remembered, so later requests can skip them (see
+ * {@link #putRedirect(URL, URL, long)}). In addition, this keeps some request
+ * timing statistics.
+ * <p>
+ * <b>Threading:</b> This is thread-safe. {@link #acquire(URL)} might block
+ * (for a limited time), so call it from a background thread only.
+ * </p>
+ */
+public class HttpConnectionManager {
+
+    /** The connection timeout */
+    public static final int CONNECT_TIMEOUT = 8000;
+    /** The read timeout */
+    public static final int READ_TIMEOUT = 60000;
+    /** The default size of the buffer used when reading from remote */
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    /** The maximum time to wait for a connection to a host to become free */
+    public static final int ACQUIRE_TIMEOUT = 15000;
+    /** The default maximum number of connections to any one host */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+
+    /** The http request header field key for the accepted encodings */
+    private static final String ACCEPT_ENCODING_KEY = "Accept-Encoding";
+    /** The encoding we accept (and decompress ourselves) */
+    static final String GZIP_ENCODING = "gzip";
+
+    /** The single instance */
+    private static HttpConnectionManager instance;
+
+    /** The size of the buffer used when reading from remote */
+    private volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+    /** The maximum number of connections to any one host */
+    private int maxConnectionsPerHost;
+    /** The number of connections currently open per host */
+    private final Map<String, Integer> connectionsPerHost = new HashMap<String, Integer>();
+
+    /** A redirect we know about and do not need to ask the server for */
+    private static class Redirect {
+
+        /** The URL redirected to */
+        private final URL location;
+        /** The time (in milliseconds) the redirect is valid until */
+        private final long validUntil;
+
+        private Redirect(URL location, long validUntil) {
+            this.location = location;
+            this.validUntil = validUntil;
+        }
+    }
+
+    /** The redirects we know about by the URL redirected from */
+    private final Map<UrlKey, Redirect> redirects = new HashMap<UrlKey, Redirect>();
+
+    /** The number of requests finished */
+    private int requestCount;
+    /** The number of requests that failed or were aborted */
+    private int failedCount;
+    /** The overall time requests waited for the response headers */
+    private long totalResponseTime;
+    /** The overall time requests took until finished */
+    private long totalRequestTime;
+    /** The overall number of bytes transferred */
+    private long totalBytes;
+
+    /**
+     * @return The single instance.
+     */
+    public static synchronized HttpConnectionManager getInstance() {
+        if (instance == null)
+            instance = new HttpConnectionManager();
+
+        return instance;
+    }
+
+    private HttpConnectionManager() {
+        // Make sure the platform keeps our connections alive
+        System.setProperty("http.keepAlive", "true");
+        setMaxConnectionsPerHost(DEFAULT_MAX_CONNECTIONS_PER_HOST);
+    }
+
+    /**
+     * Get the request headers all our requests should send. Use this for
+     * connections not opened by this class, e.g. downloads or streams handed
+     * to the platform.
+     *
+     * @param authorization The authorization to send, might be
+     *            <code>null</code>.
+     * @return The header fields and their values.
+     */
+    public static Map<String, String> getRequestHeaders(String authorization) {
+        final Map<String, String> headers = new HashMap<String, String>(2);
+
+        // We set a custom user agent here because some servers (e.g. ZDF.de)
+        // redirect connections from mobile devices to servers where the
+        // content we are looking for might not be available.
+        headers.put(USER_AGENT_KEY, USER_AGENT_VALUE);
+        // Allow for password protected feeds
+        if (authorization != null)
+            headers.put(AUTHORIZATION_KEY, authorization);
+
+        return headers;
+    }
+
+    /**
+     * Check whether a redirect may be followed. We only follow to HTTP(S)
+     * locations and never from a secure to an insecure one.
+     *
+     * @param from The URL redirected from.
+     * @param location The URL redirected to.
+     * @return Whether the redirect is fine to follow.
+     */
+    public static boolean canFollowRedirect(URL from, URL location) {
+        final String protocol = location.getProtocol();
+
+        return (protocol.equals("http") || protocol.equals("https"))
+                && !(from.getProtocol().equals("https") && protocol.equals("http"));
+    }
+
+    /**
+     * Check whether two URLs share the same origin, i.e. protocol, host and
+     * port. Authorization given for one origin must not be sent to another.
+     *
+     * @param first The first URL.
+     * @param second The second URL.
+     * @return Whether both URLs have the same origin.
+     */
+    public static boolean isSameOrigin(URL first, URL second) {
+        final int firstPort = first.getPort() < 0 ? first.getDefaultPort() : first.getPort();
+        final int secondPort = second.getPort() < 0 ? second.getDefaultPort() : second.getPort();
+
+        return first.getProtocol().equalsIgnoreCase(second.getProtocol())
+                && first.getHost().equalsIgnoreCase(second.getHost())
+                && firstPort == secondPort;
+    }
+
+    /**
+     * @param size The size of the buffer (in bytes) to read remote files with.
+     */
+    public void setBufferSize(int size) {
+        this.bufferSize = Math.max(1024, size);
+    }
+
+    /**
+     * @return The size of the buffer (in bytes) to read remote files with.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Change the maximum number of connections to any one host. This will not
+     * close any connections already open.
+     *
+     * @param max The number of connections.
+     */
+    public synchronized void setMaxConnectionsPerHost(int max) {
+        this.maxConnectionsPerHost = Math.max(1, max);
+        // Keep as many connections alive as we might use
+        System.setProperty("http.maxConnections", String.valueOf(maxConnectionsPerHost));
+
+        notifyAll();
+    }
+
+    /**
+     * Create a new connection with all settings and request headers needed.
+     * The connection is not connected yet, so you can add more request
+     * headers. Call {@link #acquire(URL)} before connecting.
+     *
+     * @param remote The URL to connect to.
+     * @param authorization The authorization to send, might be
+     *            <code>null</code>.
+     * @return The connection.
+     * @throws IOException If the connection cannot be created.
+     */
+    public HttpURLConnection openConnection(URL remote, String authorization)
+            throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) remote.openConnection();
+
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        for (Map.Entry<String, String> header : getRequestHeaders(authorization).entrySet())
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        // Ask for gzip explicitly, this means the platform will not unzip for
+        // us, but we know the compressed length and can report progress
+        connection.setRequestProperty(ACCEPT_ENCODING_KEY, GZIP_ENCODING);
+
+        return connection;
+    }
+
+    /**
+     * Wait for a connection to the host of the URL given to become available.
+     * Make sure to call {@link #finish(URL, long, long, long, boolean)} for
+     * each connection acquired. Waits at most {@link #ACQUIRE_TIMEOUT}.
+     *
+     * @param remote The URL to connect to.
+     * @throws InterruptedIOException If interrupted while waiting (e.g.
+     *             because the task was cancelled).
+     * @see #acquire(URL, long)
+     */
+    public void acquire(URL remote) throws InterruptedIOException {
+        acquire(remote, ACQUIRE_TIMEOUT);
+    }
+
+    /**
+     * Wait for a connection to the host of the URL given to become available.
+     * Make sure to call {@link #finish(URL, long, long, long, boolean)} for
+     * each connection acquired. If no connection becomes available in time,
+     * the limit is ignored for this connection. This way, a connection
+     * never given back cannot block all requests to its host.
+     *
+     * @param remote The URL to connect to.
+     * @param timeout The maximum time to wait (in milliseconds).
+     * @throws InterruptedIOException If interrupted while waiting (e.g.
+     *             because the task was cancelled).
+     */
+    public synchronized void acquire(URL remote, long timeout) throws InterruptedIOException {
+        final String host = remote.getHost();
+        final long waitUntil = System.currentTimeMillis() + timeout;
+
+        try {
+            while (getConnectionCount(host) >= maxConnectionsPerHost) {
+                final long wait = waitUntil - System.currentTimeMillis();
+                if (wait <= 0) {
+                    Log.w(getClass().getSimpleName(), "Waited " + timeout
+                            + "ms for a connection to " + host + ", going over the limit");
+                    break;
+                }
+
+                wait(wait);
+            }
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException("Interrupted while waiting for connection to "
+                    + host);
+        }
+
+        connectionsPerHost.put(host, getConnectionCount(host) + 1);
+    }
+
+    /**
+     * Tell the manager that a connection acquired is no longer used and
+     * update the statistics.
+     *
+     * @param remote The URL connected to.
+     * @param responseTime The time (in milliseconds) it took for the response
+     *            headers to arrive, -1 if they did not.
+     * @param requestTime The time (in milliseconds) the request took overall.
+     * @param bytes The number of bytes transferred.
+     * @param success Whether the request completed successfully.
+     */
+    public synchronized void finish(URL remote, long responseTime, long requestTime,
+            long bytes, boolean success) {
+        final String host = remote.getHost();
+        final int count = getConnectionCount(host);
+
+        if (count > 1)
+            connectionsPerHost.put(host, count - 1);
+        else
+            connectionsPerHost.remove(host);
+        notifyAll();
+
+        requestCount++;
+        if (!success)
+            failedCount++;
+        totalResponseTime += Math.max(0, responseTime);
+        totalRequestTime += requestTime;
+        totalBytes += bytes;
+    }
+
+    /**
+     * @return The number of requests finished so far.
+     */
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return The number of requests that failed or were aborted so far.
+     */
+    public synchronized int getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @return The average time (in milliseconds) requests waited for the
+     *         response headers (this includes connecting).
+     */
+    public synchronized long getAverageResponseTime() {
+        return requestCount == 0 ? 0 : totalResponseTime / requestCount;
+    }
+
+    /**
+     * @return The average time (in milliseconds) requests took overall.
+     */
+    public synchronized long getAverageRequestTime() {
+        return requestCount == 0 ? 0 : totalRequestTime / requestCount;
+    }
+
+    /**
+     * @return The overall number of bytes transferred so far (as sent over
+     *         the wire, i.e. compressed).
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Remember a redirect, so the next request for the same URL can go to the
+     * new location right away. Permanent redirects are kept for as long as
+     * the app runs, temporary ones only as long as the server allows.
+     *
+     * @param from The URL redirected from.
+     * @param location The URL redirected to.
+     * @param validUntil The time (in milliseconds) the redirect is valid until,
+     *            use {@link Long#MAX_VALUE} for permanent redirects. Redirects
+     *            not valid in the future are not kept.
+     */
+    public synchronized void putRedirect(URL from, URL location, long validUntil) {
+        if (validUntil > System.currentTimeMillis())
+            redirects.put(new UrlKey(from), new Redirect(location, validUntil));
+    }
+
+    /**
+     * Get the location a URL is known to redirect to.
+     *
+     * @param from The URL to check.
+     * @param permanentOnly Only return permanent redirects.
+     * @return The URL redirected to, <code>null</code> if there is no (valid)
+     *         redirect known.
+     */
+    public synchronized URL getRedirect(URL from, boolean permanentOnly) {
+        final UrlKey key = new UrlKey(from);
+        final Redirect redirect = redirects.get(key);
+
+        if (redirect == null)
+            return null;
+        else if (redirect.validUntil <= System.currentTimeMillis()) {
+            redirects.remove(key);
+
+            return null;
+        } else if (permanentOnly && redirect.validUntil != Long.MAX_VALUE)
+            return null;
+        else
+            return redirect.location;
+    }
+
+    /**
+     * Forget about a redirect, e.g. because the location it points to fails.
+     *
+     * @param from The URL redirected from.
+     */
+    public synchronized void removeRedirect(URL from) {
+        redirects.remove(new UrlKey(from));
+    }
+
+    private int getConnectionCount(String host) {
+        final Integer count = connectionsPerHost.get(host);
+
+        return count == null ? 0 : count;
+    }
+}
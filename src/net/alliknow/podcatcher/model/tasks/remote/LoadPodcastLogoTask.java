@@ -23,13 +23,17 @@ import android.graphics.BitmapFactory;
 import android.util.Log;
 
 import net.alliknow.podcatcher.listeners.OnLoadPodcastLogoListener;
+import net.alliknow.podcatcher.model.tasks.remote.PodcastLogoDiskCache.Variant;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
+import net.alliknow.podcatcher.model.types.UrlKey;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Date;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * An async task to load a podcast logo. Implement
@@ -39,20 +43,14 @@ import java.util.Date;
  * caching logic. Podcast logos are only downloaded or updated if absolutely
  * necessary. You can manipulate its behaviour by calling the
  * {@link #setLocalOnly(boolean)} and {@link #setMaxAge(int)} methods. Once
- * downloaded and scaled, all podcast logos are stored in the app's private
- * folders under the path <tt>logoCache/<i>podcast URL hash</i>.jpeg</tt>. The
- * task will prefer these downloaded copies whenever possible.
+ * downloaded, the logo is scaled to all the sizes the app shows it in and
+ * stored to the {@link PodcastLogoDiskCache}. Use {@link #setVariant(Variant)}
+ * to pick the size the task returns. The task will prefer the cached copies
+ * whenever possible.
  * </p>
  */
 public class LoadPodcastLogoTask extends LoadRemoteFileTask<Podcast, Bitmap> {
 
-    /** The maximum size we sample podcast logos down to */
-    private static final int LOGO_DIMENSION = 250;
-    /** The name of the podcast logo cache directory */
-    private static final String CACHE_DIR = "logoCache";
-    /** The file name ending for cached logos */
-    private static final String CACHED_LOGO_ENDING = ".jpeg";
-
     /** Call back */
     private final OnLoadPodcastLogoListener listener;
     /** The task's context */
@@ -60,7 +58,11 @@ public class LoadPodcastLogoTask extends LoadRemoteFileTask<Podcast, Bitmap> {
 
     /** Podcast currently loading logo for */
     private Podcast podcast;
+    /** The disk cache we use */
+    private PodcastLogoDiskCache cache;
 
+    /** The logo variant to return */
+    private Variant variant = Variant.LARGE;
     /** Flag to indicate that we should return local copies only. */
     private boolean localOnly = false;
     /** Flag to indicate the max age that would trigger re-load. */
@@ -77,6 +79,24 @@ public class LoadPodcastLogoTask extends LoadRemoteFileTask<Podcast, Bitmap> {
         this.listener = listener;
     }
 
+    /**
+     * Set the logo variant (size) the task should return. Default is
+     * {@link Variant#LARGE}. The other variants are created (and cached) on
+     * the fly, whenever the logo is downloaded.
+     * 
+     * @param variant The variant to load.
+     */
+    public void setVariant(Variant variant) {
+        this.variant = variant;
+    }
+
+    /**
+     * @return The logo variant the task loads.
+     */
+    public Variant getVariant() {
+        return variant;
+    }
+
     /**
      * Set whether the task should try to get the podcast logo from the
      * internet. Default is <code>false</code>. This overwrites
@@ -102,6 +122,9 @@ public class LoadPodcastLogoTask extends LoadRemoteFileTask<Podcast, Bitmap> {
     @Override
     protected Bitmap doInBackground(Podcast... podcasts) {
         this.podcast = podcasts[0];
+        this.cache = PodcastLogoDiskCache.getInstance(context);
+        // The disk cache goes by the podcast's current location
+        final UrlKey key = podcast.getUrl() == null ? null : new UrlKey(podcast.getUrl());
         Bitmap result = null;
 
         // Let's go. There are a lot of options here, since we really want to
@@ -110,41 +133,43 @@ public class LoadPodcastLogoTask extends LoadRemoteFileTask<Podcast, Bitmap> {
             publishProgress(Progress.CONNECT);
             // 1. So this the simple case where we have the local version and
             // it is fresh enough. Return it.
-            if (isCachedLocally(podcast) && getCachedLogoAge(podcast) <= maxAge) {
+            if (isCachedLocally(key) && getCachedLogoAge(key) <= maxAge) {
                 publishProgress(Progress.PARSE);
-                result = restoreBitmapFromFileCache(podcast);
+                result = restoreBitmapFromFileCache(key);
             }
             // 2. If that is not the case, we need to go over the air, unless
             // the localOnly flag is set or we do not know the remote location.
             else if (!localOnly && podcast.getLogoUrl() != null) {
-                // 2a. Get logo data remotely
+                // 2a. Get logo data remotely, straight to disk
                 this.authorization = podcast.getAuthorization();
-                final byte[] logo = loadFile(podcast.getLogoUrl());
+                final File logo = downloadLogo();
 
-                // 2b. Decode and sample the result
+                // 2b. Decode, sample and save all variants to file
                 if (!isCancelled()) {
                     publishProgress(Progress.PARSE);
-                    result = decodeAndSampleBitmap(logo);
-                }
-
-                // 2c. Save to file
-                if (!isCancelled())
-                    storeBitmapToFileCache(podcast, result);
+                    result = storeBitmapToFileCache(key, logo);
+                } else
+                    logo.delete();
             }
             // 3. No fresh cached logo available and we cannot get it over the
             // air. Throw an exception, the catch clause will try to get any
             // stale cached version.
             else
                 throw new IOException();
+
+            // The logo might be corrupt
+            if (result == null && !isCancelled())
+                throw new IOException("Cannot decode logo");
         } catch (Throwable t) {
             // Return the cached version even though it is stale (having an old
             // logo for the podcast is better then having none).
-            if (isCachedLocally(podcast)) {
+            if (isCachedLocally(key)) {
                 publishProgress(Progress.PARSE);
-                result = restoreBitmapFromFileCache(podcast);
+                result = restoreBitmapFromFileCache(key);
             }
+
             // We are out of options here
-            else {
+            if (result == null) {
                 Log.w(getClass().getSimpleName(), "Logo failed to load for podcast \""
                         + podcast + "\" with logo URL " + podcast.getLogoUrl(), t);
 
@@ -159,12 +184,9 @@ public class LoadPodcastLogoTask extends LoadRemoteFileTask<Podcast, Bitmap> {
 
     @Override
     protected void onPostExecute(Bitmap result) {
-        // Set the logo as a podcast member
-        podcast.setLogo(result);
-
         // Podcast logo was loaded
         if (listener != null)
-            listener.onPodcastLogoLoaded(podcast);
+            listener.onPodcastLogoLoaded(podcast, result);
         else
             Log.w(getClass().getSimpleName(), "Podcast logo loaded, but no listener attached");
 
@@ -181,92 +203,215 @@ public class LoadPodcastLogoTask extends LoadRemoteFileTask<Podcast, Bitmap> {
 
     /**
      * Create a memory-efficient bitmap at the correct size needed for the
-     * application. If the bitmap is larger than width or height given at
-     * {@link #LoadPodcastLogoTask(Context, OnLoadPodcastLogoListener)}, it will
-     * be sample down.
+     * application. If the bitmap is larger than the dimension given, it will
+     * be sampled down. Images without transparency are kept with two bytes per
+     * pixel only and the pixel memory of bitmaps released to the
+     * {@link LogoBitmapPool} is re-used if possible.
      * 
-     * @param data Bitmap data loaded from the internet.
-     * @return The decoded and sampled bitmap.
+     * @param file The file with the encoded bitmap.
+     * @param dimension The size the result should have at least (if the
+     *            bitmap is large enough).
+     * @return The decoded and sampled bitmap, <code>null</code> if the file
+     *         cannot be decoded.
      */
-    protected Bitmap decodeAndSampleBitmap(byte[] data) {
+    protected Bitmap decodeAndSampleBitmap(File file, int dimension) {
+        final String path = file.getAbsolutePath();
         final BitmapFactory.Options options = new BitmapFactory.Options();
 
-        // Decode with inJustDecodeBounds=true to check dimensions
+        // Decode with inJustDecodeBounds=true to check dimensions, this only
+        // reads the header
         options.inJustDecodeBounds = true;
-        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
 
-        // Calculate inSampleSize
-        options.inSampleSize = calculateInSampleSize(options);
+        // Calculate inSampleSize and pick the configuration
+        options.inSampleSize = calculateInSampleSize(options, dimension);
+        options.inPreferredConfig = "image/jpeg".equals(options.outMimeType) ?
+                Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        LogoBitmapPool.setReusable(options);
 
         // Decode bitmap with inSampleSize set
         options.inJustDecodeBounds = false;
+        Bitmap result;
+        try {
+            result = BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException iae) {
+            // The decoder refused to re-use the bitmap, go without
+            options.inBitmap = null;
+
+            result = BitmapFactory.decodeFile(path, options);
+        }
 
-        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        // Only JPEGs are known to be opaque from the header, many other logos
+        // (e.g. PNGs) turn out to have no transparency either. Convert these
+        // to 16 bit, the sampled bitmap is small enough to copy once and the
+        // logos kept in memory and all variants created from it take half
+        // the space.
+        if (result != null && Bitmap.Config.ARGB_8888.equals(result.getConfig())
+                && !result.hasAlpha()) {
+            final Bitmap opaque = result.copy(Bitmap.Config.RGB_565, true);
+
+            if (opaque != null) {
+                LogoBitmapPool.release(result);
+                result = opaque;
+            }
+        }
+
+        return result;
     }
 
     /**
-     * Calculate the sample size for the image.
+     * Calculate the sample size for the image. This is the largest power of
+     * two that keeps both sides of the bitmap at least as large as the
+     * dimension given (the decoder would round down to a power of two anyway).
      * 
-     * @param options Bitmap options to work with.
+     * @param options Bitmap options to work with, need to have the bounds set.
+     * @param dimension The size the bitmap should have at least.
      * @return The sample size.
      */
-    protected int calculateInSampleSize(BitmapFactory.Options options) {
+    protected static int calculateInSampleSize(BitmapFactory.Options options, int dimension) {
         // Raw height and width of image
         final int height = options.outHeight;
         final int width = options.outWidth;
         int inSampleSize = 1;
 
-        if (height > LOGO_DIMENSION || width > LOGO_DIMENSION) {
-            if (width > height) {
-                inSampleSize = Math.round((float) height / (float) LOGO_DIMENSION);
-            } else {
-                inSampleSize = Math.round((float) width / (float) LOGO_DIMENSION);
-            }
-        }
+        // Halve as long as both sides stay large enough
+        while (height / (inSampleSize * 2) >= dimension
+                && width / (inSampleSize * 2) >= dimension)
+            inSampleSize *= 2;
+
         return inSampleSize;
     }
 
-    private File getLogoCacheFile(Podcast podcast) {
-        // Create the complete path leading to where we expect the cached file
-        return new File(context.getCacheDir(), CACHE_DIR + File.separator
-                + podcast.getUrl().hashCode() + CACHED_LOGO_ENDING);
+    private File downloadLogo() throws IOException {
+        final File temp = cache.createTempFile();
+        InputStream in = null;
+        OutputStream out = null;
+
+        // Copy the logo to disk as it comes in, this only needs a small buffer
+        // no matter how large the logo is
+        try {
+            in = openFileStream(podcast.getLogoUrl());
+            if (in == null)
+                throw new IOException("No logo data");
+
+            out = new FileOutputStream(temp);
+            final byte[] buffer = new byte[HttpConnectionManager.getInstance().getBufferSize()];
+            int bytesRead = 0;
+            while ((bytesRead = in.read(buffer)) > 0)
+                out.write(buffer, 0, bytesRead);
+
+            out.close();
+            out = null;
+
+            return temp;
+        } catch (IOException ioe) {
+            temp.delete();
+
+            throw ioe;
+        } finally {
+            close(in);
+            close(out);
+        }
     }
 
-    private boolean isCachedLocally(Podcast podcast) {
-        return getLogoCacheFile(podcast).exists();
+    private boolean isCachedLocally(UrlKey key) {
+        return key != null && cache.get(key, Variant.LARGE) != null;
     }
 
-    private int getCachedLogoAge(Podcast podcast) {
-        if (isCachedLocally(podcast))
-            return (int) ((new Date().getTime() - getLogoCacheFile(podcast).lastModified())
-            / (60 * 1000)); // Calculate to minutes
-        else
-            return -1;
+    private int getCachedLogoAge(UrlKey key) {
+        // Calculate to minutes
+        return (int) (cache.getAge(key) / (60 * 1000));
     }
 
-    private Bitmap restoreBitmapFromFileCache(Podcast podcast) {
-        return BitmapFactory.decodeFile(getLogoCacheFile(podcast).getAbsolutePath());
+    private Bitmap restoreBitmapFromFileCache(UrlKey key) {
+        // 1. Try the variant asked for
+        final File file = cache.get(key, variant);
+        if (file != null) {
+            final Bitmap logo = decodeAndSampleBitmap(file, cache.getDimension(variant));
+
+            if (logo != null || Variant.LARGE.equals(variant))
+                return logo;
+        }
+
+        // 2. The variant is missing (or corrupt), create it from the large
+        // logo and keep it for next time
+        final File large = cache.get(key, Variant.LARGE);
+        final Bitmap logo = large == null ?
+                null : decodeAndSampleBitmap(large, cache.getDimension(variant));
+        if (logo == null)
+            return null;
+
+        final Bitmap scaled = scale(logo, cache.getDimension(variant));
+        cache.put(key, variant, scaled);
+        // The large logo is not needed any more
+        if (scaled != logo)
+            LogoBitmapPool.release(logo);
+
+        return scaled;
     }
 
-    private void storeBitmapToFileCache(Podcast podcast, Bitmap bitmap) {
-        final File logoCacheDir = new File(context.getCacheDir(), CACHE_DIR);
-        logoCacheDir.mkdirs();
+    private Bitmap storeBitmapToFileCache(UrlKey key, File data) {
+        // 1. Decode and sample the large logo
+        final BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(data.getAbsolutePath(), bounds);
 
-        FileOutputStream out = null;
-        // If this fails, we have no cached version, but that's okay
-        try {
-            out = new FileOutputStream(getLogoCacheFile(podcast));
+        final Bitmap logo = decodeAndSampleBitmap(data, PodcastLogoDiskCache.LARGE_DIMENSION);
+        if (logo == null || key == null) {
+            data.delete();
 
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 85, out);
-            out.flush();
-        } catch (IOException e) {
-            // pass
-        } finally {
-            try {
-                out.close();
-            } catch (Exception e) {
-                // Nothing more we could do here
+            return logo;
+        }
+
+        // 2. Logos small enough already are stored as sent by the server,
+        // there is no need to encode them again (and lose quality)
+        if (Math.max(bounds.outWidth, bounds.outHeight) <= PodcastLogoDiskCache.LARGE_DIMENSION)
+            cache.put(key, Variant.LARGE, data);
+        else {
+            cache.put(key, Variant.LARGE, logo);
+            data.delete();
+        }
+
+        // 3. Create all other variants, so we never need to decode the large
+        // logo just to show a small one
+        Bitmap result = logo;
+        for (Variant other : Variant.values())
+            if (!Variant.LARGE.equals(other)) {
+                final Bitmap scaled = scale(logo, cache.getDimension(other));
+                cache.put(key, other, scaled);
+
+                if (other.equals(variant))
+                    result = scaled;
+                else if (scaled != logo)
+                    scaled.recycle();
             }
+
+        // The large logo is not needed if we return another variant
+        if (result != logo)
+            LogoBitmapPool.release(logo);
+
+        return result;
+    }
+
+    private static Bitmap scale(Bitmap logo, int dimension) {
+        final int size = Math.max(logo.getWidth(), logo.getHeight());
+        if (size <= dimension)
+            return logo;
+
+        // Keep the aspect ratio, the longer side will fit the dimension
+        final float factor = (float) dimension / size;
+        return Bitmap.createScaledBitmap(logo, Math.max(1, Math.round(logo.getWidth() * factor)),
+                Math.max(1, Math.round(logo.getHeight() * factor)), true);
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            if (closeable != null)
+                closeable.close();
+        } catch (IOException e) {
+            // Nothing more we could do here
         }
     }
 }
@@ -20,14 +20,15 @@ package net.alliknow.podcatcher.model.tasks.remote;
 import android.util.Log;
 
 import net.alliknow.podcatcher.listeners.OnLoadPodcastListener;
-import net.alliknow.podcatcher.model.EpisodeManager;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserFactory;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
 
 /**
  * Loads a podcast's RSS file from the server and parses its contents
@@ -40,6 +41,24 @@ import java.io.ByteArrayInputStream;
  * returned via callbacks) to access it.
  * </p>
  * <p>
+ * <b>Conditional load:</b> If the podcast has been loaded before, the task
+ * will send the validators returned by {@link Podcast#getETag()} and
+ * {@link Podcast#getLastModified()}. If the server reports that the feed has
+ * not changed, parsing is skipped, the podcast keeps its episodes and only its
+ * last loaded time is updated.
+ * </p>
+ * <p>
+ * <b>Streaming:</b> The feed is not buffered, but parsed while it is read from
+ * the network. Thus, load and parse happen at the same time and the progress
+ * reported after {@link Progress#LOAD} covers both.
+ * </p>
+ * <p>
+ * <b>Incremental parse:</b> Use {@link #setStopAfterKnown(int)} to make the
+ * task stop reading the feed once it ran into the given number of episodes
+ * already known to the podcast in a row. See
+ * {@link Podcast#parse(XmlPullParser, int)} for details.
+ * </p>
+ * <p>
  * <b>Authorization:</b> The task will send the credentials returned by
  * {@link Podcast#getAuthorization()} when requesting the file from the server.
  * If not present or wrong, the task fails and
@@ -58,6 +77,8 @@ public class LoadPodcastTask extends LoadRemoteFileTask<Podcast, Void> {
 
     /** Podcast currently loading */
     private Podcast podcast;
+    /** The number of known episodes in a row that ends the parse */
+    private int stopAfterKnown = -1;
 
     /**
      * Create new task.
@@ -72,9 +93,24 @@ public class LoadPodcastTask extends LoadRemoteFileTask<Podcast, Void> {
         // this.loadLimit = MAX_RSS_FILE_SIZE;
     }
 
+    /**
+     * Make the task stop parsing the feed once it found the given number of
+     * episodes in a row that the podcast already knows of. The remaining
+     * episodes will be taken from the podcast's current content. This only
+     * affects podcasts that already have episodes. By default, the complete
+     * feed is always parsed.
+     * 
+     * @param stopAfterKnown The number of known episodes that ends the parse,
+     *            give zero or a negative number to parse the complete feed.
+     */
+    public void setStopAfterKnown(int stopAfterKnown) {
+        this.stopAfterKnown = stopAfterKnown;
+    }
+
     @Override
     protected Void doInBackground(Podcast... podcasts) {
         this.podcast = podcasts[0];
+        InputStream podcastRssStream = null;
 
         try {
             // 1. Load the file from the Internet
@@ -82,32 +118,64 @@ public class LoadPodcastTask extends LoadRemoteFileTask<Podcast, Void> {
 
             // Set auth
             this.authorization = podcast.getAuthorization();
-            // ... and go get the file
-            byte[] podcastRssFile = loadFile(podcast.getUrl());
+            // Set validators, but only if we have content to keep in case the
+            // server tells us the file has not changed
+            if (podcast.getLastLoaded() != null) {
+                this.ifNoneMatch = podcast.getETag();
+                this.ifModifiedSince = podcast.getLastModified();
+            }
+            // ... and go open the file, we parse it on the fly as it comes in,
+            // so there is no need to keep the complete file in memory
+            podcastRssStream = openFileStream(podcast.getUrl());
 
             if (isCancelled())
                 return null;
-            else
-                publishProgress(Progress.PARSE);
 
-            // 2. Create the parser to use
-            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-            factory.setNamespaceAware(true);
-            XmlPullParser parser = factory.newPullParser();
-            parser.setInput(new ByteArrayInputStream(podcastRssFile), null);
-
-            // 3. Parse as podcast content
-            if (!isCancelled())
-                podcast.parse(parser);
-
-            // 4. We need to wait here and make sure the episode metadata is
-            // available before we return
-            EpisodeManager.getInstance().blockUntilEpisodeMetadataIsLoaded();
+            // Keep the server's freshness information, no matter whether the
+            // file changed or not
+            podcast.setFreshUntil(responseFreshUntil > 0 ? new Date(responseFreshUntil) : null);
+            // The feed might have moved, the podcast manager will take care
+            // of moving the podcast once it is loaded
+            podcast.setMovedTo(movedPermanentlyTo);
+
+            // The feed did not change since we last parsed it, keep the
+            // content and skip the parsing altogether
+            if (notModified)
+                podcast.refreshLastLoaded();
+            else {
+                // 2. Create the parser to use
+                XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+                factory.setNamespaceAware(true);
+                XmlPullParser parser = factory.newPullParser();
+                parser.setInput(podcastRssStream, null);
+
+                // 3. Parse as podcast content, this will also report load
+                // progress since the stream is read while parsing. We reset
+                // the validators first because they must not survive a parse
+                // that fails half-way.
+                podcast.setETag(null);
+                podcast.setLastModified(null);
+
+                if (!isCancelled()) {
+                    podcast.parse(parser, stopAfterKnown);
+
+                    podcast.setETag(responseETag);
+                    podcast.setLastModified(responseLastModified);
+                }
+            }
         } catch (Throwable t) {
             Log.w(getClass().getSimpleName(), "Load failed for podcast \"" + podcast + "\"", t);
 
             cancel(true);
         } finally {
+            // Close the remote stream (if any)
+            if (podcastRssStream != null)
+                try {
+                    podcastRssStream.close();
+                } catch (IOException e) {
+                    // Nothing more we could do here
+                }
+
             publishProgress(Progress.DONE);
         }
 
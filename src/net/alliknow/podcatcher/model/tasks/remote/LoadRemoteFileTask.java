@@ -17,10 +17,11 @@
 
 package net.alliknow.podcatcher.model.tasks.remote;
 
+import static java.net.HttpURLConnection.HTTP_MOVED_PERM;
+import static java.net.HttpURLConnection.HTTP_MOVED_TEMP;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.HttpURLConnection.HTTP_SEE_OTHER;
 import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
-import static net.alliknow.podcatcher.Podcatcher.AUTHORIZATION_KEY;
-import static net.alliknow.podcatcher.Podcatcher.USER_AGENT_KEY;
-import static net.alliknow.podcatcher.Podcatcher.USER_AGENT_VALUE;
 
 import android.net.http.HttpResponseCache;
 import android.os.AsyncTask;
@@ -30,12 +31,17 @@ import net.alliknow.podcatcher.model.types.Progress;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map.Entry;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Abstract super class for file download tasks.
@@ -47,11 +53,6 @@ import java.util.Map.Entry;
 public abstract class LoadRemoteFileTask<Params, Result> extends
         AsyncTask<Params, Progress, Result> {
 
-    /** The connection timeout */
-    protected static final int CONNECT_TIMEOUT = 8000;
-    /** The read timeout */
-    protected static final int READ_TIMEOUT = 60000;
-
     /** The use caches flag set to the http connection before it is opened. */
     protected boolean useCaches;
 
@@ -65,6 +66,47 @@ public abstract class LoadRemoteFileTask<Params, Result> extends
     /** The flag to indicate that authorization is/was required */
     protected boolean needsAuthorization = false;
 
+    /** The entity tag to send as a validator (If-None-Match) */
+    protected String ifNoneMatch;
+    /** The last modified date to send as a validator (If-Modified-Since) */
+    protected String ifModifiedSince;
+    /** The flag to indicate that the remote file has not been modified */
+    protected boolean notModified = false;
+    /** The entity tag validator sent by the server */
+    protected String responseETag;
+    /** The last modified validator sent by the server */
+    protected String responseLastModified;
+    /**
+     * The point in time (in milliseconds) the server considers the response
+     * fresh until as given by the Cache-Control or Expires header, -1 if not
+     * known
+     */
+    protected long responseFreshUntil = -1;
+    /**
+     * The URL the remote file has moved to permanently (HTTP 301 or 308), if
+     * the server told us so. If there are more redirects, this is the last
+     * one in an unbroken chain of permanent redirects from the URL requested.
+     * <code>null</code> if the file has not moved permanently.
+     */
+    protected URL movedPermanentlyTo;
+
+    /**
+     * The maximum number of bytes read and dropped when a stream is closed
+     * before its end, so the connection can be re-used
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+    /** The maximum number of redirects we follow */
+    private static final int MAX_REDIRECTS = 5;
+    /** HTTP status code for a permanent redirect keeping the method */
+    private static final int HTTP_PERMANENT_REDIRECT = 308;
+    /** HTTP status code for a temporary redirect keeping the method */
+    private static final int HTTP_TEMPORARY_REDIRECT = 307;
+
+    /** The URL the last connection actually went to (after redirects) */
+    private URL connectedUrl;
+    /** The time the last request started */
+    private long requestStart;
+
     /**
      * Set a "max-stale" cache control directive when downloading the file. The
      * default is a negative number, turning off the directive. If not negative,
@@ -79,7 +121,8 @@ public abstract class LoadRemoteFileTask<Params, Result> extends
     /**
      * Set a load limit for the actual download of the file. The default is a
      * negative number, turning off the limit evaluation. If positive and
-     * reached, {@link #loadFile(URL)} below will return <code>null</code>
+     * reached, {@link #loadFile(URL)} and the stream returned by
+     * {@link #openFileStream(URL)} below will fail with an {@link IOException}
      * immediately.
      * 
      * @param bytes The limit to set in bytes.
@@ -93,85 +136,39 @@ public abstract class LoadRemoteFileTask<Params, Result> extends
      * {@link #publishProgress(Object...)}.
      * 
      * @param remote URL connection to load from.
-     * @return The file content.
+     * @return The file content or <code>null</code> if the server reports that
+     *         the file has not been modified.
      * @throws IOException If something goes wrong.
+     * @see #openFileStream(URL)
      */
     protected byte[] loadFile(URL remote) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) remote.openConnection();
-        connection.setConnectTimeout(CONNECT_TIMEOUT);
-        connection.setReadTimeout(READ_TIMEOUT);
-        // Set whether we use the http cache
-        connection.setUseCaches(useCaches);
-        // We set a custom user agent here because some servers (e.g. ZDF.de)
-        // redirect connections from mobile devices to servers where the content
-        // we are looking for might not be available.
-        connection.setRequestProperty(USER_AGENT_KEY, USER_AGENT_VALUE);
-        // Set cache control directive
-        if (maxStale >= 0)
-            connection.addRequestProperty("Cache-Control", "max-stale=" + maxStale);
-        // Allow for password protected feeds
-        if (authorization != null)
-            connection.setRequestProperty(AUTHORIZATION_KEY, authorization);
-
-        BufferedInputStream bufferedRemoteStream = null;
+        InputStream remoteStream = null;
         ByteArrayOutputStream result = null;
 
         try {
-            // 1. Open stream and check whether we know its length
-            bufferedRemoteStream = new BufferedInputStream(connection.getInputStream());
-            final int contentLength = connection.getContentLength();
-            // Check whether we should abort load since we have a load limit set
-            // and the content length is higher.
-            if (loadLimit >= 0 && contentLength >= 0 && contentLength > loadLimit)
-                throw new IOException("Load limit exceeded (content length reported by remote is "
-                        + contentLength + " bytes, limit was " + loadLimit + " bytes)!");
-            // Check whether we could calculate the percentage of completion,
-            // this only works if a content length is given and the content is
-            // not gzipped
-            final boolean isZippedResponse = connection.getContentEncoding() != null
-                    && connection.getContentEncoding().equals("gzip");
-            final boolean sendLoadProgress = contentLength > 0 && !isZippedResponse;
-
-            // showResponseHeaderDetails(connection);
+            // 1. Open stream, this will also check the load limit
+            remoteStream = openFileStream(remote);
+            if (remoteStream == null)
+                return null;
 
             // 2. Create the byte buffer to write to
             result = new ByteArrayOutputStream();
-            publishProgress(Progress.LOAD);
 
-            byte[] buffer = new byte[1024];
+            byte[] buffer = new byte[HttpConnectionManager.getInstance().getBufferSize()];
             int bytesRead = 0;
-            int totalBytes = 0;
-
-            // 3. Read stream and report progress (if possible)
-            while ((bytesRead = bufferedRemoteStream.read(buffer)) > 0) {
-                if (isCancelled())
-                    return null;
-
-                totalBytes += bytesRead;
-                if (loadLimit >= 0 && totalBytes > loadLimit)
-                    throw new IOException("Load limit exceeded (read " + totalBytes +
-                            " bytes, limit was " + loadLimit + " bytes)!");
 
+            // 3. Read stream, progress is reported by the stream itself
+            while ((bytesRead = remoteStream.read(buffer)) > 0)
                 result.write(buffer, 0, bytesRead);
 
-                if (sendLoadProgress)
-                    publishProgress(new Progress(totalBytes, contentLength));
-            }
-
             // 4. Return result as a byte array
             return result.toByteArray();
-        } catch (IOException ioe) {
-            // Make sure sub-classes can react if auth is needed
-            if (connection.getResponseCode() == HTTP_UNAUTHORIZED)
-                needsAuthorization = true;
-
-            throw ioe;
         } finally {
             // Close the streams
-            // To remote
-            if (bufferedRemoteStream != null)
+            // To remote (this also disconnects)
+            if (remoteStream != null)
                 try {
-                    bufferedRemoteStream.close();
+                    remoteStream.close();
                 } catch (Exception e) {
                     Log.w(getClass().getSimpleName(), "Failed to close remote stream", e);
                 }
@@ -183,14 +180,423 @@ public abstract class LoadRemoteFileTask<Params, Result> extends
                 } catch (Exception e) {
                     Log.w(getClass().getSimpleName(), "Failed to close local output stream", e);
                 }
+        }
+    }
 
-            // Disconnect
+    /**
+     * Open a stream to the remote file given. The returned stream will feed
+     * {@link #publishProgress(Object...)} while it is read from, enforce the
+     * load limit set and fail with an {@link IOException} once the task is
+     * cancelled. Use this instead of {@link #loadFile(URL)} if you can process
+     * the file on the fly, the memory needed will then be limited to a fixed
+     * buffer size regardless of the file's length. Make sure to close the
+     * stream returned when done. If the file was read completely, this keeps
+     * the connection alive for the next request to the same host.
+     * <p>
+     * Connections are created by the {@link HttpConnectionManager} and count
+     * towards its per-host limit, so this might block until a connection is
+     * available. Responses are requested gzipped and decompressed on the fly,
+     * the progress reported is based on the compressed bytes read.
+     * </p>
+     * <p>
+     * If any of the validators ({@link #ifNoneMatch}, {@link #ifModifiedSince})
+     * is set, the request is made conditional. If the server then answers that
+     * the file has not been modified, {@link #notModified} is set and this
+     * method returns <code>null</code>. Otherwise the validators sent by the
+     * server are available via {@link #responseETag} and
+     * {@link #responseLastModified}. In both cases, {@link #responseFreshUntil}
+     * is set as given by the server.
+     * </p>
+     * <p>
+     * Redirects are followed (up to a limit) and remembered by the
+     * {@link HttpConnectionManager}, so the next request skips them. If the
+     * file has moved permanently, {@link #movedPermanentlyTo} is set and
+     * callers should use that URL from now on. The {@link #authorization} is
+     * only sent to the origin of the URL given, never to other hosts we are
+     * redirected to.
+     * </p>
+     * 
+     * @param remote URL connection to load from.
+     * @return The stream to read the file content from or <code>null</code> if
+     *         the file has not been modified.
+     * @throws IOException If something goes wrong.
+     */
+    protected InputStream openFileStream(URL remote) throws IOException {
+        final HttpConnectionManager manager = HttpConnectionManager.getInstance();
+        // Follow redirects until we get the file, this gives us a connection
+        // we own and that has its response code available
+        final HttpURLConnection connection = connect(remote);
+        final URL connected = connectedUrl;
+        final long start = requestStart;
+        final long responseTime = System.currentTimeMillis() - start;
+
+        try {
+            // 0. Check whether the file has changed at all, the freshness
+            // information is also sent with a "not modified" response
+            final int responseCode = connection.getResponseCode();
+            responseFreshUntil = getFreshUntil(connection);
+
+            if (responseCode == HTTP_NOT_MODIFIED) {
+                notModified = true;
+                // There is no body, so the connection can be re-used
+                manager.finish(connected, responseTime, responseTime, 0, true);
+
+                return null;
+            }
+
+            // 1. Open stream and check whether we know its length
+            final InputStream bufferedRemoteStream =
+                    new BufferedInputStream(connection.getInputStream(), manager.getBufferSize());
+            final int contentLength = connection.getContentLength();
+            // Keep the validators for the next (conditional) request
+            responseETag = connection.getHeaderField("ETag");
+            responseLastModified = connection.getHeaderField("Last-Modified");
+            // Check whether we should abort load since we have a load limit set
+            // and the content length is higher.
+            if (loadLimit >= 0 && contentLength >= 0 && contentLength > loadLimit) {
+                bufferedRemoteStream.close();
+
+                throw new IOException("Load limit exceeded (content length reported by remote is "
+                        + contentLength + " bytes, limit was " + loadLimit + " bytes)!");
+            }
+
+            // showResponseHeaderDetails(connection);
+
+            // 2. Wrap the stream to count, limit and report progress, the
+            // content length is the compressed length for gzipped responses
+            publishProgress(Progress.LOAD);
+
+            final RemoteFileStream remoteStream = new RemoteFileStream(bufferedRemoteStream,
+                    connection, connected, start, responseTime, contentLength);
+            final boolean isZippedResponse = HttpConnectionManager.GZIP_ENCODING
+                    .equalsIgnoreCase(connection.getContentEncoding());
+
+            // 3. Unzip on the fly if needed
+            try {
+                return isZippedResponse ?
+                        new GZIPInputStream(remoteStream, manager.getBufferSize()) : remoteStream;
+            } catch (IOException ioe) {
+                // Not a valid gzip stream, drop it
+                remoteStream.abort();
+
+                throw ioe;
+            }
+        } catch (IOException ioe) {
+            // Make sure sub-classes can react if auth is needed, but only
+            // where we would actually send it
+            if (connection.getResponseCode() == HTTP_UNAUTHORIZED
+                    && HttpConnectionManager.isSameOrigin(remote, connected))
+                needsAuthorization = true;
+
+            // Disconnect, the stream will not be handed out
             connection.disconnect();
+            manager.finish(connected, responseTime, System.currentTimeMillis() - start, 0, false);
 
-            // reportCacheStats();
+            throw ioe;
         }
     }
 
+    private HttpURLConnection connect(URL remote) throws IOException {
+        final HttpConnectionManager manager = HttpConnectionManager.getInstance();
+        URL current = remote;
+        // Whether all redirects so far have been permanent
+        boolean permanent = true;
+        movedPermanentlyTo = null;
+
+        for (int redirects = 0;; redirects++) {
+            // 1. Skip the redirects we already know about
+            URL location = manager.getRedirect(current, true);
+            boolean permanentRedirect = location != null;
+            if (location == null)
+                location = manager.getRedirect(current, false);
+
+            // 2. Ask the server
+            if (location == null) {
+                // Never hand the credentials to another host
+                final HttpURLConnection connection = openConnection(current,
+                        HttpConnectionManager.isSameOrigin(remote, current) ?
+                                authorization : null);
+                // Wait for our turn with the host (this might throw, but then
+                // we do not own a connection yet)
+                manager.acquire(current);
+                requestStart = System.currentTimeMillis();
+
+                int responseCode;
+                try {
+                    responseCode = connection.getResponseCode();
+                } catch (IOException ioe) {
+                    connection.disconnect();
+                    manager.finish(current, -1, System.currentTimeMillis() - requestStart, 0,
+                            false);
+
+                    throw ioe;
+                }
+
+                // This is the file (or an error), we are done here
+                if (!isRedirect(responseCode)) {
+                    connectedUrl = current;
+
+                    return connection;
+                }
+
+                // 3. We are redirected, remember where to for next time
+                final long responseTime = System.currentTimeMillis() - requestStart;
+                permanentRedirect = responseCode == HTTP_MOVED_PERM
+                        || responseCode == HTTP_PERMANENT_REDIRECT;
+                try {
+                    location = getLocation(connection, current);
+                    manager.putRedirect(current, location,
+                            permanentRedirect ? Long.MAX_VALUE : getFreshUntil(connection));
+
+                    discard(connection);
+                    manager.finish(current, responseTime, responseTime, 0, true);
+                } catch (IOException ioe) {
+                    connection.disconnect();
+                    manager.finish(current, responseTime, responseTime, 0, false);
+
+                    throw ioe;
+                }
+            }
+
+            // 4. Keep track of permanent moves, only an unbroken chain of
+            // permanent redirects makes the new location the canonical one
+            permanent &= permanentRedirect;
+            if (permanent)
+                movedPermanentlyTo = location;
+
+            if (redirects >= MAX_REDIRECTS)
+                throw new IOException("Too many redirects for " + remote);
+
+            current = location;
+        }
+    }
+
+    private HttpURLConnection openConnection(URL remote, String authorization)
+            throws IOException {
+        final HttpURLConnection connection =
+                HttpConnectionManager.getInstance().openConnection(remote, authorization);
+        // We follow redirects ourselves, so we learn about permanent moves
+        connection.setInstanceFollowRedirects(false);
+        // Set whether we use the http cache
+        connection.setUseCaches(useCaches);
+        // Set cache control directive
+        if (maxStale >= 0)
+            connection.addRequestProperty("Cache-Control", "max-stale=" + maxStale);
+        // Make the request conditional if we have validators
+        if (ifNoneMatch != null)
+            connection.setRequestProperty("If-None-Match", ifNoneMatch);
+        if (ifModifiedSince != null)
+            connection.setRequestProperty("If-Modified-Since", ifModifiedSince);
+
+        return connection;
+    }
+
+    private static boolean isRedirect(int responseCode) {
+        return responseCode == HTTP_MOVED_PERM || responseCode == HTTP_MOVED_TEMP
+                || responseCode == HTTP_SEE_OTHER || responseCode == HTTP_TEMPORARY_REDIRECT
+                || responseCode == HTTP_PERMANENT_REDIRECT;
+    }
+
+    private static URL getLocation(HttpURLConnection connection, URL current)
+            throws IOException {
+        final String location = connection.getHeaderField("Location");
+        if (location == null)
+            throw new IOException("Redirect from " + current + " without location");
+
+        // The location might be relative
+        final URL result = new URL(current, location);
+        // Do not follow to other protocols or from secure to insecure
+        if (!HttpConnectionManager.canFollowRedirect(current, result))
+            throw new IOException("Will not follow redirect from " + current + " to " + result);
+
+        return result;
+    }
+
+    private void discard(HttpURLConnection connection) throws IOException {
+        // Read the (usually tiny) body of the redirect, so the connection can
+        // be re-used for the next request
+        final InputStream in = connection.getInputStream();
+        try {
+            final byte[] buffer = new byte[1024];
+            while (in.read(buffer) >= 0)
+                ; // Skip body
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The stream handed out by {@link LoadRemoteFileTask#openFileStream(URL)}.
+     * Counts the bytes read, enforces the load limit, reports progress and
+     * stops reading once the task is cancelled. Closing the stream gives the
+     * connection back to the {@link HttpConnectionManager}.
+     */
+    private class RemoteFileStream extends FilterInputStream {
+
+        /** The connection the stream belongs to */
+        private final HttpURLConnection connection;
+        /** The URL connected to */
+        private final URL remote;
+        /** The time the request started */
+        private final long start;
+        /** The time it took for the response headers to arrive */
+        private final long responseTime;
+        /** The total number of bytes expected, -1 if unknown */
+        private final int contentLength;
+        /** The number of bytes read so far */
+        private int totalBytes = 0;
+        /** Whether the end of the stream has been reached */
+        private boolean complete = false;
+        /** Whether the stream has been closed */
+        private boolean closed = false;
+
+        private RemoteFileStream(InputStream in, HttpURLConnection connection, URL remote,
+                long start, long responseTime, int contentLength) {
+            super(in);
+
+            this.connection = connection;
+            this.remote = remote;
+            this.start = start;
+            this.responseTime = responseTime;
+            this.contentLength = contentLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkCancelled();
+
+            final int result = super.read();
+            if (result >= 0)
+                count(1);
+            else
+                complete = true;
+
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            checkCancelled();
+
+            final int bytesRead = super.read(buffer, offset, count);
+            if (bytesRead > 0)
+                count(bytesRead);
+            else if (bytesRead < 0)
+                complete = true;
+
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            checkCancelled();
+
+            final long skipped = super.skip(byteCount);
+            if (skipped > 0)
+                count((int) skipped);
+
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            // Reset would mess up our byte count
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+
+            // Readers (like the feed parser) might stop right before the end
+            // of the file, read on for a bit, so the connection can be
+            // re-used. This works on the raw bytes, so the response's length
+            // does not need to be known and gzipped or chunked responses are
+            // covered as well. Do not even start if we know there is more.
+            if (!complete && !isCancelled()
+                    && (contentLength < 0 || contentLength - totalBytes <= MAX_DRAIN_BYTES))
+                try {
+                    final byte[] buffer = new byte[1024];
+                    int drained = 0;
+
+                    while (drained < MAX_DRAIN_BYTES) {
+                        final int bytesRead = read(buffer, 0,
+                                Math.min(buffer.length, MAX_DRAIN_BYTES - drained));
+                        if (bytesRead < 0)
+                            break;
+
+                        drained += bytesRead;
+                    }
+                } catch (IOException ioe) {
+                    // Just do not keep the connection then
+                }
+
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                // Only drop the connection if it was not read to the end,
+                // otherwise the platform keeps it alive for re-use
+                if (!complete)
+                    connection.disconnect();
+
+                HttpConnectionManager.getInstance().finish(remote, responseTime,
+                        System.currentTimeMillis() - start, totalBytes, complete);
+            }
+        }
+
+        private void abort() {
+            // The caller disconnects and gives back the connection
+            closed = true;
+
+            try {
+                in.close();
+            } catch (IOException ioe) {
+                // Nothing more we could do here
+            }
+        }
+
+        private void checkCancelled() throws IOException {
+            if (isCancelled())
+                throw new InterruptedIOException("Load cancelled after " + totalBytes + " bytes");
+        }
+
+        private void count(int bytesRead) throws IOException {
+            totalBytes += bytesRead;
+            if (loadLimit >= 0 && totalBytes > loadLimit)
+                throw new IOException("Load limit exceeded (read " + totalBytes +
+                        " bytes, limit was " + loadLimit + " bytes)!");
+
+            if (contentLength > 0)
+                publishProgress(new Progress(totalBytes, contentLength));
+        }
+    }
+
+    private long getFreshUntil(HttpURLConnection connection) {
+        final String cacheControl = connection.getHeaderField("Cache-Control");
+
+        // Cache-Control takes precedence over the Expires header
+        if (cacheControl != null)
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.US);
+
+                if (directive.equals("no-cache") || directive.equals("no-store"))
+                    return -1;
+                else if (directive.startsWith("max-age="))
+                    try {
+                        return System.currentTimeMillis() +
+                                Long.parseLong(directive.substring(8).trim()) * 1000;
+                    } catch (NumberFormatException nfe) {
+                        // Bad value, try the Expires header
+                    }
+            }
+
+        // This returns zero if not available
+        final long expires = connection.getExpiration();
+        return expires > 0 ? expires : -1;
+    }
+
     private void showResponseHeaderDetails(HttpURLConnection connection) {
         Iterator<Entry<String, List<String>>> iterator = connection.getHeaderFields()
                 .entrySet().iterator();
@@ -0,0 +1,95 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.tasks.remote;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A small pool of bitmaps the logo load tasks only need for a moment (e.g.
+ * the large logo decoded to create a smaller variant from). These are handed
+ * to the decoder as {@link BitmapFactory.Options#inBitmap}, so decoding the
+ * next logo of the same size does not allocate new pixel memory. The platform
+ * only allows this for bitmaps of the exact same size and configuration
+ * decoded without sampling. Never put bitmaps in here that are still used
+ * elsewhere (like the ones kept in memory for the UI).
+ * <p>
+ * <b>Threading:</b> This is thread-safe.
+ * </p>
+ */
+final class LogoBitmapPool {
+
+    /** The maximum number of bitmaps to keep */
+    private static final int MAX_SIZE = 2;
+
+    /** The bitmaps available for re-use */
+    private static final LinkedList<Bitmap> pool = new LinkedList<Bitmap>();
+
+    private LogoBitmapPool() {
+        // Static use only
+    }
+
+    /**
+     * Find a bitmap to decode into and set it to the options given. The pooled
+     * bitmap is taken out of the pool.
+     *
+     * @param options The options to decode with, the bounds need to be known
+     *            already and the sample size and configuration set.
+     */
+    static synchronized void setReusable(BitmapFactory.Options options) {
+        options.inMutable = true;
+        options.inBitmap = null;
+
+        // Re-use is only possible without sampling
+        if (options.inSampleSize > 1)
+            return;
+
+        final Iterator<Bitmap> iterator = pool.iterator();
+        while (iterator.hasNext()) {
+            final Bitmap candidate = iterator.next();
+
+            if (candidate.getWidth() == options.outWidth
+                    && candidate.getHeight() == options.outHeight
+                    && candidate.getConfig() == options.inPreferredConfig) {
+                iterator.remove();
+                options.inBitmap = candidate;
+
+                return;
+            }
+        }
+    }
+
+    /**
+     * Put a bitmap no longer used in the pool. If the pool is full, the
+     * bitmap used least recently is dropped.
+     *
+     * @param bitmap The bitmap to put, might be <code>null</code>. Immutable
+     *            bitmaps cannot be re-used and are ignored.
+     */
+    static synchronized void release(Bitmap bitmap) {
+        if (bitmap != null && bitmap.isMutable() && !bitmap.isRecycled()) {
+            pool.addFirst(bitmap);
+
+            if (pool.size() > MAX_SIZE)
+                pool.removeLast();
+        }
+    }
+}
@@ -0,0 +1,432 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.tasks.remote;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import net.alliknow.podcatcher.model.types.UrlKey;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map.Entry;
+
+/**
+ * The disk cache for podcast logos. Each logo is kept in a number of
+ * pre-scaled variants (see {@link Variant}), so the different parts of the UI
+ * only need to decode the pixels they actually draw. Files are named by the
+ * SHA-1 hash of the podcast URL and written atomically. The overall size of
+ * the cache is limited, the files used least recently are deleted once it
+ * grows too big. The order of use is kept in a journal file.
+ * <p>
+ * <b>Threading:</b> This is thread-safe, but does I/O, so do not use it from
+ * the main thread.
+ * </p>
+ */
+public class PodcastLogoDiskCache {
+
+    /** The variants of the logo we keep */
+    public enum Variant {
+        /** The large logo, this is the one all others are created from */
+        LARGE,
+        /** The logo as shown in the podcast list rows */
+        ROW,
+        /** The large icon of the play notification */
+        NOTIFICATION
+    }
+
+    /** The maximum size we sample podcast logos down to */
+    public static final int LARGE_DIMENSION = 250;
+    /** The size of the logo in the podcast list rows (in dp) */
+    private static final int ROW_DIMENSION_DP = 48;
+    /** The maximum overall size of the cache in bytes */
+    private static final long MAX_SIZE = 8 * 1024 * 1024;
+    /** The JPEG quality we store logos with */
+    private static final int JPEG_QUALITY = 85;
+
+    /** The name of the cache directory */
+    private static final String CACHE_DIR = "logos";
+    /** The name of the cache directory used by earlier versions */
+    private static final String LEGACY_CACHE_DIR = "logoCache";
+    /** The name of the journal file */
+    private static final String JOURNAL_FILENAME = "journal";
+    /** The file name ending for files not completely written yet */
+    private static final String TEMP_ENDING = ".tmp";
+
+    /** The single instance */
+    private static PodcastLogoDiskCache instance;
+
+    /** The context we live in */
+    private final Context context;
+    /** The cache directory */
+    private final File directory;
+    /** The cache files and their size, least recently used first */
+    private final LinkedHashMap<String, Long> entries =
+            new LinkedHashMap<String, Long>(64, 0.75f, true);
+    /** The overall size of all files in the cache */
+    private long size;
+
+    /**
+     * Get the logo disk cache.
+     *
+     * @param context The context to get the cache directory from.
+     * @return The single cache instance.
+     */
+    public static synchronized PodcastLogoDiskCache getInstance(Context context) {
+        if (instance == null)
+            instance = new PodcastLogoDiskCache(context.getApplicationContext());
+
+        return instance;
+    }
+
+    private PodcastLogoDiskCache(Context context) {
+        this.context = context;
+        this.directory = new File(context.getCacheDir(), CACHE_DIR);
+
+        directory.mkdirs();
+        deleteLegacyCache();
+        readJournal();
+    }
+
+    /**
+     * Get the size (width and height) a logo variant is created with.
+     *
+     * @param variant The variant to get the size for.
+     * @return The size in pixels.
+     */
+    public int getDimension(Variant variant) {
+        switch (variant) {
+            case ROW:
+                return (int) (ROW_DIMENSION_DP
+                        * context.getResources().getDisplayMetrics().density);
+            case NOTIFICATION:
+                return (int) context.getResources().getDimension(
+                        android.R.dimen.notification_large_icon_width);
+            default:
+                return LARGE_DIMENSION;
+        }
+    }
+
+    /**
+     * Get the file for a logo variant and mark it used.
+     *
+     * @param podcastUrl The podcast's URL.
+     * @param variant The variant to get.
+     * @return The file, or <code>null</code> if not in the cache.
+     */
+    public synchronized File get(UrlKey podcastUrl, Variant variant) {
+        final String name = getFileName(podcastUrl, variant);
+
+        // This also moves the entry to the end of the LRU order
+        return entries.get(name) == null ? null : new File(directory, name);
+    }
+
+    /**
+     * Get the age of the logo in the cache.
+     *
+     * @param podcastUrl The podcast's URL.
+     * @return The time (in milliseconds) since the large logo has been put in
+     *         the cache, or -1 if there is no logo for the podcast.
+     */
+    public synchronized long getAge(UrlKey podcastUrl) {
+        final String name = getFileName(podcastUrl, Variant.LARGE);
+
+        return entries.containsKey(name) ?
+                System.currentTimeMillis() - new File(directory, name).lastModified() : -1;
+    }
+
+    /**
+     * Create a new, empty file in the cache directory to write a logo to. Use
+     * {@link #put(UrlKey, Variant, File)} to move it into the cache once
+     * complete. Files not put in the cache are deleted next time the app
+     * starts.
+     *
+     * @return The temporary file.
+     * @throws IOException If the file cannot be created.
+     */
+    public File createTempFile() throws IOException {
+        return File.createTempFile("logo", TEMP_ENDING, directory);
+    }
+
+    /**
+     * Put a logo variant in the cache as is. Use this to store the original
+     * file, if it does not need scaling. The file is moved (not copied), so it
+     * needs to be in the cache directory, see {@link #createTempFile()}.
+     *
+     * @param podcastUrl The podcast's URL.
+     * @param variant The variant to put.
+     * @param temp The file with the encoded logo, will be gone after this.
+     */
+    public synchronized void put(UrlKey podcastUrl, Variant variant, File temp) {
+        final String name = getFileName(podcastUrl, variant);
+        final File file = new File(directory, name);
+        final long length = temp.length();
+
+        // The file is complete, so renaming it makes sure readers never see
+        // a partly written logo
+        if (temp.renameTo(file)) {
+            final Long previous = entries.put(name, length);
+            size += length - (previous == null ? 0 : previous);
+
+            trimToSize();
+            writeJournal();
+        } else {
+            // If this fails, we have no cached version, but that's okay
+            Log.w(getClass().getSimpleName(), "Cannot store logo " + name);
+            temp.delete();
+        }
+    }
+
+    /**
+     * Encode a logo variant and put it in the cache. Logos with transparency
+     * are stored as PNG, all others as JPEG.
+     *
+     * @param podcastUrl The podcast's URL.
+     * @param variant The variant to put.
+     * @param logo The logo bitmap.
+     */
+    public void put(UrlKey podcastUrl, Variant variant, Bitmap logo) {
+        File temp = null;
+        FileOutputStream out = null;
+
+        // Encode straight to file, there is no need to hold the data
+        try {
+            temp = createTempFile();
+            out = new FileOutputStream(temp);
+
+            if (logo.hasAlpha())
+                logo.compress(Bitmap.CompressFormat.PNG, 100, out);
+            else
+                logo.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+
+            out.getFD().sync();
+            out.close();
+            out = null;
+
+            put(podcastUrl, variant, temp);
+        } catch (IOException ioe) {
+            // If this fails, we have no cached version, but that's okay
+            Log.w(getClass().getSimpleName(), "Cannot store logo for " + podcastUrl, ioe);
+
+            if (temp != null)
+                temp.delete();
+        } finally {
+            close(out);
+        }
+    }
+
+    /**
+     * Remove all variants of a podcast's logo from the cache.
+     *
+     * @param podcastUrl The podcast's URL.
+     */
+    public synchronized void remove(UrlKey podcastUrl) {
+        for (Variant variant : Variant.values()) {
+            final String name = getFileName(podcastUrl, variant);
+            final Long length = entries.remove(name);
+
+            if (length != null) {
+                new File(directory, name).delete();
+                size -= length;
+            }
+        }
+
+        writeJournal();
+    }
+
+    /**
+     * Move all variants of a podcast's logo to a new key, e.g. because the
+     * podcast has moved to a new URL. Files already there are replaced.
+     *
+     * @param from The podcast's previous URL.
+     * @param to The podcast's new URL.
+     */
+    public synchronized void move(UrlKey from, UrlKey to) {
+        for (Variant variant : Variant.values()) {
+            final String name = getFileName(from, variant);
+            final String newName = getFileName(to, variant);
+            final Long length = entries.remove(name);
+
+            if (length != null) {
+                final Long replaced = entries.remove(newName);
+                if (replaced != null)
+                    size -= replaced;
+
+                if (new File(directory, name).renameTo(new File(directory, newName)))
+                    entries.put(newName, length);
+                else {
+                    new File(directory, name).delete();
+                    size -= length;
+                }
+            }
+        }
+
+        writeJournal();
+    }
+
+    private void trimToSize() {
+        final Iterator<Entry<String, Long>> iterator = entries.entrySet().iterator();
+
+        // Drop the files used least recently, but keep at least the one
+        // written last
+        while (size > MAX_SIZE && entries.size() > 1 && iterator.hasNext()) {
+            final Entry<String, Long> eldest = iterator.next();
+
+            new File(directory, eldest.getKey()).delete();
+            size -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private void readJournal() {
+        final LinkedHashMap<String, Long> journaled = new LinkedHashMap<String, Long>();
+
+        // 1. Read the LRU order as written last time
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(new File(directory, JOURNAL_FILENAME)), "UTF-8"));
+
+            String name;
+            while ((name = reader.readLine()) != null) {
+                final File file = new File(directory, name);
+
+                if (file.isFile())
+                    journaled.put(name, file.length());
+            }
+        } catch (IOException ioe) {
+            // No journal (yet), all files will be treated as old
+        } finally {
+            close(reader);
+        }
+
+        // 2. Files we do not know the order for are the oldest, temporary
+        // files are left-overs from failed writes
+        final String[] names = directory.list();
+        if (names != null)
+            for (String name : names) {
+                final File file = new File(directory, name);
+
+                if (name.endsWith(TEMP_ENDING))
+                    file.delete();
+                else if (!name.equals(JOURNAL_FILENAME) && !journaled.containsKey(name))
+                    addEntry(name, file.length());
+            }
+
+        for (Entry<String, Long> entry : journaled.entrySet())
+            addEntry(entry.getKey(), entry.getValue());
+
+        trimToSize();
+    }
+
+    private void addEntry(String name, long length) {
+        entries.put(name, length);
+        size += length;
+    }
+
+    private void writeJournal() {
+        final File journal = new File(directory, JOURNAL_FILENAME);
+        final File temp = new File(directory, JOURNAL_FILENAME + TEMP_ENDING);
+
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp),
+                    "UTF-8"));
+
+            for (String name : entries.keySet()) {
+                writer.write(name);
+                writer.newLine();
+            }
+
+            writer.close();
+            writer = null;
+
+            if (!temp.renameTo(journal))
+                temp.delete();
+        } catch (IOException ioe) {
+            // The order of use is lost, but the files are fine
+            Log.w(getClass().getSimpleName(), "Cannot write logo cache journal", ioe);
+        } finally {
+            close(writer);
+        }
+    }
+
+    private void deleteLegacyCache() {
+        final File legacy = new File(context.getCacheDir(), LEGACY_CACHE_DIR);
+        final File[] files = legacy.listFiles();
+
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+
+            legacy.delete();
+        }
+    }
+
+    private static String getFileName(UrlKey podcastUrl, Variant variant) {
+        return sha1(podcastUrl.toString()) + "." + variant.name().toLowerCase(Locale.US);
+    }
+
+    /**
+     * Create a file name from some text (like a URL) that is safe to use on
+     * any file system and does practically never collide.
+     * 
+     * @param text The text to digest.
+     * @return The SHA-1 of the text given in hex.
+     */
+    public static String sha1(String text) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(
+                    text.getBytes("UTF-8"));
+            final StringBuilder result = new StringBuilder(digest.length * 2);
+
+            for (byte b : digest)
+                result.append(String.format("%02x", b & 0xff));
+
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Cannot happen, SHA-1 is always there
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            // Cannot happen, UTF-8 is always there
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            if (closeable != null)
+                closeable.close();
+        } catch (IOException e) {
+            // Nothing more we could do here
+        }
+    }
+}
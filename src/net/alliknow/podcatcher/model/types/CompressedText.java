@@ -0,0 +1,195 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.types;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Immutable holder for long texts that are kept in memory, but rarely read,
+ * like the episode show notes. The text is stored as deflated UTF-8 and only
+ * turned back into a string when asked for. Short texts are not worth the
+ * effort and are kept as plain UTF-8.
+ */
+final class CompressedText {
+
+    /** The encoding used for the text */
+    private static final String ENCODING = "UTF-8";
+    /** Texts shorter than this (in bytes) are not compressed */
+    private static final int MIN_COMPRESS_LENGTH = 256;
+
+    /** The (possibly compressed) text */
+    private final byte[] data;
+    /** The length of the UTF-8 encoded text */
+    private final int length;
+    /** Whether the data is deflated */
+    private final boolean compressed;
+
+    private CompressedText(byte[] data, int length, boolean compressed) {
+        this.data = data;
+        this.length = length;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Create a compressed text holder.
+     *
+     * @param text The text to hold.
+     * @return The holder, or <code>null</code> if the text given is
+     *         <code>null</code>.
+     */
+    static CompressedText compress(String text) {
+        if (text == null)
+            return null;
+
+        final byte[] bytes = encode(text);
+        if (bytes.length < MIN_COMPRESS_LENGTH)
+            return new CompressedText(bytes, bytes.length, false);
+
+        // Show notes are HTML, even the fastest setting shrinks them a lot
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+
+            final ByteArrayOutputStream result = new ByteArrayOutputStream(bytes.length / 2);
+            final byte[] buffer = new byte[1024];
+            while (!deflater.finished())
+                result.write(buffer, 0, deflater.deflate(buffer));
+
+            // Keep whatever is smaller
+            final byte[] deflated = result.toByteArray();
+            return deflated.length < bytes.length ?
+                    new CompressedText(deflated, bytes.length, true) :
+                    new CompressedText(bytes, bytes.length, false);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return The text held, inflated if needed.
+     */
+    String getText() {
+        if (!compressed)
+            return decode(data);
+
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+
+            final byte[] result = new byte[length];
+            int offset = 0;
+            while (offset < length && !inflater.finished())
+                offset += inflater.inflate(result, offset, length - offset);
+
+            return decode(result);
+        } catch (DataFormatException e) {
+            // Cannot happen, we deflated the data ourselves
+            throw new IllegalStateException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Write the holder to the given stream as is (without inflating). Use
+     * {@link #read(DataInputStream)} to restore.
+     *
+     * @param text The holder to write, might be <code>null</code>.
+     * @param out The stream to write to.
+     * @throws IOException If writing fails.
+     */
+    static void write(CompressedText text, DataOutputStream out) throws IOException {
+        out.writeBoolean(text != null);
+
+        if (text != null) {
+            out.writeBoolean(text.compressed);
+            out.writeInt(text.length);
+            out.writeInt(text.data.length);
+            out.write(text.data);
+        }
+    }
+
+    /**
+     * Read a holder written by {@link #write(CompressedText, DataOutputStream)}.
+     *
+     * @param in The stream to read from.
+     * @return The holder read, might be <code>null</code>.
+     * @throws IOException If reading fails.
+     */
+    static CompressedText read(DataInputStream in) throws IOException {
+        if (!in.readBoolean())
+            return null;
+
+        final boolean compressed = in.readBoolean();
+        final int length = in.readInt();
+        final byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+
+        return new CompressedText(data, length, compressed);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        else if (!(o instanceof CompressedText))
+            return false;
+
+        final CompressedText other = (CompressedText) o;
+        // Deflating is deterministic, so equal texts yield equal data
+        return length == other.length && compressed == other.compressed
+                && Arrays.equals(data, other.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(data);
+    }
+
+    @Override
+    public String toString() {
+        return getText();
+    }
+
+    private static byte[] encode(String text) {
+        try {
+            return text.getBytes(ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always there
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(byte[] bytes) {
+        try {
+            return new String(bytes, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always there
+            throw new IllegalStateException(e);
+        }
+    }
+}
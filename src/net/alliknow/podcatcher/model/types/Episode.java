@@ -20,20 +20,22 @@ package net.alliknow.podcatcher.model.types;
 import android.text.Html;
 import android.util.Log;
 
+import net.alliknow.podcatcher.model.DateParser;
 import net.alliknow.podcatcher.model.ParserUtils;
 import net.alliknow.podcatcher.model.tags.RSS;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.Locale;
+import java.util.List;
 
 /**
  * The episode type. Each episode represents an item from a podcast's RSS/XML
@@ -45,23 +47,35 @@ public class Episode implements Comparable<Episode> {
     /** The podcast this episode is part of */
     private Podcast podcast;
     /**
-     * The index (starting with zero at the top of the feed) this episode is in
-     * its podcast. -1 means that we do not have this information.
+     * The index (starting with zero at the top of the feed) this episode has
+     * in its podcast's feed. -1 means that we do not have this information.
+     * This is updated when the episode object is re-used on reload, so it
+     * always reflects the feed's current order.
      */
-    private final int index;
+    private volatile int index;
+    /**
+     * The fingerprint of the feed item this episode was read from, used to
+     * spot changes on reload, zero if not available.
+     */
+    private long fingerprint;
 
     /** This episode title */
     private String name;
     /** The episode's online location */
     private URL mediaUrl;
+    /** The key for the episode's online location, used for comparisons */
+    private UrlKey mediaUrlKey;
     /** The episode's release date */
     private Date pubDate;
     /** The episode duration */
     private int duration = -1;
-    /** The episode's description */
-    private String description;
-    /** The episode's long content description */
-    private String content;
+    /**
+     * The episode's description, this is kept compressed since it is only
+     * needed once the episode is actually shown
+     */
+    private CompressedText description;
+    /** The episode's long content description (compressed as well) */
+    private CompressedText content;
 
     /**
      * Create a new episode.
@@ -79,6 +93,31 @@ public class Episode implements Comparable<Episode> {
         this.index = index;
     }
 
+    /**
+     * Create a new episode from an item read from the podcast's feed.
+     * 
+     * @param podcast Podcast this episode belongs to. Cannot be
+     *            <code>null</code>.
+     * @param index The index of the item in the podcast's feed.
+     * @param item The item read by {@link Item#read(XmlPullParser)}.
+     */
+    Episode(Podcast podcast, int index, Item item) {
+        this(podcast, index);
+
+        if (item.title != null)
+            name = Html.fromHtml(item.title.trim()).toString();
+        setMediaUrl(item.getMediaUrl());
+        // Use the first date we can make sense of
+        for (String date : item.dates)
+            if (pubDate == null)
+                pubDate = parsePubDate(date);
+        if (item.duration != null)
+            duration = parseDuration(item.duration);
+        description = CompressedText.compress(item.description);
+        content = CompressedText.compress(item.content);
+        fingerprint = item.getFingerprint();
+    }
+
     /**
      * Create a new episode and set all fields manually.
      * 
@@ -93,8 +132,8 @@ public class Episode implements Comparable<Episode> {
         this(podcast, -1);
 
         this.name = name;
-        this.mediaUrl = mediaUrl;
-        this.description = description;
+        setMediaUrl(mediaUrl);
+        this.description = CompressedText.compress(description);
         // Publication date might not be present
         if (pubDate != null)
             this.pubDate = new Date(pubDate.getTime());
@@ -108,13 +147,25 @@ public class Episode implements Comparable<Episode> {
     }
 
     /**
-     * @return The index for this episode object in the podcast's feed. -1 means
-     *         that this information is not available.
+     * @return The index this episode has in the podcast's feed as of the last
+     *         load. -1 means that this information is not available.
      */
     public int getPositionInPodcast() {
         return index;
     }
 
+    /**
+     * Update the episode's index in its podcast's feed, used when the episode
+     * is re-used on reload. Episodes kept keep their order relative to each
+     * other unless the feed itself re-orders them, so sorted collections of
+     * episodes stay valid.
+     * 
+     * @param index The index of the episode's item in the feed.
+     */
+    void setPositionInPodcast(int index) {
+        this.index = index;
+    }
+
     /**
      * @return The episode's title.
      */
@@ -129,6 +180,15 @@ public class Episode implements Comparable<Episode> {
         return mediaUrl;
     }
 
+    /**
+     * @return The key for the media content online location, use this for
+     *         look-ups and comparisons. Might be <code>null</code> if the
+     *         episode has no media URL.
+     */
+    public UrlKey getMediaUrlKey() {
+        return mediaUrlKey;
+    }
+
     /**
      * @return The publication date for this episode.
      */
@@ -158,18 +218,21 @@ public class Episode implements Comparable<Episode> {
 
     /**
      * @return The description for this episode (if any). Might be
-     *         <code>null</code>.
+     *         <code>null</code>. The text is decompressed on each call, so
+     *         only use this if you actually need it.
      */
     public String getDescription() {
-        return description;
+        return description == null ? null : description.getText();
     }
 
     /**
      * @return The long content description for this episode from the
-     *         content:encoded tag (if any). Might be <code>null</code>.
+     *         content:encoded tag (if any). Might be <code>null</code>. The
+     *         text is decompressed on each call, so only use this if you
+     *         actually need it.
      */
     public String getLongDescription() {
-        return content;
+        return content == null ? null : content.getText();
     }
 
     @Override
@@ -186,15 +249,15 @@ public class Episode implements Comparable<Episode> {
 
         Episode other = (Episode) o;
 
-        if (mediaUrl == null || other.getMediaUrl() == null)
+        if (mediaUrlKey == null || other.getMediaUrlKey() == null)
             return false;
         else
-            return mediaUrl.toString().equals(((Episode) o).getMediaUrl().toString());
+            return mediaUrlKey.equals(other.getMediaUrlKey());
     }
 
     @Override
     public int hashCode() {
-        return mediaUrl == null ? 0 : mediaUrl.toString().hashCode();
+        return mediaUrlKey == null ? 0 : mediaUrlKey.hashCode();
     }
 
     @Override
@@ -208,7 +271,7 @@ public class Episode implements Comparable<Episode> {
             // podcast might publish two episodes at the same pubDate. If it is
             // (and the episode are not equal) we use the original order from
             // the feed instead.
-            return this.equals(another) ? 0 : index - another.getPositionInPodcast();
+            return compareUnequal(another);
         }
         else if (this.pubDate == null && another.getPubDate() != null)
             return -1;
@@ -222,69 +285,210 @@ public class Episode implements Comparable<Episode> {
             // (and the episode are not equal) we use the original order from
             // the feed instead.
             if (result == 0)
-                return this.equals(another) ? 0 : index - another.getPositionInPodcast();
+                return compareUnequal(another);
             else
                 return -1 * result;
         }
     }
 
     /**
-     * Read data from an item node in the RSS/XML podcast file and use it to set
-     * this episode's fields.
+     * Check whether the given feed item is what this episode was read from.
+     * This is stricter than {@link #equals(Object)}, which only looks at the
+     * media URL.
      * 
-     * @param parser Podcast file parser, set to the start tag of the item to
-     *            read.
-     * @throws XmlPullParserException On parsing problems.
-     * @throws IOException On I/O problems.
+     * @param item The item to compare to.
+     * @return <code>true</code> iff the item's content is unchanged.
      */
-    void parse(XmlPullParser parser) throws XmlPullParserException, IOException {
-        // Make sure we start at item tag
-        parser.require(XmlPullParser.START_TAG, "", RSS.ITEM);
-
-        // Look at all start tags of this item
-        while (parser.nextTag() == XmlPullParser.START_TAG) {
-            final String tagName = parser.getName();
-
-            // Episode title
-            if (tagName.equalsIgnoreCase(RSS.TITLE))
-                name = Html.fromHtml(parser.nextText().trim()).toString();
-            // Episode media URL
-            else if (tagName.equalsIgnoreCase(RSS.ENCLOSURE)) {
-                mediaUrl = createMediaUrl(parser.getAttributeValue("", RSS.URL));
-                parser.nextText();
+    boolean hasSameContent(Item item) {
+        return fingerprint != 0 && fingerprint == item.getFingerprint();
+    }
+
+    /**
+     * The raw content of an item in the podcast's feed. Reading this is cheap
+     * (no HTML, date parsing or compression), so the podcast can tell whether
+     * it already knows the episode before building it.
+     */
+    static class Item {
+
+        /** The offset basis for the 64 bit FNV-1a hash */
+        private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+        /** The prime for the 64 bit FNV-1a hash */
+        private static final long FNV_PRIME = 0x100000001b3L;
+
+        /** The raw title */
+        private String title;
+        /** The media URL as given by the enclosure */
+        private String enclosureUrl;
+        /** The publication dates found, in feed order */
+        private final List<String> dates = new ArrayList<String>(2);
+        /** The raw duration */
+        private String duration;
+        /** The raw description */
+        private String description;
+        /** The raw long content description */
+        private String content;
+
+        /** The media URL, created lazily */
+        private URL mediaUrl;
+        /** The fingerprint, calculated lazily */
+        private long fingerprint;
+
+        /**
+         * Read an item node from the RSS/XML podcast file.
+         * 
+         * @param parser Podcast file parser, set to the start tag of the item
+         *            to read.
+         * @return The item read.
+         * @throws XmlPullParserException On parsing problems.
+         * @throws IOException On I/O problems.
+         */
+        static Item read(XmlPullParser parser) throws XmlPullParserException, IOException {
+            // Make sure we start at item tag
+            parser.require(XmlPullParser.START_TAG, "", RSS.ITEM);
+
+            final Item item = new Item();
+            // Look at all start tags of this item
+            while (parser.nextTag() == XmlPullParser.START_TAG) {
+                final String tagName = parser.getName();
+
+                // Episode title
+                if (tagName.equalsIgnoreCase(RSS.TITLE))
+                    item.title = parser.nextText();
+                // Episode media URL
+                else if (tagName.equalsIgnoreCase(RSS.ENCLOSURE)) {
+                    item.enclosureUrl = parser.getAttributeValue("", RSS.URL);
+                    parser.nextText();
+                }
+                // Episode publication date (2 options)
+                else if (tagName.equalsIgnoreCase(RSS.DATE)
+                        || tagName.equalsIgnoreCase(RSS.PUBDATE))
+                    item.dates.add(parser.nextText());
+                // Episode duration
+                else if (tagName.equalsIgnoreCase(RSS.DURATION))
+                    item.duration = parser.nextText();
+                // Episode description
+                else if (tagName.equalsIgnoreCase(RSS.DESCRIPTION))
+                    item.description = parser.nextText();
+                else if (isContentEncodedTag(parser))
+                    item.content = parser.nextText();
+                // Unneeded node, skip...
+                else
+                    ParserUtils.skipSubTree(parser);
             }
-            // Episode publication date (2 options)
-            else if (tagName.equalsIgnoreCase(RSS.DATE) && pubDate == null)
-                pubDate = parsePubDate(parser.nextText());
-            else if (tagName.equalsIgnoreCase(RSS.PUBDATE) && pubDate == null)
-                pubDate = parsePubDate(parser.nextText());
-            // Episode duration
-            else if (tagName.equalsIgnoreCase(RSS.DURATION))
-                duration = parseDuration(parser.nextText());
-            // Episode description
-            else if (tagName.equalsIgnoreCase(RSS.DESCRIPTION))
-                description = parser.nextText();
-            else if (isContentEncodedTag(parser))
-                content = parser.nextText();
-            // Unneeded node, skip...
-            else
-                ParserUtils.skipSubTree(parser);
+
+            // Make sure we end at item tag
+            parser.require(XmlPullParser.END_TAG, "", RSS.ITEM);
+
+            return item;
+        }
+
+        /**
+         * @return The item's media URL, <code>null</code> if not given or
+         *         invalid.
+         */
+        URL getMediaUrl() {
+            if (mediaUrl == null && enclosureUrl != null)
+                mediaUrl = createMediaUrl(enclosureUrl);
+
+            return mediaUrl;
         }
 
-        // Make sure we end at item tag
-        parser.require(XmlPullParser.END_TAG, "", RSS.ITEM);
+        /**
+         * @return A hash over all the item's content, never zero.
+         */
+        long getFingerprint() {
+            if (fingerprint == 0) {
+                long hash = FNV_OFFSET;
+                hash = hash(hash, title);
+                hash = hash(hash, enclosureUrl);
+                for (String date : dates)
+                    hash = hash(hash, date);
+                hash = hash(hash, duration);
+                hash = hash(hash, description);
+                hash = hash(hash, content);
+
+                fingerprint = hash == 0 ? 1 : hash;
+            }
+
+            return fingerprint;
+        }
+
+        private static long hash(long hash, String value) {
+            if (value != null)
+                for (int index = 0; index < value.length(); index++)
+                    hash = (hash ^ value.charAt(index)) * FNV_PRIME;
+
+            // Mark the end of the field, so moving text from one field to
+            // the next changes the hash
+            return (hash ^ (value == null ? -1 : value.length())) * FNV_PRIME;
+        }
     }
 
-    private boolean isContentEncodedTag(XmlPullParser parser) {
+    /**
+     * Write the episode's content to the given stream.
+     * 
+     * @param out Stream to write to.
+     * @throws IOException If writing fails.
+     * @see Podcast#writeSnapshot(DataOutputStream)
+     */
+    void writeSnapshot(DataOutputStream out) throws IOException {
+        Podcast.writeNullableString(out, name);
+        out.writeUTF(mediaUrl.toString());
+        out.writeBoolean(pubDate != null);
+        if (pubDate != null)
+            out.writeLong(pubDate.getTime());
+        out.writeInt(duration);
+        CompressedText.write(description, out);
+        CompressedText.write(content, out);
+        out.writeLong(fingerprint);
+    }
+
+    /**
+     * Read the episode's content from a stream written to by
+     * {@link #writeSnapshot(DataOutputStream)}.
+     * 
+     * @param in Stream to read from.
+     * @throws IOException If reading fails.
+     * @see Podcast#readSnapshot(DataInputStream)
+     */
+    void readSnapshot(DataInputStream in) throws IOException {
+        name = Podcast.readNullableString(in);
+        setMediaUrl(new URL(in.readUTF()));
+        pubDate = in.readBoolean() ? new Date(in.readLong()) : null;
+        duration = in.readInt();
+        description = CompressedText.read(in);
+        content = CompressedText.read(in);
+        fingerprint = in.readLong();
+    }
+
+    private void setMediaUrl(URL mediaUrl) {
+        this.mediaUrl = mediaUrl;
+        this.mediaUrlKey = mediaUrl == null ? null : new UrlKey(mediaUrl);
+    }
+
+    private int compareUnequal(Episode another) {
+        if (this.equals(another))
+            return 0;
+        else if (index != another.getPositionInPodcast())
+            return index - another.getPositionInPodcast();
+        // Episodes from different podcasts might share the index, fall back
+        // to the media URL to keep them apart
+        else if (mediaUrl != null && another.getMediaUrl() != null)
+            return mediaUrl.toString().compareTo(another.getMediaUrl().toString());
+        else
+            return 0;
+    }
+
+    private static boolean isContentEncodedTag(XmlPullParser parser) {
         return RSS.CONTENT_ENCODED.equals(parser.getName()) &&
                 RSS.CONTENT_NAMESPACE.equals(parser.getNamespace(parser.getPrefix()));
     }
 
-    private URL createMediaUrl(String url) {
+    private static URL createMediaUrl(String url) {
         try {
             return new URL(url);
         } catch (MalformedURLException e) {
-            Log.e(getClass().getSimpleName(), "Episode has invalid URL", e);
+            Log.e(Episode.class.getSimpleName(), "Episode has invalid URL", e);
         }
 
         return null;
@@ -292,11 +496,8 @@ public class Episode implements Comparable<Episode> {
 
     private Date parsePubDate(String value) {
         try {
-            // RSS/XML files use this format for dates
-            DateFormat formatter =
-                    new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.ENGLISH);
-
-            return formatter.parse(value);
+            // RSS/XML files use RFC 822 (pubDate) or ISO 8601 (dc:date)
+            return DateParser.parse(value);
         } catch (ParseException e) {
             Log.w(getClass().getSimpleName(), "Episode has invalid publication date", e);
         }
@@ -0,0 +1,91 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.types;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes a reload made to a podcast's list of episodes. Episodes are
+ * identified by their media URL. Episodes not listed here have not changed and
+ * the podcast still holds the very same episode objects as before the reload.
+ * 
+ * @see Podcast#getLastChanges()
+ */
+public class EpisodeDiff {
+
+    /** The episodes new to the podcast */
+    private final List<Episode> added = new ArrayList<Episode>();
+    /** The episodes no longer part of the podcast */
+    private final List<Episode> removed = new ArrayList<Episode>();
+    /** The episodes with changed content (new objects) */
+    private final List<Episode> changed = new ArrayList<Episode>();
+
+    /**
+     * @return The episodes added to the podcast by the reload. Might be empty
+     *         but not <code>null</code>.
+     */
+    public List<Episode> getAdded() {
+        return Collections.unmodifiableList(added);
+    }
+
+    /**
+     * @return The episodes removed from the podcast by the reload. These are
+     *         the episode objects the podcast held before. Might be empty but
+     *         not <code>null</code>.
+     */
+    public List<Episode> getRemoved() {
+        return Collections.unmodifiableList(removed);
+    }
+
+    /**
+     * @return The episodes that are still part of the podcast, but had their
+     *         content changed by the reload. These are new episode objects
+     *         replacing the ones the podcast held before. Might be empty but
+     *         not <code>null</code>.
+     */
+    public List<Episode> getChanged() {
+        return Collections.unmodifiableList(changed);
+    }
+
+    /**
+     * @return <code>true</code> iff the reload did not change the podcast's
+     *         episodes at all.
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "+" + added.size() + " -" + removed.size() + " ~" + changed.size();
+    }
+
+    void addAdded(Episode episode) {
+        added.add(episode);
+    }
+
+    void addRemoved(Episode episode) {
+        removed.add(episode);
+    }
+
+    void addChanged(Episode episode) {
+        changed.add(episode);
+    }
+}
@@ -93,11 +93,11 @@ public class EpisodeMetadata {
      * @param episodeUrl URL for the new episode to be identified by.
      * @return An episode object or <code>null</code> if something goes wrong.
      */
-    public Episode marshalEpisode(URL episodeUrl) {
+    public Episode marshalEpisode(UrlKey episodeUrl) {
         PodcastManager manager = PodcastManager.getInstance();
 
         // Try to get episode from the podcast manager
-        Episode result = manager.findEpisodeForUrl(episodeUrl.toString());
+        Episode result = manager.findEpisodeForUrl(episodeUrl);
         // No luck, create episode
         if (result == null) {
             // Try to get podcast from the podcast manager
@@ -111,7 +111,7 @@ public class EpisodeMetadata {
                 }
 
             // Create the episode
-            result = new Episode(podcast, episodeName, episodeUrl, episodePubDate,
+            result = new Episode(podcast, episodeName, episodeUrl.getUrl(), episodePubDate,
                     episodeDescription);
         }
 
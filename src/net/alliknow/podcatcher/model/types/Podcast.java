@@ -17,7 +17,6 @@
 
 package net.alliknow.podcatcher.model.types;
 
-import android.graphics.Bitmap;
 import android.text.Html;
 import android.util.Base64;
 import android.util.Log;
@@ -28,12 +27,17 @@ import net.alliknow.podcatcher.model.tags.RSS;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The podcast type. This represents the most important type in the podcatcher
@@ -45,11 +49,24 @@ public class Podcast implements Comparable<Podcast> {
 
     /** Name of the podcast */
     private String name;
-    /** Location of the podcast's RSS file */
-    private URL url;
+    /** Location of the podcast's RSS file, changes if the feed moves */
+    private volatile URL url;
+    /**
+     * The key for the podcast's location, used for comparisons. This is the
+     * podcast's identity and does not change when the feed moves.
+     */
+    private final UrlKey urlKey;
 
-    /** The podcasts list of episodes */
-    private List<Episode> episodes = new ArrayList<Episode>();
+    /** The version of the snapshot format, increase on any change */
+    private static final int SNAPSHOT_VERSION = 2;
+
+    /**
+     * The podcasts list of episodes. This is an unmodifiable snapshot, a parse
+     * replaces the list as a whole, so readers never see a partial update.
+     */
+    private volatile List<Episode> episodes = Collections.emptyList();
+    /** The changes the last parse made to the list of episodes */
+    private EpisodeDiff lastChanges;
 
     /** Podcast's description */
     private String description;
@@ -67,11 +84,17 @@ public class Podcast implements Comparable<Podcast> {
 
     /** The podcast's image (logo) location */
     private URL logoUrl;
-    /** The cached logo bitmap */
-    private Bitmap logo;
 
     /** The point in time when the RSS file as last been set */
     private Date updated;
+    /** The entity tag validator sent with the RSS file */
+    private String eTag;
+    /** The last modified validator sent with the RSS file */
+    private String lastModified;
+    /** The point in time the server considers the RSS file fresh until */
+    private Date freshUntil;
+    /** The location the RSS file has moved to permanently */
+    private URL movedTo;
 
     /**
      * Create a new podcast by name and RSS file location. The name will not be
@@ -87,6 +110,7 @@ public class Podcast implements Comparable<Podcast> {
     public Podcast(String name, URL url) {
         this.name = name;
         this.url = url;
+        this.urlKey = url == null ? null : new UrlKey(url);
     }
 
     /**
@@ -103,6 +127,28 @@ public class Podcast implements Comparable<Podcast> {
         return url;
     }
 
+    /**
+     * Move the podcast to a new online location, e.g. because the feed has
+     * moved permanently. This will not change the podcast's identity as given
+     * by {@link #getUrlKey()}, the podcast will only compare equal to podcasts
+     * at the new location once re-created.
+     * 
+     * @param url The new location of the podcast's RSS file.
+     */
+    public void setUrl(URL url) {
+        this.url = url;
+    }
+
+    /**
+     * @return The key for the podcast's online location, use this for
+     *         look-ups and comparisons. Might be <code>null</code> if the
+     *         podcast has no URL. This is the location the podcast was
+     *         created with, see {@link #setUrl(URL)}.
+     */
+    public UrlKey getUrlKey() {
+        return urlKey;
+    }
+
     /**
      * @return The description.
      */
@@ -213,13 +259,14 @@ public class Podcast implements Comparable<Podcast> {
      * <code>null</code> but an empty list when encountering problems. Set and
      * parse the RSS file before expecting any results.
      * 
-     * @return The list of episodes as listed in the feed.
+     * @return The list of episodes as listed in the feed. The list is
+     *         unmodifiable and will not reflect later loads.
      * @see #parse(XmlPullParser)
      */
     public List<Episode> getEpisodes() {
-        // Need to return a copy, so nobody can change this on us and changes
-        // made in the model do not make problems in the UI
-        return new ArrayList<Episode>(episodes);
+        // No need to copy, the list is unmodifiable and will not change, the
+        // next parse will replace it instead
+        return episodes;
     }
 
     /**
@@ -240,45 +287,70 @@ public class Podcast implements Comparable<Podcast> {
         return logoUrl;
     }
 
-    /**
-     * Get a cached logo for this podcast.
-     * 
-     * @return The cached logo if it was previously set using
-     *         <code>setLogo()</code>, <code>null</code> otherwise.
-     */
-    public Bitmap getLogo() {
-        return logo;
-    }
-
-    /**
-     * Cache the podcast given.
-     * 
-     * @param logo Logo to use for this podcast.
-     */
-    public void setLogo(Bitmap logo) {
-        this.logo = logo;
-    }
-
     /**
      * Set the RSS file parser representing this podcast. This is were the
      * object gets its information from. Many of its methods will not return
      * valid results unless this method was called. Calling this method also
      * resets all information read earlier.
+     * <p>
+     * Episodes are merged into the list already present: If an episode with
+     * the same media URL and unchanged content is already known, that episode
+     * object is kept (the item is not even turned into an episode). Only new
+     * or changed episodes will end up as new objects in the podcast. Use
+     * {@link #getLastChanges()} to find out what the call changed.
+     * </p>
      * 
      * @param parser Parser used to read the RSS/XML file.
      * @throws IOException If we encounter problems read the file.
      * @throws XmlPullParserException On parsing errors.
+     * @see #parse(XmlPullParser, int)
      */
     public void parse(XmlPullParser parser) throws XmlPullParserException, IOException {
-        // Reset state
-        episodes.clear();
-        updated = new Date();
+        parse(parser, -1);
+    }
+
+    /**
+     * Same as {@link #parse(XmlPullParser)}, but allows for an incremental
+     * parse: Since feeds list their latest episodes first, we can stop reading
+     * the file once we have seen a number of consecutive episodes we already
+     * know. All the episodes we knew to follow the last one seen are then
+     * re-used as they are. This makes the parse time depend on the number of
+     * new episodes instead of the length of the feed. The downside is that
+     * changes further down the feed will go unnoticed, so make sure to run a
+     * full parse every once in a while.
+     * 
+     * @param parser Parser used to read the RSS/XML file.
+     * @param stopAfterKnown The number of consecutive known episodes to find
+     *            before the parse stops. Give zero or a negative number to
+     *            always read the complete file.
+     * @throws IOException If we encounter problems read the file.
+     * @throws XmlPullParserException On parsing errors.
+     */
+    public void parse(XmlPullParser parser, int stopAfterKnown)
+            throws XmlPullParserException, IOException {
+        // Reset state (this also makes any snapshot restore running late
+        // leave the podcast alone)
+        final List<Episode> previousEpisodes;
+        synchronized (this) {
+            updated = new Date();
+            previousEpisodes = episodes;
+        }
+
+        // The episodes we know of, keyed by their media URL
+        final Map<UrlKey, Episode> knownEpisodes = new HashMap<UrlKey, Episode>();
+        for (Episode episode : previousEpisodes)
+            knownEpisodes.put(episode.getMediaUrlKey(), episode);
+        // The new list of episodes and the changes made to it
+        final List<Episode> newEpisodes = new ArrayList<Episode>();
+        final EpisodeDiff changes = new EpisodeDiff();
 
         // Start parsing
         int eventType = parser.next();
         int episodeIndex = 0;
+        // The number of known episodes seen in a row
+        int knownInARow = 0;
 
-        // Read complete document
+        // Read complete document (or until we know enough)
         while (eventType != XmlPullParser.END_DOCUMENT) {
             // We only need start tags here
             if (eventType == XmlPullParser.START_TAG) {
@@ -294,13 +366,148 @@ public class Podcast implements Comparable<Podcast> {
                 else if (tagName.equalsIgnoreCase(RSS.THUMBNAIL))
                     loadThumbnail(parser);
                 // Episode found
-                else if (tagName.equalsIgnoreCase(RSS.ITEM))
-                    loadEpisode(parser, episodeIndex++);
+                else if (tagName.equalsIgnoreCase(RSS.ITEM)) {
+                    final Episode known =
+                            loadEpisode(parser, episodeIndex++, knownEpisodes, newEpisodes, changes);
+                    knownInARow = known == null ? 0 : knownInARow + 1;
+
+                    // We have seen enough, splice in the rest of the
+                    // episodes we know from the last load and stop
+                    if (stopAfterKnown > 0 && knownInARow >= stopAfterKnown) {
+                        final int lastKnownIndex = previousEpisodes.indexOf(known);
+
+                        for (Episode episode : previousEpisodes.subList(lastKnownIndex + 1,
+                                previousEpisodes.size()))
+                            if (knownEpisodes.remove(episode.getMediaUrlKey()) != null) {
+                                episode.setPositionInPodcast(episodeIndex++);
+                                newEpisodes.add(episode);
+                            }
+
+                        break;
+                    }
+                }
             }
 
             // Done, get next parsing event
             eventType = parser.next();
         }
+
+        // All episodes we knew and did not find again are gone
+        for (Episode episode : knownEpisodes.values())
+            changes.addRemoved(episode);
+
+        // Only replace the list of episodes once the complete feed is read
+        synchronized (this) {
+            this.episodes = Collections.unmodifiableList(newEpisodes);
+            this.lastChanges = changes;
+        }
+    }
+
+    /**
+     * Write the podcast's content (as read by {@link #parse(XmlPullParser)})
+     * to the given stream. Use {@link #readSnapshot(DataInputStream)} to
+     * restore it. The format is compact binary and only meant to be read by
+     * this class.
+     * 
+     * @param out The stream to write to.
+     * @throws IOException If writing fails.
+     */
+    public void writeSnapshot(DataOutputStream out) throws IOException {
+        // Take a consistent copy of what we need first
+        final List<Episode> episodes;
+        final Date updated;
+        synchronized (this) {
+            episodes = this.episodes;
+            updated = this.updated;
+        }
+
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeUTF(url.toString());
+        writeNullableString(out, name);
+        writeNullableString(out, logoUrl == null ? null : logoUrl.toString());
+        out.writeLong(updated == null ? -1 : updated.getTime());
+        writeNullableString(out, eTag);
+        writeNullableString(out, lastModified);
+
+        out.writeInt(episodes.size());
+        for (Episode episode : episodes)
+            episode.writeSnapshot(out);
+    }
+
+    /**
+     * Restore the podcast's content from a snapshot written by
+     * {@link #writeSnapshot(DataOutputStream)}. This will not do anything if
+     * the podcast has already been loaded (or started to load), since a
+     * snapshot can only be older than what we have. Restored podcasts look as
+     * if they have been loaded at the time the snapshot was taken, all their
+     * episodes are reported as added by {@link #getLastChanges()}.
+     * 
+     * @param in The stream to read from.
+     * @return <code>true</code> iff the snapshot has been applied.
+     * @throws IOException If reading fails or the snapshot does not match this
+     *             podcast or format.
+     */
+    public boolean readSnapshot(DataInputStream in) throws IOException {
+        if (in.readInt() != SNAPSHOT_VERSION)
+            throw new IOException("Unsupported snapshot version");
+        else if (!url.toString().equals(in.readUTF()))
+            throw new IOException("Snapshot is for another podcast");
+
+        final String restoredName = readNullableString(in);
+        final String restoredLogoUrl = readNullableString(in);
+        final long restoredUpdated = in.readLong();
+        final String restoredETag = readNullableString(in);
+        final String restoredLastModified = readNullableString(in);
+
+        final int count = in.readInt();
+        final List<Episode> restoredEpisodes = new ArrayList<Episode>(count);
+        final EpisodeDiff changes = new EpisodeDiff();
+        for (int index = 0; index < count; index++) {
+            final Episode episode = new Episode(this, index);
+            episode.readSnapshot(in);
+
+            restoredEpisodes.add(episode);
+            changes.addAdded(episode);
+        }
+
+        // Only apply if we are not loaded yet
+        synchronized (this) {
+            if (updated != null)
+                return false;
+
+            if (name == null)
+                this.name = restoredName;
+            this.logoUrl = restoredLogoUrl == null ? null : createLogoUrl(restoredLogoUrl);
+            this.updated = restoredUpdated < 0 ? null : new Date(restoredUpdated);
+            this.eTag = restoredETag;
+            this.lastModified = restoredLastModified;
+            this.episodes = Collections.unmodifiableList(restoredEpisodes);
+            this.lastChanges = changes;
+        }
+
+        return true;
+    }
+
+    static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Get the changes the last call to {@link #parse(XmlPullParser)} made to
+     * the podcast's episodes. If the last load found the RSS file unchanged
+     * (see {@link #refreshLastLoaded()}), the changes returned are empty.
+     * 
+     * @return The changes or <code>null</code> if the podcast has not been
+     *         loaded yet.
+     */
+    public EpisodeDiff getLastChanges() {
+        return lastChanges;
     }
 
     /**
@@ -314,6 +521,91 @@ public class Podcast implements Comparable<Podcast> {
             return new Date(updated.getTime());
     }
 
+    /**
+     * Set the point in time this podcast has last been loaded to now without
+     * changing any of its content. Use this if the server tells us that the RSS
+     * file has not changed since {@link #parse(XmlPullParser)} was last called.
+     */
+    public void refreshLastLoaded() {
+        updated = new Date();
+        lastChanges = new EpisodeDiff();
+    }
+
+    /**
+     * @return The entity tag validator the server sent with the RSS file last
+     *         parsed. Might be <code>null</code> if not available.
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * Set the entity tag validator to send when loading the RSS file again.
+     * 
+     * @param eTag Entity tag as given by the server. Give <code>null</code> to
+     *            reset.
+     */
+    public void setETag(String eTag) {
+        this.eTag = eTag;
+    }
+
+    /**
+     * @return The last modified validator the server sent with the RSS file
+     *         last parsed. Might be <code>null</code> if not available.
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Set the last modified validator to send when loading the RSS file again.
+     * 
+     * @param lastModified The last modified date as given by the server. Give
+     *            <code>null</code> to reset.
+     */
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return The point in time until which the server told us the RSS file
+     *         will not change (from the Cache-Control or Expires header). Might
+     *         be <code>null</code> if not available.
+     */
+    public Date getFreshUntil() {
+        return freshUntil == null ? null : new Date(freshUntil.getTime());
+    }
+
+    /**
+     * Set the point in time until which the RSS file is considered fresh by
+     * the server.
+     * 
+     * @param freshUntil The date as given by the server. Give
+     *            <code>null</code> to reset.
+     */
+    public void setFreshUntil(Date freshUntil) {
+        this.freshUntil = freshUntil == null ? null : new Date(freshUntil.getTime());
+    }
+
+    /**
+     * @return The location the server told us the RSS file has moved to
+     *         permanently on the last load, <code>null</code> if it has not
+     *         moved. Use {@link #setUrl(URL)} to actually move the podcast.
+     */
+    public URL getMovedTo() {
+        return movedTo;
+    }
+
+    /**
+     * Set the location the RSS file has moved to permanently.
+     * 
+     * @param movedTo The new location as found by the load. Give
+     *            <code>null</code> to reset.
+     */
+    public void setMovedTo(URL movedTo) {
+        this.movedTo = movedTo;
+    }
+
     @Override
     public String toString() {
         if (name == null)
@@ -333,15 +625,15 @@ public class Podcast implements Comparable<Podcast> {
 
         Podcast other = (Podcast) o;
 
-        if (url == null || other.getUrl() == null)
+        if (urlKey == null || other.getUrlKey() == null)
             return false;
         else
-            return url.toString().equals(((Podcast) o).getUrl().toString());
+            return urlKey.equals(other.getUrlKey());
     }
 
     @Override
     public int hashCode() {
-        return url == null ? 0 : url.toString().hashCode();
+        return urlKey == null ? 0 : urlKey.hashCode();
     }
 
     @Override
@@ -408,14 +700,40 @@ public class Podcast implements Comparable<Podcast> {
         return null;
     }
 
-    private void loadEpisode(XmlPullParser parser, int index)
+    /**
+     * @return The episode we already knew for the item read or
+     *         <code>null</code> if the item was new to us (or not playable).
+     */
+    private Episode loadEpisode(XmlPullParser parser, int index,
+            Map<UrlKey, Episode> knownEpisodes, List<Episode> newEpisodes, EpisodeDiff changes)
             throws XmlPullParserException, IOException {
-        // Create episode and parse the data
-        Episode newEpisode = new Episode(this, index);
-        newEpisode.parse(parser);
+        // Read the raw item only, the episode is not built unless needed
+        final Episode.Item item = Episode.Item.read(parser);
 
         // Only add if there is some actual content to play
-        if (newEpisode.getMediaUrl() != null)
-            episodes.add(newEpisode);
+        if (item.getMediaUrl() != null) {
+            final Episode knownEpisode = knownEpisodes.remove(new UrlKey(item.getMediaUrl()));
+
+            // We know this one and nothing changed, keep the old object, but
+            // move it to where it is in the feed now
+            if (knownEpisode != null && knownEpisode.hasSameContent(item)) {
+                knownEpisode.setPositionInPodcast(index);
+                newEpisodes.add(knownEpisode);
+            }
+            // This is new to us or changed
+            else {
+                final Episode newEpisode = new Episode(this, index, item);
+                newEpisodes.add(newEpisode);
+
+                if (knownEpisode == null)
+                    changes.addAdded(newEpisode);
+                else
+                    changes.addChanged(newEpisode);
+            }
+
+            return knownEpisode;
+        }
+
+        return null;
     }
 }
@@ -0,0 +1,132 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.types;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Locale;
+
+/**
+ * Immutable key for feed and media URLs. Use this instead of {@link URL} in
+ * maps and sets: {@link URL#equals(Object)} and {@link URL#hashCode()} might
+ * resolve the host name (i.e. go to the network) and are slow at best. The key
+ * holds a normalized form of the URL (scheme and host in lower case, no
+ * default port, root path spelled out) and its hash code is calculated only
+ * once.
+ */
+public final class UrlKey implements Comparable<UrlKey> {
+
+    /** The original URL */
+    private final URL url;
+    /** The normalized form of the URL */
+    private final String key;
+    /** The hash code (of the normalized form) */
+    private final int hash;
+
+    /**
+     * Create a new key.
+     *
+     * @param url The URL to create the key for. Cannot be <code>null</code>.
+     */
+    public UrlKey(URL url) {
+        if (url == null)
+            throw new NullPointerException("Cannot create key for null URL!");
+
+        this.url = url;
+        this.key = normalize(url);
+        this.hash = key.hashCode();
+    }
+
+    /**
+     * Create a new key from its string representation.
+     *
+     * @param url The URL string to parse.
+     * @return The key.
+     * @throws MalformedURLException If the string is not a valid URL.
+     */
+    public static UrlKey parse(String url) throws MalformedURLException {
+        return new UrlKey(new URL(url));
+    }
+
+    /**
+     * @return The URL this key was created for (not normalized).
+     */
+    public URL getUrl() {
+        return url;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        else if (!(o instanceof UrlKey))
+            return false;
+
+        final UrlKey other = (UrlKey) o;
+        return hash == other.hash && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public int compareTo(UrlKey another) {
+        return key.compareTo(another.key);
+    }
+
+    /**
+     * @return The normalized form of the URL. Can be used with
+     *         {@link #parse(String)} to re-create an equal key.
+     */
+    @Override
+    public String toString() {
+        return key;
+    }
+
+    private static String normalize(URL url) {
+        final String protocol = url.getProtocol().toLowerCase(Locale.US);
+        final StringBuilder builder = new StringBuilder(url.toString().length());
+
+        builder.append(protocol).append(':');
+        if (url.getHost() != null && url.getHost().length() > 0) {
+            builder.append("//");
+            if (url.getUserInfo() != null)
+                builder.append(url.getUserInfo()).append('@');
+            builder.append(url.getHost().toLowerCase(Locale.US));
+
+            // Only keep the port if it is not the default one anyway
+            final int port = url.getPort();
+            if (port != -1 && port != url.getDefaultPort())
+                builder.append(':').append(port);
+
+            // "http://example.com" and "http://example.com/" are the same
+            if (url.getPath().length() == 0)
+                builder.append('/');
+        }
+
+        builder.append(url.getPath());
+        if (url.getQuery() != null)
+            builder.append('?').append(url.getQuery());
+        if (url.getRef() != null)
+            builder.append('#').append(url.getRef());
+
+        return builder.toString();
+    }
+}
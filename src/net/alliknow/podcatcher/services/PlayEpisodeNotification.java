@@ -25,7 +25,6 @@ import android.app.Notification;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
-import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.support.v4.app.NotificationCompat;
 
@@ -35,11 +34,9 @@ import net.alliknow.podcatcher.PodcastActivity;
 import net.alliknow.podcatcher.Podcatcher;
 import net.alliknow.podcatcher.R;
 import net.alliknow.podcatcher.model.EpisodeManager;
+import net.alliknow.podcatcher.model.PodcastManager;
+import net.alliknow.podcatcher.model.tasks.remote.PodcastLogoDiskCache.Variant;
 import net.alliknow.podcatcher.model.types.Episode;
-import net.alliknow.podcatcher.model.types.Podcast;
-
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Helper class for the {@link PlayEpisodeService} to encapsulate the complexity
@@ -61,8 +58,6 @@ public class PlayEpisodeNotification {
 
     /** Our builder */
     private NotificationCompat.Builder notificationBuilder;
-    /** The cache for the scaled bitmaps */
-    private Map<String, Bitmap> bitmapCache = new HashMap<String, Bitmap>();
 
     private PlayEpisodeNotification(Context context) {
         this.context = context;
@@ -157,12 +152,18 @@ public class PlayEpisodeNotification {
             notificationBuilder.addAction(R.drawable.ic_media_next,
                     context.getString(R.string.next), nextPendingIntent);
 
-        // Apply the notification style
-        if (isLargeDevice() && isPodcastLogoAvailable(episode))
+        // Apply the notification style, the disk cache has a logo variant
+        // at the right size for both
+        final Variant variant = isLargeDevice() ? Variant.LARGE : Variant.NOTIFICATION;
+        final Bitmap logo = PodcastManager.getInstance().getLogo(episode.getPodcast(), variant);
+        if (logo != null && Variant.LARGE.equals(variant))
             notificationBuilder.setStyle(new NotificationCompat.BigPictureStyle()
-                    .bigPicture(episode.getPodcast().getLogo()));
-        else if (isPodcastLogoAvailable(episode))
-            notificationBuilder.setLargeIcon(getScaledBitmap(episode.getPodcast()));
+                    .bigPicture(logo));
+        else if (logo != null)
+            notificationBuilder.setLargeIcon(logo);
+        // The logo has been dropped from memory, bring it back for next time
+        else
+            PodcastManager.getInstance().loadLogo(episode.getPodcast(), variant, true);
 
         return notificationBuilder.build();
     }
@@ -182,26 +183,7 @@ public class PlayEpisodeNotification {
         return notificationBuilder.build();
     }
 
-    private boolean isPodcastLogoAvailable(Episode episode) {
-        return episode.getPodcast().getLogo() != null;
-    }
-
     private boolean isLargeDevice() {
         return context.getResources().getConfiguration().smallestScreenWidthDp >= Podcatcher.MIN_PIXEL_LARGE;
     }
-
-    private Bitmap getScaledBitmap(Podcast podcast) {
-        final String cacheKey = podcast.getUrl().toString();
-
-        if (!bitmapCache.containsKey(cacheKey)) {
-            final Resources res = context.getResources();
-            int height = (int) res.getDimension(android.R.dimen.notification_large_icon_height);
-            int width = (int) res.getDimension(android.R.dimen.notification_large_icon_width);
-
-            bitmapCache.put(cacheKey,
-                    Bitmap.createScaledBitmap(podcast.getLogo(), width, height, false));
-        }
-
-        return bitmapCache.get(cacheKey);
-    }
 }
@@ -22,7 +22,6 @@ import static android.media.RemoteControlClient.PLAYSTATE_ERROR;
 import static android.media.RemoteControlClient.PLAYSTATE_PAUSED;
 import static android.media.RemoteControlClient.PLAYSTATE_PLAYING;
 import static android.media.RemoteControlClient.PLAYSTATE_STOPPED;
-import static net.alliknow.podcatcher.Podcatcher.AUTHORIZATION_KEY;
 
 import android.app.PendingIntent;
 import android.app.Service;
@@ -51,9 +50,9 @@ import net.alliknow.podcatcher.SettingsActivity;
 import net.alliknow.podcatcher.listeners.OnChangePlaylistListener;
 import net.alliknow.podcatcher.listeners.PlayServiceListener;
 import net.alliknow.podcatcher.model.EpisodeManager;
+import net.alliknow.podcatcher.model.tasks.remote.HttpConnectionManager;
 import net.alliknow.podcatcher.model.types.Episode;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -287,17 +286,11 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
                     player.setDataSource(episodeManager.getLocalPath(episode));
                 // Need to resort to remote file
                 else {
-                    // Set source (and authorization if needed)
-                    if (episode.getPodcast().getAuthorization() != null) {
-                        final HashMap<String, String> headers = new HashMap<String, String>(1);
-                        headers.put(AUTHORIZATION_KEY, episode.getPodcast().getAuthorization());
-
-                        player.setDataSource(this,
-                                Uri.parse(currentEpisode.getMediaUrl().toString()), headers);
-                    }
-                    // No auth available we could send to the server
-                    else
-                        player.setDataSource(currentEpisode.getMediaUrl().toString());
+                    // Set source (and authorization if needed), send the
+                    // same headers as all our other requests
+                    player.setDataSource(this, Uri.parse(currentEpisode.getMediaUrl().toString()),
+                            HttpConnectionManager.getRequestHeaders(
+                                    episode.getPodcast().getAuthorization()));
 
                     // We are streaming, so make wifi stay alive
                     wifiLock.acquire();
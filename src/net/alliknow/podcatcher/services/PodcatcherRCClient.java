@@ -24,9 +24,11 @@ import static android.media.MediaMetadataRetriever.METADATA_KEY_TITLE;
 import static android.media.RemoteControlClient.MetadataEditor.BITMAP_KEY_ARTWORK;
 
 import android.app.PendingIntent;
+import android.graphics.Bitmap;
 import android.media.RemoteControlClient;
 
 import net.alliknow.podcatcher.model.EpisodeManager;
+import net.alliknow.podcatcher.model.PodcastManager;
 import net.alliknow.podcatcher.model.types.Episode;
 import net.alliknow.podcatcher.view.Utils;
 
@@ -76,8 +78,9 @@ public class PodcatcherRCClient extends RemoteControlClient {
             if (episode.getPodcast() != null) {
                 editor.putString(METADATA_KEY_ARTIST, episode.getPodcast().getName());
 
-                if (episode.getPodcast().getLogo() != null)
-                    editor.putBitmap(BITMAP_KEY_ARTWORK, episode.getPodcast().getLogo());
+                final Bitmap logo = PodcastManager.getInstance().getLogo(episode.getPodcast());
+                if (logo != null)
+                    editor.putBitmap(BITMAP_KEY_ARTWORK, logo);
             }
 
             editor.apply();
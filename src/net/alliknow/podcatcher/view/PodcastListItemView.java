@@ -18,12 +18,14 @@
 package net.alliknow.podcatcher.view;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.util.AttributeSet;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import net.alliknow.podcatcher.R;
+import net.alliknow.podcatcher.model.tasks.remote.PodcastLogoDiskCache.Variant;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
 
@@ -72,7 +74,8 @@ public class PodcastListItemView extends PodcatcherListItemView {
         // 0. Check podcast state
         final boolean loading = podcastManager.isLoading(podcast);
         final int episodeNumber = podcast.getEpisodeNumber();
-        final boolean showLogoView = showLogo && podcast.getLogo() != null;
+        final Bitmap logo = showLogo ? podcastManager.getLogo(podcast, Variant.ROW) : null;
+        final boolean showLogoView = logo != null;
         final boolean progressShouldFade = podcast.hashCode() == lastItemId;
 
         // 1. Set podcast title
@@ -99,9 +102,10 @@ public class PodcastListItemView extends PodcatcherListItemView {
         // recycled and it should not show another podcast's progress
         progressView.publishProgress(Progress.WAIT);
 
-        // 4. Set podcast logo if available
+        // 4. Set podcast logo if available (the list fragment makes sure
+        // the logos for the rows showing are loaded)
         logoView.setVisibility(showLogoView ? VISIBLE : GONE);
-        logoView.setImageBitmap(showLogoView ? podcast.getLogo() : null);
+        logoView.setImageBitmap(logo);
 
         // 5. Store state to make sure it is available next time show() is
         // called and we can decide whether to crossfade or not
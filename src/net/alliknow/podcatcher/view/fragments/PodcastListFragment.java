@@ -23,6 +23,7 @@ import android.animation.ValueAnimator;
 import android.animation.ValueAnimator.AnimatorUpdateListener;
 import android.app.Activity;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -32,6 +33,8 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewGroup.LayoutParams;
 import android.view.ViewTreeObserver;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.ImageView;
 import android.widget.ImageView.ScaleType;
 import android.widget.ListView;
@@ -41,10 +44,12 @@ import net.alliknow.podcatcher.R;
 import net.alliknow.podcatcher.adapters.PodcastListAdapter;
 import net.alliknow.podcatcher.listeners.OnSelectPodcastListener;
 import net.alliknow.podcatcher.listeners.PodcastListContextListener;
+import net.alliknow.podcatcher.model.PodcastManager;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
 import net.alliknow.podcatcher.view.PodcastListItemView;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -152,6 +157,20 @@ public class PodcastListFragment extends PodcatcherListFragment {
 
         // Set list choice listener (context action mode)
         getListView().setMultiChoiceModeListener(new PodcastListContextListener(this));
+        // Load the logos for the rows showing (this is also called on layout)
+        getListView().setOnScrollListener(new OnScrollListener() {
+
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                // pass
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                    int totalItemCount) {
+                loadVisibleLogos(firstVisibleItem, visibleItemCount);
+            }
+        });
 
         // Consider the view created successfully beyond this point
         viewCreated = true;
@@ -207,7 +226,8 @@ public class PodcastListFragment extends PodcatcherListFragment {
      * @param podcastList List of podcasts to show.
      */
     public void setPodcastList(List<Podcast> podcastList) {
-        this.currentPodcastList = podcastList;
+        // We change the list on add/remove, so we need our own copy
+        this.currentPodcastList = new ArrayList<Podcast>(podcastList);
 
         showProgress = false;
         showLoadFailed = false;
@@ -322,9 +342,13 @@ public class PodcastListFragment extends PodcatcherListFragment {
         if (viewCreated) {
             // SMALL means that the adapter needs to make the individual podcast
             // list item view show the podcast icon, see there
-            if (adapter != null)
+            if (adapter != null) {
                 ((PodcastListAdapter) adapter).setShowLogo(LogoViewMode.SMALL.equals(logoViewMode));
 
+                loadVisibleLogos(getListView().getFirstVisiblePosition(),
+                        getListView().getChildCount());
+            }
+
             // LARGE shows the big image view below the list
             if (LogoViewMode.LARGE.equals(logoViewMode)) {
                 updatePodcastLogoView();
@@ -400,13 +424,38 @@ public class PodcastListFragment extends PodcatcherListFragment {
         animator.start();
     }
 
+    private void loadVisibleLogos(int firstVisible, int visibleCount) {
+        // Only the small logos show in the list rows
+        if (adapter != null && LogoViewMode.SMALL.equals(logoViewMode)) {
+            final int count = adapter.getCount();
+            final int lastVisible = Math.min(firstVisible + visibleCount, count);
+            // Prefetch the next screen
+            final int lastPrefetch = Math.min(lastVisible + visibleCount, count);
+
+            final List<Podcast> visible = new ArrayList<Podcast>(visibleCount);
+            for (int position = Math.max(0, firstVisible); position < lastVisible; position++)
+                visible.add((Podcast) adapter.getItem(position));
+            final List<Podcast> prefetch = new ArrayList<Podcast>(visibleCount);
+            for (int position = lastVisible; position < lastPrefetch; position++)
+                prefetch.add((Podcast) adapter.getItem(position));
+
+            PodcastManager.getInstance().loadLogos(visible, prefetch);
+        }
+        // No logos in the list, nothing to load
+        else
+            PodcastManager.getInstance().loadLogos(Collections.<Podcast> emptyList(),
+                    Collections.<Podcast> emptyList());
+    }
+
     private void updatePodcastLogoView() {
         if (currentPodcastList != null && selectedPosition >= 0) {
             final Podcast selectedPodcast = currentPodcastList.get(selectedPosition);
 
+            final Bitmap logo = PodcastManager.getInstance().getLogo(selectedPodcast);
+
             // Check for logo and show it if available
-            if (selectedPodcast.getLogo() != null) {
-                logoView.setImageBitmap(selectedPodcast.getLogo());
+            if (logo != null) {
+                logoView.setImageBitmap(logo);
                 logoView.setScaleType(ScaleType.FIT_XY);
             } else
                 showGenericPodcastLogo();
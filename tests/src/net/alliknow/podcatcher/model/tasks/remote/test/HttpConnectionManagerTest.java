@@ -0,0 +1,111 @@
+package net.alliknow.podcatcher.model.tasks.remote.test;
+
+import static net.alliknow.podcatcher.Podcatcher.AUTHORIZATION_KEY;
+import static net.alliknow.podcatcher.Podcatcher.USER_AGENT_KEY;
+
+import junit.framework.TestCase;
+
+import net.alliknow.podcatcher.model.tasks.remote.HttpConnectionManager;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@SuppressWarnings("javadoc")
+public class HttpConnectionManagerTest extends TestCase {
+
+    private final HttpConnectionManager manager = HttpConnectionManager.getInstance();
+
+    @Override
+    protected void tearDown() throws Exception {
+        manager.setMaxConnectionsPerHost(HttpConnectionManager.DEFAULT_MAX_CONNECTIONS_PER_HOST);
+    }
+
+    public final void testRequestHeaders() throws Exception {
+        Map<String, String> headers = HttpConnectionManager.getRequestHeaders(null);
+        assertTrue(headers.containsKey(USER_AGENT_KEY));
+        assertFalse(headers.containsKey(AUTHORIZATION_KEY));
+
+        headers = HttpConnectionManager.getRequestHeaders("Basic abc");
+        assertEquals("Basic abc", headers.get(AUTHORIZATION_KEY));
+
+        final HttpURLConnection connection =
+                manager.openConnection(new URL("http://example.com/feed"), "Basic abc");
+        assertEquals("gzip", connection.getRequestProperty("Accept-Encoding"));
+        assertNotNull(connection.getRequestProperty(USER_AGENT_KEY));
+        assertEquals(HttpConnectionManager.CONNECT_TIMEOUT, connection.getConnectTimeout());
+    }
+
+    public final void testAcquireTimeout() throws Exception {
+        final URL first = new URL("http://timeout.example.com/one");
+        final URL second = new URL("http://timeout.example.com/two");
+        manager.setMaxConnectionsPerHost(1);
+
+        // The first connection is never given back, we still get the second
+        manager.acquire(first);
+        final long start = System.currentTimeMillis();
+        manager.acquire(second, 100);
+        assertTrue(System.currentTimeMillis() - start >= 100);
+
+        manager.finish(first, 10, 20, 100, true);
+        manager.finish(second, 10, 20, 100, true);
+    }
+
+    public final void testRedirectPolicy() throws Exception {
+        final URL http = new URL("http://example.com/feed");
+        final URL https = new URL("https://example.com/feed");
+
+        assertTrue(HttpConnectionManager.canFollowRedirect(http, https));
+        assertTrue(HttpConnectionManager.canFollowRedirect(https, https));
+        assertFalse(HttpConnectionManager.canFollowRedirect(https, http));
+        assertFalse(HttpConnectionManager.canFollowRedirect(http,
+                new URL("ftp://example.com/feed")));
+
+        assertTrue(HttpConnectionManager.isSameOrigin(http,
+                new URL("http://EXAMPLE.com:80/other")));
+        assertFalse(HttpConnectionManager.isSameOrigin(http, https));
+        assertFalse(HttpConnectionManager.isSameOrigin(http,
+                new URL("http://example.com:8080/feed")));
+        assertFalse(HttpConnectionManager.isSameOrigin(http,
+                new URL("http://cdn.example.com/feed")));
+    }
+
+    public final void testPerHostLimit() throws Exception {
+        final URL first = new URL("http://limit.example.com/one");
+        final URL second = new URL("http://limit.example.com/two");
+        final URL other = new URL("http://other.example.com/one");
+        manager.setMaxConnectionsPerHost(1);
+
+        manager.acquire(first);
+        // Other hosts are not affected
+        manager.acquire(other);
+        manager.finish(other, 10, 20, 100, true);
+
+        // The same host needs to wait
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread waiting = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    manager.acquire(second);
+                    acquired.countDown();
+                } catch (Exception e) {
+                    // fail below
+                }
+            }
+        };
+        waiting.start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+
+        manager.finish(first, 10, 20, 100, true);
+        assertTrue(acquired.await(1, TimeUnit.SECONDS));
+        manager.finish(second, 10, 20, 100, false);
+
+        assertTrue(manager.getRequestCount() >= 3);
+        assertTrue(manager.getFailedCount() >= 1);
+        assertTrue(manager.getTotalBytes() >= 300);
+    }
+}
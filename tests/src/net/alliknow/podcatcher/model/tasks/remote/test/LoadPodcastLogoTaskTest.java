@@ -18,6 +18,9 @@
 package net.alliknow.podcatcher.model.tasks.remote.test;
 
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
 import android.test.InstrumentationTestCase;
 
 import net.alliknow.podcatcher.listeners.OnLoadPodcastLogoListener;
@@ -25,6 +28,9 @@ import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastLogoTask;
 import net.alliknow.podcatcher.model.test.Utils;
 import net.alliknow.podcatcher.model.types.Podcast;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
@@ -42,8 +48,8 @@ public class LoadPodcastLogoTaskTest extends InstrumentationTestCase {
         protected boolean failed;
 
         @Override
-        public void onPodcastLogoLoaded(Podcast podcast) {
-            this.result = podcast.getLogo();
+        public void onPodcastLogoLoaded(Podcast podcast, Bitmap logo) {
+            this.result = logo;
             this.failed = false;
 
             signal.countDown();
@@ -57,6 +63,25 @@ public class LoadPodcastLogoTaskTest extends InstrumentationTestCase {
         }
     }
 
+    private static class SamplingTask extends LoadPodcastLogoTask {
+
+        private SamplingTask() {
+            super(null, null);
+        }
+
+        private static int sample(int width, int height, int dimension) {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.outWidth = width;
+            options.outHeight = height;
+
+            return calculateInSampleSize(options, dimension);
+        }
+
+        private Bitmap decode(File file, int dimension) {
+            return decodeAndSampleBitmap(file, dimension);
+        }
+    }
+
     @Override
     protected void setUp() throws Exception {
         System.out.println("Set up test \"LoadPodcastLogo\" by loading example podcasts...");
@@ -100,9 +125,75 @@ public class LoadPodcastLogoTaskTest extends InstrumentationTestCase {
         System.out.println("*** Tested all example podcast, failed on " + failed);
     }
 
+    public final void testCalculateInSampleSize() {
+        assertEquals(1, SamplingTask.sample(100, 100, 250));
+        assertEquals(1, SamplingTask.sample(499, 499, 250));
+        assertEquals(2, SamplingTask.sample(500, 500, 250));
+        assertEquals(8, SamplingTask.sample(3000, 3000, 250));
+        assertEquals(4, SamplingTask.sample(3000, 1400, 250));
+        assertEquals(16, SamplingTask.sample(1400, 1400, 48));
+    }
+
+    public final void testDecodeMemorySize() throws Exception {
+        // Create large artwork as found in many feeds
+        final File file = createArtwork(Bitmap.CompressFormat.JPEG, "artwork.jpeg");
+
+        // The old way: load all bytes, sample with rounding, decode to 32 bit
+        final byte[] data = new byte[(int) file.length()];
+        final FileInputStream in = new FileInputStream(file);
+        int offset = 0;
+        while (offset < data.length)
+            offset += in.read(data, offset, data.length - offset);
+        in.close();
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = Math.round(2048f / 250f);
+        final Bitmap oldLogo = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+        // The new way: decode from file, sample by power of two, 16 bit. This
+        // compares the memory held by the buffer and the result only, not
+        // the actual peak allocation of the decoder.
+        final Bitmap newLogo = new SamplingTask().decode(file, 250);
+
+        assertTrue(newLogo.getWidth() >= 250);
+        assertEquals(Bitmap.Config.RGB_565, newLogo.getConfig());
+        assertTrue(newLogo.getByteCount() < data.length + oldLogo.getByteCount());
+
+        oldLogo.recycle();
+        newLogo.recycle();
+        file.delete();
+    }
+
+    public final void testDecodeOpaquePng() throws Exception {
+        // PNGs might have transparency, but this one has none
+        final File file = createArtwork(Bitmap.CompressFormat.PNG, "artwork.png");
+
+        final Bitmap logo = new SamplingTask().decode(file, 250);
+
+        assertTrue(logo.getWidth() >= 250);
+        assertFalse(logo.hasAlpha());
+        assertEquals(Bitmap.Config.RGB_565, logo.getConfig());
+
+        logo.recycle();
+        file.delete();
+    }
+
+    private File createArtwork(Bitmap.CompressFormat format, String name) throws Exception {
+        final File file = new File(getInstrumentation().getTargetContext().getCacheDir(), name);
+        final Bitmap artwork = Bitmap.createBitmap(2048, 2048, Bitmap.Config.RGB_565);
+        new Canvas(artwork).drawColor(Color.BLUE);
+        final FileOutputStream out = new FileOutputStream(file);
+        artwork.compress(format, 85, out);
+        out.close();
+        artwork.recycle();
+
+        return file;
+    }
+
     private LoadPodcastLogoTask loadAndWait(final MockPodcastLogoLoader mockLoader,
             final Podcast podcast) throws Throwable {
-        final LoadPodcastLogoTask task = new LoadPodcastLogoTask(null, mockLoader);
+        final LoadPodcastLogoTask task = new LoadPodcastLogoTask(getInstrumentation()
+                .getTargetContext(), mockLoader);
 
         signal = new CountDownLatch(1);
 
@@ -0,0 +1,243 @@
+package net.alliknow.podcatcher.model.tasks.remote.test;
+
+import static net.alliknow.podcatcher.Podcatcher.AUTHORIZATION_KEY;
+
+import junit.framework.TestCase;
+
+import net.alliknow.podcatcher.model.tasks.remote.HttpConnectionManager;
+import net.alliknow.podcatcher.model.tasks.remote.LoadRemoteFileTask;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@SuppressWarnings("javadoc")
+public class LoadRemoteFileTaskTest extends TestCase {
+
+    private static final String AUTHORIZATION = "Basic dXNlcjpwYXNz";
+
+    private RedirectServer server;
+
+    /** Answers each path with a fixed status and location */
+    private static class RedirectServer extends Thread {
+
+        private final ServerSocket socket;
+        private final Map<String, String[]> responses = new HashMap<String, String[]>();
+        private final Map<String, Integer> bodies = new HashMap<String, Integer>();
+        private final Map<String, String> authorizations =
+                new ConcurrentHashMap<String, String>();
+
+        private RedirectServer() throws IOException {
+            socket = new ServerSocket(0);
+        }
+
+        private void redirect(String path, int status, String location) {
+            responses.put(path, new String[] {
+                    String.valueOf(status), location
+            });
+        }
+
+        private void body(String path, int length) {
+            bodies.put(path, length);
+        }
+
+        private URL getUrl(String host, String path) throws IOException {
+            return new URL("http://" + host + ":" + socket.getLocalPort() + path);
+        }
+
+        @Override
+        public void run() {
+            while (!socket.isClosed())
+                try {
+                    final Socket client = socket.accept();
+                    try {
+                        answer(client);
+                    } finally {
+                        client.close();
+                    }
+                } catch (IOException ioe) {
+                    // Closed
+                }
+        }
+
+        private void answer(Socket client) throws IOException {
+            final BufferedReader in = new BufferedReader(
+                    new InputStreamReader(client.getInputStream(), "US-ASCII"));
+            final String path = in.readLine().split(" ")[1];
+
+            String line;
+            while ((line = in.readLine()) != null && line.length() > 0)
+                if (line.toLowerCase(Locale.US).startsWith(
+                        AUTHORIZATION_KEY.toLowerCase(Locale.US) + ":"))
+                    authorizations.put(path, line.substring(line.indexOf(':') + 1).trim());
+
+            final OutputStream out = client.getOutputStream();
+            // A body with its length unknown, ends when the connection closes
+            if (bodies.containsKey(path)) {
+                out.write("HTTP/1.1 200 OK\r\nConnection: close\r\n\r\n".getBytes("US-ASCII"));
+                out.write(new byte[bodies.get(path)]);
+                out.flush();
+
+                return;
+            }
+
+            final String[] response = responses.get(path);
+            final String body = "ok";
+            final StringBuilder head = new StringBuilder();
+            if (response == null)
+                head.append("HTTP/1.1 200 OK\r\nContent-Length: " + body.length() + "\r\n");
+            else
+                head.append("HTTP/1.1 " + response[0] + " Redirect\r\nLocation: "
+                        + response[1] + "\r\nContent-Length: 0\r\n");
+            head.append("Connection: close\r\n\r\n");
+            if (response == null)
+                head.append(body);
+
+            out.write(head.toString().getBytes("US-ASCII"));
+            out.flush();
+        }
+
+        private void shutdown() throws IOException {
+            socket.close();
+        }
+    }
+
+    /** Loads the file directly, without running as a task */
+    private static class MockLoadRemoteFileTask extends LoadRemoteFileTask<Void, Void> {
+
+        private MockLoadRemoteFileTask(String authorization) {
+            this.authorization = authorization;
+        }
+
+        private String load(URL remote) throws IOException {
+            return new String(loadFile(remote), "US-ASCII");
+        }
+
+        private InputStream open(URL remote) throws IOException {
+            return openFileStream(remote);
+        }
+
+        private URL getMovedPermanentlyTo() {
+            return movedPermanentlyTo;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            return null;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new RedirectServer();
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    public final void testPermanentRedirects() throws Exception {
+        server.redirect("/a", 301, "/b");
+        server.redirect("/b", 308, "/c");
+
+        final MockLoadRemoteFileTask task = new MockLoadRemoteFileTask(null);
+        assertEquals("ok", task.load(server.getUrl("localhost", "/a")));
+        assertEquals(server.getUrl("localhost", "/c"), task.getMovedPermanentlyTo());
+
+        // The second time the server is not asked for the redirects
+        server.redirect("/a", 404, "/gone");
+        assertEquals("ok", task.load(server.getUrl("localhost", "/a")));
+        assertEquals(server.getUrl("localhost", "/c"), task.getMovedPermanentlyTo());
+    }
+
+    public final void testTemporaryRedirectBreaksChain() throws Exception {
+        server.redirect("/a", 301, "/b");
+        server.redirect("/b", 302, "/c");
+        server.redirect("/c", 301, "/d");
+
+        final MockLoadRemoteFileTask task = new MockLoadRemoteFileTask(null);
+        assertEquals("ok", task.load(server.getUrl("localhost", "/a")));
+        // Only the permanent part before the temporary redirect counts
+        assertEquals(server.getUrl("localhost", "/b"), task.getMovedPermanentlyTo());
+
+        server.redirect("/x", 307, "/y");
+        assertEquals("ok", task.load(server.getUrl("localhost", "/x")));
+        assertNull(task.getMovedPermanentlyTo());
+    }
+
+    public final void testTooManyRedirects() throws Exception {
+        for (int index = 0; index < 6; index++) {
+            server.redirect("/five" + index, 302, "/five" + (index + 1));
+            server.redirect("/six" + index, 302, "/six" + (index + 1));
+        }
+        // The five hop chain ends one step earlier
+        server.redirect("/five4", 302, "/done");
+
+        // Five redirects are followed
+        assertEquals("ok", new MockLoadRemoteFileTask(null)
+                .load(server.getUrl("localhost", "/five0")));
+
+        // Six are not
+        try {
+            new MockLoadRemoteFileTask(null).load(server.getUrl("localhost", "/six0"));
+            fail("Followed too many redirects");
+        } catch (IOException ioe) {
+            // Expected
+        }
+    }
+
+    public final void testOtherProtocolRefused() throws Exception {
+        server.redirect("/ftp", 302, "ftp://localhost/feed");
+
+        try {
+            new MockLoadRemoteFileTask(null).load(server.getUrl("localhost", "/ftp"));
+            fail("Followed redirect to another protocol");
+        } catch (IOException ioe) {
+            // Expected, https to http is covered by HttpConnectionManagerTest
+        }
+    }
+
+    public final void testCloseDrainsUnknownLength() throws Exception {
+        final HttpConnectionManager manager = HttpConnectionManager.getInstance();
+        server.body("/short", 10 * 1024);
+        server.body("/long", 1024 * 1024);
+
+        // Short remainder is read, so the request counts as complete
+        int failed = manager.getFailedCount();
+        InputStream in = new MockLoadRemoteFileTask(null).open(server.getUrl("localhost",
+                "/short"));
+        assertEquals(0, in.read());
+        in.close();
+        assertEquals(failed, manager.getFailedCount());
+
+        // Long remainder is not, the connection is dropped
+        in = new MockLoadRemoteFileTask(null).open(server.getUrl("localhost", "/long"));
+        assertEquals(0, in.read());
+        in.close();
+        assertEquals(failed + 1, manager.getFailedCount());
+    }
+
+    public final void testAuthorizationNotSentToOtherHost() throws Exception {
+        final URL other = server.getUrl("127.0.0.1", "/other");
+        server.redirect("/same", 302, "/auth");
+        server.redirect("/auth", 302, other.toString());
+
+        final MockLoadRemoteFileTask task = new MockLoadRemoteFileTask(AUTHORIZATION);
+        assertEquals("ok", task.load(server.getUrl("localhost", "/same")));
+
+        assertEquals(AUTHORIZATION, server.authorizations.get("/same"));
+        assertEquals(AUTHORIZATION, server.authorizations.get("/auth"));
+        assertFalse(server.authorizations.containsKey("/other"));
+    }
+}
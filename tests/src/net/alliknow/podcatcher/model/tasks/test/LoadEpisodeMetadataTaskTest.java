@@ -0,0 +1,197 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.tasks.test;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import net.alliknow.podcatcher.listeners.OnLoadEpisodeMetadataListener;
+import net.alliknow.podcatcher.model.EpisodeManager;
+import net.alliknow.podcatcher.model.tasks.LoadEpisodeMetadataTask;
+import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+import net.alliknow.podcatcher.model.types.UrlKey;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+@SuppressWarnings("javadoc")
+public class LoadEpisodeMetadataTaskTest extends InstrumentationTestCase {
+
+    private static final int RECORDS = 10000;
+
+    private static final String[] FILES = {
+            EpisodeManager.METADATA_FILENAME, EpisodeManager.LEGACY_METADATA_FILENAME,
+            EpisodeManager.METADATA_JOURNAL_FILENAME
+    };
+
+    private CountDownLatch signal = null;
+
+    private Context context;
+
+    private class MockEpisodeMetadataLoader implements OnLoadEpisodeMetadataListener {
+
+        protected Map<UrlKey, EpisodeMetadata> result;
+
+        @Override
+        public void onEpisodeMetadataLoaded(Map<UrlKey, EpisodeMetadata> metadata) {
+            this.result = metadata;
+
+            signal.countDown();
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        context = getInstrumentation().getTargetContext();
+
+        // Do not lose the app's actual metadata
+        for (String file : FILES)
+            context.getFileStreamPath(file).renameTo(getBackup(file));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (String file : FILES) {
+            context.deleteFile(file);
+            getBackup(file).renameTo(context.getFileStreamPath(file));
+        }
+    }
+
+    public final void testLoadEpisodeMetadata() throws Throwable {
+        writeLegacyFile(RECORDS);
+
+        // First run reads the XML and migrates it
+        final Map<UrlKey, EpisodeMetadata> migrated = loadAndWait();
+
+        assertEquals(RECORDS, migrated.size());
+        assertTrue(context.getFileStreamPath(EpisodeManager.METADATA_FILENAME).exists());
+        assertFalse(context.getFileStreamPath(EpisodeManager.LEGACY_METADATA_FILENAME).exists());
+
+        // Second run reads the binary snapshot
+        final Map<UrlKey, EpisodeMetadata> loaded = loadAndWait();
+
+        assertEquals(RECORDS, loaded.size());
+        for (Map.Entry<UrlKey, EpisodeMetadata> entry : migrated.entrySet()) {
+            final EpisodeMetadata expected = entry.getValue();
+            final EpisodeMetadata actual = loaded.get(entry.getKey());
+
+            assertNotNull(actual);
+            assertEquals(expected.episodeName, actual.episodeName);
+            assertEquals(expected.episodePubDate, actual.episodePubDate);
+            assertEquals(expected.podcastUrl, actual.podcastUrl);
+            assertEquals(expected.resumeAt, actual.resumeAt);
+            assertEquals(expected.isOld, actual.isOld);
+            assertEquals(expected.playlistPosition, actual.playlistPosition);
+        }
+    }
+
+    public final void testLoadPerformance() throws Throwable {
+        // Benchmark only, compares the startup load of the XML file used
+        // before with the binary snapshot for the same records
+        writeLegacyFile(RECORDS);
+
+        Date start = new Date();
+        loadAndWait();
+        final long xmlTime = new Date().getTime() - start.getTime();
+
+        start = new Date();
+        loadAndWait();
+        final long binaryTime = new Date().getTime() - start.getTime();
+
+        System.out.println("Loaded " + RECORDS + " metadata records, XML (with migration) took "
+                + xmlTime + "ms, binary took " + binaryTime + "ms");
+    }
+
+    public final void testLoadCorruptSnapshot() throws Throwable {
+        writeLegacyFile(RECORDS);
+        loadAndWait();
+
+        // Cut the snapshot in half and bring back the XML
+        final File snapshot = context.getFileStreamPath(EpisodeManager.METADATA_FILENAME);
+        final long length = snapshot.length();
+        final RandomAccessFile file = new RandomAccessFile(snapshot, "rw");
+        file.setLength(length / 2);
+        file.close();
+        writeLegacyFile(RECORDS);
+
+        // The corrupt file is kept and the XML fills the gap
+        final Map<UrlKey, EpisodeMetadata> loaded = loadAndWait();
+
+        assertEquals(RECORDS, loaded.size());
+        final File corrupt = new File(snapshot.getPath()
+                + LoadEpisodeMetadataTask.CORRUPT_SUFFIX);
+        assertTrue(corrupt.exists());
+        assertEquals(length / 2, corrupt.length());
+        assertTrue(snapshot.exists());
+        assertFalse(context.getFileStreamPath(EpisodeManager.LEGACY_METADATA_FILENAME).exists());
+
+        corrupt.delete();
+    }
+
+    private Map<UrlKey, EpisodeMetadata> loadAndWait() throws Throwable {
+        final MockEpisodeMetadataLoader mockLoader = new MockEpisodeMetadataLoader();
+        final LoadEpisodeMetadataTask task = new LoadEpisodeMetadataTask(context, mockLoader);
+
+        signal = new CountDownLatch(1);
+
+        runTestOnUiThread(new Runnable() {
+
+            @Override
+            public void run() {
+                task.execute((Void) null);
+            }
+        });
+
+        signal.await();
+        return mockLoader.result;
+    }
+
+    private void writeLegacyFile(int records) throws Exception {
+        final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                context.openFileOutput(EpisodeManager.LEGACY_METADATA_FILENAME,
+                        Context.MODE_PRIVATE), "utf8"));
+
+        writer.write("<?xml version=\"1.0\" encoding=\"utf8\"?>\n<xml>\n");
+        for (int index = 0; index < records; index++) {
+            writer.write("<metadata episodeUrl=\"http://example.com/episode" + index
+                    + ".mp3\">\n");
+            writer.write("<episodeName>Episode " + index + "</episodeName>\n");
+            writer.write("<episodeDate>" + (1362492566000l + index * 1000) + "</episodeDate>\n");
+            writer.write("<podcastName>Podcast " + index % 50 + "</podcastName>\n");
+            writer.write("<podcastUrl>http://example.com/feed" + index % 50
+                    + ".xml</podcastUrl>\n");
+            writer.write("<resumeAt>" + index + "</resumeAt>\n");
+            writer.write("<isOld>true</isOld>\n");
+            if (index % 100 == 0)
+                writer.write("<playlistPosition>" + index / 100 + "</playlistPosition>\n");
+            writer.write("</metadata>\n");
+        }
+        writer.write("</xml>\n");
+
+        writer.close();
+    }
+
+    private File getBackup(String file) {
+        return new File(context.getFilesDir(), file + ".backup");
+    }
+}
@@ -0,0 +1,130 @@
+package net.alliknow.podcatcher.model.test;
+
+import junit.framework.TestCase;
+
+import net.alliknow.podcatcher.model.DateParser;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+@SuppressWarnings("javadoc")
+public class DateParserTest extends TestCase {
+
+    /** 2013-03-05 14:09:26 UTC */
+    private static final long REFERENCE = 1362492566000l;
+
+    /** Date strings as found in real feeds, all meaning the reference date */
+    private static final String[] CORPUS = {
+            "Tue, 05 Mar 2013 14:09:26 GMT",
+            "Tue, 05 Mar 2013 14:09:26 +0000",
+            "Tue, 05 Mar 2013 15:09:26 +0100",
+            "Tue, 05 Mar 2013 09:09:26 EST",
+            "Tue, 05 Mar 2013 06:09:26 PST",
+            "Tue, 05 Mar 2013 15:09:26 CET",
+            "Tue, 5 Mar 2013 14:09:26 UT",
+            "Tue,  05 Mar 2013 14:09:26 GMT ",
+            "05 Mar 2013 14:09:26 GMT",
+            "Tuesday, 05 March 2013 14:09:26 GMT",
+            "Tue, 05 Mar 13 14:09:26 GMT",
+            "Tue, 05 Mar 2013 09:09:26 -05:00",
+            "Tue, 05-Mar-2013 14:09:26 GMT",
+            "Tue, 05 Mar 2013 15:09:26 GMT+01:00",
+            "2013-03-05T14:09:26Z",
+            "2013-03-05T14:09:26+00:00",
+            "2013-03-05T15:09:26+01:00",
+            "2013-03-05T09:09:26-0500",
+            "2013-03-05 14:09:26",
+            "  2013-03-05T14:09:26.000Z"
+    };
+
+    public final void testParse() throws ParseException {
+        for (String date : CORPUS)
+            assertEquals(date, REFERENCE, DateParser.parse(date).getTime());
+
+        // Missing seconds and time
+        assertEquals(REFERENCE - 26000, DateParser.parse("Tue, 05 Mar 2013 14:09 GMT").getTime());
+        assertEquals(REFERENCE - 26000, DateParser.parse("2013-03-05T14:09Z").getTime());
+        assertEquals(1362441600000l, DateParser.parse("Tue, 05 Mar 2013").getTime());
+        assertEquals(1362441600000l, DateParser.parse("2013-03-05").getTime());
+
+        // Fractions, leap years and old dates
+        assertEquals(REFERENCE + 123, DateParser.parse("2013-03-05T14:09:26.123456Z").getTime());
+        assertEquals(951782400000l, DateParser.parse("Tue, 29 Feb 2000 00:00:00 GMT").getTime());
+        assertEquals(-86400000l, DateParser.parse("Wed, 31 Dec 69 00:00:00 GMT").getTime());
+    }
+
+    public final void testParseInvalid() {
+        final String[] invalid = {
+                null, "", "   ", "Yesterday", "Tue, 05 Foo 2013 14:09:26 GMT",
+                "Tue, 05 Mar 2013 14-09-26 GMT", "2013-3-5", "2013-13-05T14:09:26Z",
+                "Tue, 32 Mar 2013 14:09:26 GMT", "Sun, 31 Feb 2013 14:09:26 GMT",
+                "2013-02-29T14:09:26Z", "1900-02-29", "2013-04-31",
+                "Tue, 05 Mar 2013 14:09:26 AEST", "Tue, 05 Mar 2013 14:09:26 XYZ"
+        };
+
+        for (String date : invalid)
+            try {
+                DateParser.parse(date);
+                fail("Should not parse: " + date);
+            } catch (ParseException pe) {
+                // pass
+            }
+    }
+
+    public final void testSystemZones() throws ParseException {
+        // A zone not in our table, but known to the system
+        assertEquals(REFERENCE, DateParser.parse("Tue, 05 Mar 2013 23:09:26 JST").getTime());
+    }
+
+    public final void testLeapYears() throws ParseException {
+        assertEquals(951782400000l, DateParser.parse("2000-02-29").getTime());
+        assertEquals(1330473600000l, DateParser.parse("Wed, 29 Feb 2012 00:00:00 GMT").getTime());
+        assertEquals(1362009600000l, DateParser.parse("2013-02-28").getTime());
+    }
+
+    public final void testSameAsSimpleDateFormat() throws ParseException {
+        // The old implementation only supports named time zones
+        final String[] corpus = {
+                "Tue, 05 Mar 2013 14:09:26 GMT", "Tue, 05 Mar 2013 09:09:26 EST",
+                "Tue, 05 Mar 2013 06:09:26 PST", "Tue, 5 Mar 2013 15:09:26 CET",
+                "Sat, 31 Dec 2011 23:59:59 GMT", "Thu, 01 Jan 1970 00:00:00 GMT"
+        };
+
+        for (String date : corpus) {
+            final DateFormat formatter =
+                    new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.ENGLISH);
+
+            assertEquals(date, formatter.parse(date), DateParser.parse(date));
+        }
+    }
+
+    public final void testPerformance() throws ParseException {
+        // Benchmark only, compares with the SimpleDateFormat used before
+        final int rounds = 10000;
+        final String[] corpus = {
+                "Tue, 05 Mar 2013 14:09:26 GMT", "Tue, 05 Mar 2013 09:09:26 EST",
+                "Tue, 05 Mar 2013 06:09:26 PST", "Tue, 5 Mar 2013 15:09:26 CET"
+        };
+
+        Date start = new Date();
+        for (int round = 0; round < rounds; round++)
+            for (String date : corpus) {
+                DateFormat formatter =
+                        new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.ENGLISH);
+                formatter.parse(date);
+            }
+        final long simpleDateFormatTime = new Date().getTime() - start.getTime();
+
+        start = new Date();
+        for (int round = 0; round < rounds; round++)
+            for (String date : corpus)
+                DateParser.parse(date);
+        final long dateParserTime = new Date().getTime() - start.getTime();
+
+        System.out.println("Parsed " + rounds * corpus.length + " dates, SimpleDateFormat took "
+                + simpleDateFormatTime + "ms, DateParser took " + dateParserTime + "ms");
+    }
+}
@@ -0,0 +1,281 @@
+package net.alliknow.podcatcher.model.test;
+
+import junit.framework.TestCase;
+
+import net.alliknow.podcatcher.model.EpisodeMetadataIndex;
+import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+import net.alliknow.podcatcher.model.types.UrlKey;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+
+@SuppressWarnings("javadoc")
+public class EpisodeMetadataIndexTest extends TestCase {
+
+    private static final String PODCAST_A = "http://example.com/a.xml";
+    private static final String PODCAST_B = "http://example.com/b.xml";
+
+    private Map<UrlKey, EpisodeMetadata> metadata;
+    private EpisodeMetadataIndex index;
+
+    @Override
+    protected void setUp() throws Exception {
+        metadata = new HashMap<UrlKey, EpisodeMetadata>();
+
+        for (int number = 0; number < 10; number++) {
+            final EpisodeMetadata meta = new EpisodeMetadata();
+            meta.podcastUrl = number % 2 == 0 ? PODCAST_A : PODCAST_B;
+            meta.isOld = true;
+
+            metadata.put(createUrl(number), meta);
+        }
+
+        index = new EpisodeMetadataIndex();
+        index.rebuild(metadata);
+    }
+
+    public final void testRebuild() throws MalformedURLException {
+        metadata.get(createUrl(3)).playlistPosition = 1;
+        metadata.get(createUrl(7)).playlistPosition = 0;
+        metadata.get(createUrl(4)).downloadId = 42l;
+        metadata.get(createUrl(4)).filePath = "/sdcard/4.mp3";
+        metadata.get(createUrl(5)).downloadId = 43l;
+        index.rebuild(metadata);
+
+        assertEquals(2, index.getPlaylistSize());
+        assertEquals(createUrl(7), index.getPlaylist().get(0));
+        assertEquals(createUrl(3), index.getPlaylist().get(1));
+        assertEquals(1, index.getDownloads().size());
+        assertTrue(index.getDownloads().contains(createUrl(4)));
+        assertEquals(createUrl(4), index.findByDownloadId(42));
+        assertEquals(createUrl(5), index.findByDownloadId(43));
+        assertNull(index.findByDownloadId(44));
+        assertEquals(5, index.getEntriesForPodcast(PODCAST_A).size());
+        assertEquals(5, index.getEntriesForPodcast(PODCAST_B).size());
+        assertTrue(index.getEntriesForPodcast("http://example.com/c.xml").isEmpty());
+    }
+
+    public final void testUpdate() throws MalformedURLException {
+        final UrlKey key = createUrl(2);
+        final EpisodeMetadata meta = metadata.get(key);
+
+        // Download starts and finishes
+        meta.downloadId = 7l;
+        index.update(key, meta);
+        assertEquals(key, index.findByDownloadId(7));
+        assertTrue(index.getDownloads().isEmpty());
+        meta.filePath = "/sdcard/2.mp3";
+        index.update(key, meta);
+        assertTrue(index.getDownloads().contains(key));
+
+        // Moves to other podcast
+        meta.podcastUrl = PODCAST_B;
+        index.update(key, meta);
+        assertEquals(4, index.getEntriesForPodcast(PODCAST_A).size());
+        assertTrue(index.getEntriesForPodcast(PODCAST_B).contains(key));
+
+        // Download deleted
+        meta.downloadId = null;
+        meta.filePath = null;
+        index.update(key, meta);
+        assertNull(index.findByDownloadId(7));
+        assertTrue(index.getDownloads().isEmpty());
+
+        // Record removed
+        metadata.remove(key);
+        index.update(key, null);
+        assertFalse(index.getEntriesForPodcast(PODCAST_B).contains(key));
+        assertEquals(5, index.getEntriesForPodcast(PODCAST_B).size());
+    }
+
+    public final void testPlaylistConsistency() throws MalformedURLException {
+        final Random random = new Random(42);
+        final List<UrlKey> expected = new ArrayList<UrlKey>();
+
+        // Random inserts and removals, positions are shifted one by one the
+        // way the episode manager does it
+        for (int round = 0; round < 1000; round++) {
+            final UrlKey key = createUrl(random.nextInt(10));
+
+            if (expected.contains(key)) {
+                final int position = expected.indexOf(key);
+                expected.remove(position);
+
+                metadata.get(key).playlistPosition = null;
+                index.update(key, metadata.get(key));
+                shift(position, -1);
+            } else {
+                final int position = random.nextInt(expected.size() + 1);
+                expected.add(position, key);
+
+                shift(position, 1);
+                metadata.get(key).playlistPosition = position;
+                index.update(key, metadata.get(key));
+            }
+
+            assertEquals(expected, index.getPlaylist());
+            assertEquals(expected.size(), index.getPlaylistSize());
+        }
+
+        // The index matches a fresh one
+        final EpisodeMetadataIndex fresh = new EpisodeMetadataIndex();
+        fresh.rebuild(metadata);
+        assertEquals(fresh.getPlaylist(), index.getPlaylist());
+    }
+
+    public final void testPlaylistRanks() throws MalformedURLException {
+        // Ranks might have gaps and be negative, only the order counts
+        final int[] ranks = {
+                2048, -1024, 512, 3072
+        };
+        for (int number = 0; number < ranks.length; number++) {
+            metadata.get(createUrl(number)).playlistPosition = ranks[number];
+            index.update(createUrl(number), metadata.get(createUrl(number)));
+        }
+
+        assertEquals(4, index.getPlaylistSize());
+        assertEquals(1, index.getPlaylistIndex(createUrl(2)));
+        assertEquals(0, index.getPlaylistIndex(createUrl(1)));
+        assertEquals(3, index.getPlaylistIndex(createUrl(3)));
+        assertEquals(-1, index.getPlaylistIndex(createUrl(5)));
+
+        // Move to the top by rank only
+        metadata.get(createUrl(3)).playlistPosition = -2048;
+        index.update(createUrl(3), metadata.get(createUrl(3)));
+        assertEquals(0, index.getPlaylistIndex(createUrl(3)));
+        assertEquals(3, index.getPlaylistIndex(createUrl(0)));
+    }
+
+    public final void testPlaylistNeighbours() throws MalformedURLException {
+        final List<UrlKey> expected = new ArrayList<UrlKey>();
+        for (int number = 0; number < 5; number++) {
+            metadata.get(createUrl(number)).playlistPosition =
+                    number * EpisodeMetadataIndex.PLAYLIST_RANK_SPACING;
+            index.update(createUrl(number), metadata.get(createUrl(number)));
+            expected.add(createUrl(number));
+        }
+
+        assertEquals(createUrl(0), index.getFirstInPlaylist());
+        assertEquals(createUrl(4), index.getLastInPlaylist());
+        assertEquals(createUrl(2), index.getPlaylistEntry(2));
+        assertNull(index.getPlaylistEntry(5));
+        assertNull(index.getPreviousInPlaylist(createUrl(0)));
+        assertEquals(createUrl(1), index.getPreviousInPlaylist(createUrl(2)));
+        assertEquals(createUrl(3), index.getNextInPlaylist(createUrl(2)));
+        assertNull(index.getNextInPlaylist(createUrl(4)));
+        assertNull(index.getNextInPlaylist(createUrl(7)));
+
+        // Move entries up and down by one the way the episode manager does
+        // it, the order kept by the index needs to follow
+        final Random random = new Random(42);
+        for (int round = 0; round < 1000; round++) {
+            final UrlKey key = createUrl(random.nextInt(5));
+            final int position = expected.indexOf(key);
+            final boolean up = random.nextBoolean();
+
+            final UrlKey before;
+            final UrlKey after;
+            if (up && position > 0) {
+                before = index.getPreviousInPlaylist(index.getPreviousInPlaylist(key));
+                after = index.getPreviousInPlaylist(key);
+            } else if (!up && position < expected.size() - 1) {
+                before = index.getNextInPlaylist(key);
+                after = index.getNextInPlaylist(before);
+            } else
+                continue;
+
+            final Integer rank = EpisodeMetadataIndex.createPlaylistRank(
+                    before == null ? null : metadata.get(before).playlistPosition,
+                    after == null ? null : metadata.get(after).playlistPosition);
+            // No room left, spread out again
+            if (rank == null) {
+                for (int number = 0; number < expected.size(); number++) {
+                    metadata.get(expected.get(number)).playlistPosition =
+                            number * EpisodeMetadataIndex.PLAYLIST_RANK_SPACING;
+                    index.update(expected.get(number), metadata.get(expected.get(number)));
+                }
+
+                continue;
+            }
+
+            expected.add(up ? position - 1 : position + 1, expected.remove(position));
+            metadata.get(key).playlistPosition = rank;
+            index.update(key, metadata.get(key));
+
+            assertEquals(expected, index.getPlaylist());
+            assertEquals(up ? position - 1 : position + 1, index.getPlaylistIndex(key));
+        }
+
+        // The index matches a fresh one
+        final EpisodeMetadataIndex fresh = new EpisodeMetadataIndex();
+        fresh.rebuild(metadata);
+        assertEquals(fresh.getPlaylist(), index.getPlaylist());
+        for (UrlKey key : expected)
+            assertEquals(fresh.getPlaylistIndex(key), index.getPlaylistIndex(key));
+    }
+
+    public final void testCreatePlaylistRank() {
+        final int spacing = EpisodeMetadataIndex.PLAYLIST_RANK_SPACING;
+
+        // Empty playlist, top and end
+        assertEquals(Integer.valueOf(0), EpisodeMetadataIndex.createPlaylistRank(null, null));
+        assertEquals(Integer.valueOf(-spacing),
+                EpisodeMetadataIndex.createPlaylistRank(null, 0));
+        assertEquals(Integer.valueOf(2 * spacing),
+                EpisodeMetadataIndex.createPlaylistRank(spacing, null));
+
+        // Midpoints, also for negative ranks and over a wide range
+        assertEquals(Integer.valueOf(512), EpisodeMetadataIndex.createPlaylistRank(0, 1024));
+        assertEquals(Integer.valueOf(-3), EpisodeMetadataIndex.createPlaylistRank(-4, -2));
+        assertEquals(Integer.valueOf(0),
+                EpisodeMetadataIndex.createPlaylistRank(-Integer.MAX_VALUE, Integer.MAX_VALUE));
+
+        // No room between neighbours
+        assertNull(EpisodeMetadataIndex.createPlaylistRank(5, 6));
+        assertNull(EpisodeMetadataIndex.createPlaylistRank(5, 5));
+
+        // Running out of the integer range at either end
+        assertNull(EpisodeMetadataIndex.createPlaylistRank(Integer.MAX_VALUE - 1, null));
+        assertNull(EpisodeMetadataIndex.createPlaylistRank(null, Integer.MIN_VALUE + 1));
+        assertEquals(Integer.valueOf(Integer.MAX_VALUE - spacing - 1),
+                EpisodeMetadataIndex.createPlaylistRank(Integer.MAX_VALUE - 2 * spacing - 1, null));
+
+        // Halving the gap runs out of room after about log2(spacing) steps,
+        // which is when the episode manager spreads the playlist out again
+        Integer after = spacing;
+        int steps = 0;
+        while ((after = EpisodeMetadataIndex.createPlaylistRank(0, after)) != null)
+            steps++;
+        assertEquals(10, steps);
+    }
+
+    public final void testResultsAreCopies() throws MalformedURLException {
+        final Set<UrlKey> entries = index.getEntriesForPodcast(PODCAST_A);
+        entries.clear();
+
+        assertEquals(5, index.getEntriesForPodcast(PODCAST_A).size());
+        assertEquals(new HashSet<UrlKey>(), index.getDownloads());
+    }
+
+    private void shift(int from, int increment) {
+        for (Entry<UrlKey, EpisodeMetadata> entry : metadata.entrySet()) {
+            final EpisodeMetadata meta = entry.getValue();
+
+            if (meta.playlistPosition != null && meta.playlistPosition >= from) {
+                meta.playlistPosition += increment;
+                index.update(entry.getKey(), meta);
+            }
+        }
+    }
+
+    private static UrlKey createUrl(int number) throws MalformedURLException {
+        return UrlKey.parse("http://example.com/episode" + number + ".mp3");
+    }
+}
@@ -0,0 +1,104 @@
+package net.alliknow.podcatcher.model.test;
+
+import junit.framework.TestCase;
+
+import net.alliknow.podcatcher.model.PodcastLoadScheduler;
+import net.alliknow.podcatcher.model.PodcastLoadScheduler.Lane;
+import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastTask;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.net.URL;
+
+@SuppressWarnings("javadoc")
+public class PodcastLoadSchedulerTest extends TestCase {
+
+    private PodcastLoadScheduler scheduler;
+
+    /** Does not load anything */
+    private static class MockLoadPodcastTask extends LoadPodcastTask {
+
+        private MockLoadPodcastTask() {
+            super(null);
+        }
+
+        @Override
+        protected Void doInBackground(Podcast... podcasts) {
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void nothing) {
+            // Nobody to tell
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        scheduler = new PodcastLoadScheduler(1, 1);
+    }
+
+    public final void testCounters() throws Exception {
+        final Podcast first = createPodcast("http://a.example.com/one.xml");
+        final Podcast second = createPodcast("http://a.example.com/two.xml");
+        final Podcast third = createPodcast("http://b.example.com/three.xml");
+
+        assertEquals(0, scheduler.getRunningCount());
+        assertEquals(0, scheduler.getQueueLength());
+        assertEquals(0, scheduler.getAverageWaitTime());
+        assertEquals(0, scheduler.getMaxWaitTime());
+
+        // Only one load at a time
+        assertTrue(scheduler.schedule(first, new MockLoadPodcastTask(), Lane.BACKGROUND));
+        assertTrue(scheduler.schedule(second, new MockLoadPodcastTask(), Lane.BACKGROUND));
+        assertTrue(scheduler.schedule(third, new MockLoadPodcastTask(), Lane.BACKGROUND));
+        assertEquals(1, scheduler.getRunningCount());
+        assertEquals(2, scheduler.getQueueLength());
+        assertEquals(3, scheduler.getScheduledCount());
+
+        // Scheduling again does not add to the queue, moving up a lane neither
+        assertFalse(scheduler.schedule(second, new MockLoadPodcastTask(), Lane.BACKGROUND));
+        assertTrue(scheduler.schedule(third, new MockLoadPodcastTask(), Lane.INTERACTIVE));
+        assertEquals(2, scheduler.getQueueLength());
+
+        // The next load has waited at least this long when started
+        Thread.sleep(50);
+        scheduler.onLoadFinished(first);
+        assertEquals(1, scheduler.getRunningCount());
+        assertEquals(1, scheduler.getQueueLength());
+        assertFalse(scheduler.isScheduled(first));
+        // The interactive load went first, the second is still waiting
+        scheduler.onLoadFinished(second);
+        assertEquals(1, scheduler.getQueueLength());
+        scheduler.onLoadFinished(third);
+        assertTrue(scheduler.getMaxWaitTime() >= 50);
+        assertTrue(scheduler.getAverageWaitTime() <= scheduler.getMaxWaitTime());
+
+        scheduler.onLoadFinished(second);
+        assertEquals(0, scheduler.getRunningCount());
+        assertEquals(0, scheduler.getQueueLength());
+        assertTrue(scheduler.getAverageWaitTime() >= 50 * 2 / 3);
+    }
+
+    public final void testPerHostLimit() throws Exception {
+        scheduler.setMaxLoads(2, 1);
+
+        final Podcast first = createPodcast("http://a.example.com/one.xml");
+        final Podcast second = createPodcast("http://a.example.com/two.xml");
+        final Podcast third = createPodcast("http://b.example.com/three.xml");
+        scheduler.schedule(first, new MockLoadPodcastTask(), Lane.BACKGROUND);
+        scheduler.schedule(second, new MockLoadPodcastTask(), Lane.BACKGROUND);
+        scheduler.schedule(third, new MockLoadPodcastTask(), Lane.BACKGROUND);
+
+        // The second podcast waits for its host, the third can go
+        assertEquals(2, scheduler.getRunningCount());
+        assertEquals(1, scheduler.getQueueLength());
+
+        scheduler.onLoadFinished(first);
+        assertEquals(2, scheduler.getRunningCount());
+        assertEquals(0, scheduler.getQueueLength());
+    }
+
+    private static Podcast createPodcast(String url) throws Exception {
+        return new Podcast(url, new URL(url));
+    }
+}
@@ -0,0 +1,186 @@
+package net.alliknow.podcatcher.model.test;
+
+import static net.alliknow.podcatcher.model.PodcastRefreshPolicy.MAX_INTERVAL;
+import static net.alliknow.podcatcher.model.PodcastRefreshPolicy.MIN_INTERVAL;
+
+import junit.framework.TestCase;
+
+import net.alliknow.podcatcher.model.PodcastRefreshPolicy;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.StringReader;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+@SuppressWarnings("javadoc")
+public class PodcastRefreshPolicyTest extends TestCase {
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+    /** 2013-03-05 14:09:26 UTC */
+    private static final long NOW = 1362492566000l;
+
+    private PodcastRefreshPolicy policy;
+
+    @Override
+    protected void setUp() throws Exception {
+        policy = new PodcastRefreshPolicy(MIN_INTERVAL);
+    }
+
+    public final void testNotLoadedIsDue() throws Exception {
+        final Podcast podcast = createPodcast(DAY, 10);
+
+        assertEquals(0, policy.getNextCheck(podcast));
+        assertTrue(policy.isDue(podcast, NOW));
+    }
+
+    public final void testCadence() throws Exception {
+        // A weekly show is checked four times a week
+        final Podcast weekly = createPodcast(7 * DAY, 10);
+        policy.onLoaded(weekly, NOW);
+        assertEquals(NOW + 7 * DAY / 4, policy.getNextCheck(weekly));
+        assertFalse(policy.isDue(weekly, NOW + DAY));
+        assertTrue(policy.isDue(weekly, NOW + 2 * DAY));
+
+        // A daily show is checked every six hours
+        final Podcast daily = createPodcast(DAY, 10);
+        policy.onLoaded(daily, NOW);
+        assertEquals(NOW + 6 * HOUR, policy.getNextCheck(daily));
+
+        // A monthly show is not checked less often than the maximum
+        final Podcast monthly = createPodcast(30 * DAY, 10);
+        policy.onLoaded(monthly, NOW);
+        assertEquals(NOW + MAX_INTERVAL, policy.getNextCheck(monthly));
+    }
+
+    public final void testNeverMoreOftenThanMinimum() throws Exception {
+        // An hourly show would be checked every 15 minutes by its cadence
+        final Podcast hourly = createPodcast(HOUR, 10);
+        policy.onLoaded(hourly, NOW);
+        assertEquals(NOW + MIN_INTERVAL, policy.getNextCheck(hourly));
+
+        // Asking for less does not help either
+        policy.setMinInterval(HOUR / 2);
+        assertEquals(NOW + MIN_INTERVAL, policy.getNextCheck(hourly));
+
+        // But we can ask for more, e.g. on mobile connections
+        policy.setMinInterval(2 * MIN_INTERVAL);
+        assertEquals(NOW + 2 * MIN_INTERVAL, policy.getNextCheck(hourly));
+    }
+
+    public final void testSilence() throws Exception {
+        // A daily show that has not published for ten days is on a break
+        final Podcast silent = createPodcast(DAY, 10);
+        policy.onLoaded(silent, NOW + 10 * DAY);
+        assertEquals(NOW + 10 * DAY + (10 * DAY + HOUR) / 2 / 4, policy.getNextCheck(silent));
+    }
+
+    public final void testFailureBackoff() throws Exception {
+        final Podcast podcast = createPodcast(DAY, 10);
+
+        policy.onLoadFailed(podcast, NOW);
+        assertEquals(NOW + 2 * MIN_INTERVAL, policy.getNextCheck(podcast));
+        policy.onLoadFailed(podcast, NOW);
+        assertEquals(NOW + 4 * MIN_INTERVAL, policy.getNextCheck(podcast));
+
+        for (int failures = 0; failures < 10; failures++)
+            policy.onLoadFailed(podcast, NOW);
+        assertEquals(NOW + MAX_INTERVAL, policy.getNextCheck(podcast));
+
+        // Success resets the back-off
+        policy.onLoaded(podcast, NOW);
+        assertEquals(NOW + 6 * HOUR, policy.getNextCheck(podcast));
+    }
+
+    public final void testUnchangedBackoff() throws Exception {
+        // Not enough dates to learn the cadence from
+        final Podcast podcast = createPodcast(DAY, 2);
+        policy.onLoaded(podcast, NOW);
+        assertEquals(NOW + MIN_INTERVAL, policy.getNextCheck(podcast));
+
+        // Reloading the same content does not change anything
+        podcast.parse(createParser(createFeed(DAY, 2)));
+        policy.onLoaded(podcast, NOW);
+        assertEquals(NOW + 2 * MIN_INTERVAL, policy.getNextCheck(podcast));
+
+        podcast.parse(createParser(createFeed(DAY, 2)));
+        policy.onLoaded(podcast, NOW);
+        assertEquals(NOW + 4 * MIN_INTERVAL, policy.getNextCheck(podcast));
+    }
+
+    public final void testFreshUntil() throws Exception {
+        final Podcast podcast = createPodcast(DAY, 10);
+
+        // The server's copy is fresh for longer than our interval
+        podcast.setFreshUntil(new Date(NOW + 20 * HOUR));
+        policy.onLoaded(podcast, NOW);
+        assertEquals(NOW + 20 * HOUR, policy.getNextCheck(podcast));
+
+        // But the server does not keep us away forever
+        podcast.setFreshUntil(new Date(NOW + 30 * DAY));
+        policy.onLoaded(podcast, NOW);
+        assertEquals(NOW + MAX_INTERVAL, policy.getNextCheck(podcast));
+
+        // Nor does it make us check more often
+        podcast.setFreshUntil(new Date(NOW + HOUR));
+        policy.onLoaded(podcast, NOW);
+        assertEquals(NOW + 6 * HOUR, policy.getNextCheck(podcast));
+
+        // Failures ignore the freshness
+        podcast.setFreshUntil(new Date(NOW + 30 * DAY));
+        policy.onLoaded(podcast, NOW);
+        policy.onLoadFailed(podcast, NOW);
+        assertEquals(NOW + 2 * MIN_INTERVAL, policy.getNextCheck(podcast));
+    }
+
+    public final void testRemove() throws Exception {
+        final Podcast podcast = createPodcast(DAY, 10);
+        policy.onLoaded(podcast, NOW);
+        policy.remove(podcast);
+
+        assertEquals(0, policy.getNextCheck(podcast));
+    }
+
+    /**
+     * Create a podcast with the given number of episodes, the latest published
+     * an hour before {@link #NOW} and the others at the given interval before.
+     */
+    private static Podcast createPodcast(long interval, int episodes) throws Exception {
+        final Podcast podcast = new Podcast("Test", new URL("http://example.com/feed.xml"));
+        podcast.parse(createParser(createFeed(interval, episodes)));
+
+        return podcast;
+    }
+
+    private static String createFeed(long interval, int episodes) {
+        final SimpleDateFormat format =
+                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        final StringBuilder feed = new StringBuilder("<rss><channel><title>Test</title>");
+        for (int index = 0; index < episodes; index++)
+            feed.append("<item><title>Episode ").append(index).append("</title>")
+                    .append("<enclosure url=\"http://example.com/").append(index)
+                    .append(".mp3\"/><pubDate>")
+                    .append(format.format(new Date(NOW - HOUR - index * interval)))
+                    .append("</pubDate></item>");
+
+        return feed.append("</channel></rss>").toString();
+    }
+
+    private static XmlPullParser createParser(String feed) throws Exception {
+        final XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+
+        final XmlPullParser parser = factory.newPullParser();
+        parser.setInput(new StringReader(feed));
+
+        return parser;
+    }
+}
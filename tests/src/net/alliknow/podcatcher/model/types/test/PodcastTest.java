@@ -4,11 +4,18 @@ package net.alliknow.podcatcher.model.types.test;
 import junit.framework.TestCase;
 
 import net.alliknow.podcatcher.model.test.Utils;
+import net.alliknow.podcatcher.model.types.Episode;
 import net.alliknow.podcatcher.model.types.Podcast;
 
+import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -123,9 +130,63 @@ public class PodcastTest extends TestCase {
         }
     }
 
+    public final void testReloadKeepsFeedOrder() throws Exception {
+        final Podcast podcast = new Podcast("Test", new URL("http://example.com/feed.xml"));
+        podcast.parse(createParser(createFeed(3)));
+
+        // A new episode shows up at the top, the others are re-used
+        final List<Episode> before = podcast.getEpisodes();
+        podcast.parse(createParser(createFeed(4)));
+        final List<Episode> after = podcast.getEpisodes();
+
+        assertEquals(4, after.size());
+        for (int index = 0; index < before.size(); index++)
+            assertSame(before.get(index), after.get(index + 1));
+
+        // Without pubDates, the feed order is the sort order
+        final List<Episode> sorted = new ArrayList<Episode>(after);
+        Collections.sort(sorted);
+        assertEquals(after, sorted);
+        for (int index = 0; index < after.size(); index++)
+            assertEquals(index, after.get(index).getPositionInPodcast());
+
+        // Same with an incremental parse
+        podcast.parse(createParser(createFeed(6)), 2);
+        final List<Episode> incremental = new ArrayList<Episode>(podcast.getEpisodes());
+        assertEquals(6, incremental.size());
+        Collections.sort(incremental);
+        assertEquals(podcast.getEpisodes(), incremental);
+        assertEquals("Episode 5", incremental.get(0).getName());
+        assertEquals("Episode 0", incremental.get(5).getName());
+    }
+
     public final void testLastLoaded() throws XmlPullParserException, IOException {
         for (Podcast podcast : examplePodcasts) {
             assertNotNull(podcast.getLastLoaded());
         }
     }
+
+    /**
+     * Create a feed without pubDates with the given number of episodes, the
+     * latest episode (with the highest number) at the top.
+     */
+    private static String createFeed(int episodes) {
+        final StringBuilder feed = new StringBuilder("<rss><channel><title>Test</title>");
+        for (int index = episodes - 1; index >= 0; index--)
+            feed.append("<item><title>Episode ").append(index).append("</title>")
+                    .append("<enclosure url=\"http://example.com/").append(index)
+                    .append(".mp3\"/></item>");
+
+        return feed.append("</channel></rss>").toString();
+    }
+
+    private static XmlPullParser createParser(String feed) throws Exception {
+        final XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+
+        final XmlPullParser parser = factory.newPullParser();
+        parser.setInput(new StringReader(feed));
+
+        return parser;
+    }
 }
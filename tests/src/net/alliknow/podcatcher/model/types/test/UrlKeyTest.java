@@ -0,0 +1,67 @@
+package net.alliknow.podcatcher.model.types.test;
+
+import junit.framework.TestCase;
+
+import net.alliknow.podcatcher.model.types.UrlKey;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+@SuppressWarnings("javadoc")
+public class UrlKeyTest extends TestCase {
+
+    public final void testEquals() throws MalformedURLException {
+        final UrlKey key = UrlKey.parse("http://example.com/feed.xml");
+
+        assertEquals(key, UrlKey.parse("http://example.com/feed.xml"));
+        assertEquals(key, UrlKey.parse("HTTP://Example.COM/feed.xml"));
+        assertEquals(key, UrlKey.parse("http://example.com:80/feed.xml"));
+        assertEquals(key.hashCode(), UrlKey.parse("http://EXAMPLE.com/feed.xml").hashCode());
+        assertEquals(UrlKey.parse("http://example.com/"), UrlKey.parse("http://example.com"));
+        assertEquals(UrlKey.parse("https://example.com/a"),
+                UrlKey.parse("https://example.com:443/a"));
+
+        // The path and query are case sensitive
+        assertFalse(key.equals(UrlKey.parse("http://example.com/Feed.xml")));
+        assertFalse(key.equals(UrlKey.parse("http://example.com/feed.xml?a=b")));
+        assertFalse(key.equals(UrlKey.parse("https://example.com/feed.xml")));
+        assertFalse(key.equals(UrlKey.parse("http://example.com:8080/feed.xml")));
+        assertFalse(key.equals(null));
+    }
+
+    public final void testToString() throws MalformedURLException {
+        final String url = "http://user@example.com:8080/path/file.mp3?a=b&c=d#ref";
+        final UrlKey key = UrlKey.parse(url);
+
+        assertEquals(url, key.toString());
+        assertEquals(key, UrlKey.parse(key.toString()));
+        assertEquals("http://example.com/", UrlKey.parse("HTTP://EXAMPLE.COM").toString());
+        // The original URL is kept
+        assertEquals("http://EXAMPLE.COM", UrlKey.parse("http://EXAMPLE.COM").getUrl().toString());
+    }
+
+    public final void testNoHostResolution() throws MalformedURLException {
+        // URL.equals() and URL.hashCode() resolve the host names and find
+        // these to be the same, keys must compare the URLs as given
+        final URL name = new URL("http://localhost/episode.mp3");
+        final URL address = new URL("http://127.0.0.1/episode.mp3");
+
+        assertFalse(new UrlKey(name).equals(new UrlKey(address)));
+
+        final Map<UrlKey, Integer> map = new HashMap<UrlKey, Integer>();
+        map.put(new UrlKey(name), 1);
+        map.put(new UrlKey(address), 2);
+        assertEquals(2, map.size());
+        assertEquals(1, map.get(UrlKey.parse(name.toString())).intValue());
+
+        // Hosts that do not resolve at all work just the same
+        final int count = 1000;
+        for (int index = 0; index < count; index++)
+            map.put(new UrlKey(new URL("http://host" + index + ".invalid/episode.mp3")), index);
+        for (int index = 0; index < count; index++)
+            assertEquals(index, map.get(UrlKey.parse("http://HOST" + index
+                    + ".invalid:80/episode.mp3")).intValue());
+    }
+}